@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.text.StringUtils;
@@ -67,9 +68,7 @@ public class MigrationAction implements Serializable, Comparable
     public static MigrationAction createInstance(DocumentReference sourceDocument, DocumentReference targetDocument,
         MigrationPlanTree plan) throws MigrationException
     {
-        MigrationAction action = new MigrationAction(sourceDocument, targetDocument);
-        plan.addAction(action);
-        return action;
+        return plan.createAction(new MigrationAction(sourceDocument, targetDocument), null);
     }
 
     /**
@@ -100,10 +99,7 @@ public class MigrationAction implements Serializable, Comparable
     public static MigrationAction createInstance(DocumentReference sourceDocument, DocumentReference targetDocument,
         MigrationAction parentAction, MigrationPlanTree plan) throws MigrationException
     {
-        MigrationAction action = new MigrationAction(sourceDocument, targetDocument);
-        parentAction.addChild(action);
-        plan.addAction(action);
-        return action;
+        return plan.createAction(new MigrationAction(sourceDocument, targetDocument), parentAction);
     }
 
     /**
@@ -120,9 +116,7 @@ public class MigrationAction implements Serializable, Comparable
     {
         MigrationAction action = new MigrationAction(sourceDocument, targetReference.getTargetDocument());
         action.setDeletePrevious(targetReference.getState() == TargetState.DUPLICATE);
-        parentAction.addChild(action);
-        plan.addAction(action);
-        return action;
+        return plan.createAction(action, parentAction);
     }
 
     /**
@@ -171,13 +165,19 @@ public class MigrationAction implements Serializable, Comparable
         if (o instanceof MigrationAction) {
             MigrationAction otherAction = (MigrationAction) o;
 
-            return sourceDocument.equals(otherAction.sourceDocument)
-                && targetDocument.equals(otherAction.targetDocument);
+            return getSourceDocument().equals(otherAction.getSourceDocument())
+                && getTargetDocument().equals(otherAction.getTargetDocument());
         }
 
         return false;
     }
 
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(getSourceDocument(), getTargetDocument());
+    }
+
     /**
      * @return if the target must be removed before the action is performed
      */
@@ -217,6 +217,29 @@ public class MigrationAction implements Serializable, Comparable
         return children != null ? children : Collections.<MigrationAction>emptyList();
     }
 
+    /**
+     * @return the number of children of the action
+     * @since 0.10.3
+     */
+    public int getChildCount()
+    {
+        return children != null ? children.size() : 0;
+    }
+
+    /**
+     * @param offset the index of the first child to return
+     * @param limit the maximum number of children to return
+     * @return a part of the children of the action
+     * @since 0.10.3
+     */
+    public List<MigrationAction> getChildren(int offset, int limit)
+    {
+        List<MigrationAction> allChildren = getChildren();
+        int start = Math.min(Math.max(offset, 0), allChildren.size());
+        int end = Math.min(start + Math.max(limit, 0), allChildren.size());
+        return allChildren.subList(start, end);
+    }
+
     @Override
     public int compareTo(Object o)
     {
@@ -232,7 +255,7 @@ public class MigrationAction implements Serializable, Comparable
     @Override
     public String toString()
     {
-        return String.format("[%s] -> [%s]", sourceDocument, targetDocument);
+        return String.format("[%s] -> [%s]", getSourceDocument(), getTargetDocument());
     }
 
     /**
@@ -253,6 +276,18 @@ public class MigrationAction implements Serializable, Comparable
         if (preferences == null) {
             preferences = new ArrayList<>();
         }
+        addPreference(preferences, newPreference);
+    }
+
+    /**
+     * Add a preference to a collection, replacing the preference having the same name.
+     *
+     * @param preferences the collection of preferences to update
+     * @param newPreference preference to add
+     * @since 0.10.3
+     */
+    protected static void addPreference(Collection<Preference> preferences, Preference newPreference)
+    {
         Iterator<Preference> it = preferences.iterator();
         while (it.hasNext()) {
             Preference oldPreference = it.next();
@@ -274,6 +309,18 @@ public class MigrationAction implements Serializable, Comparable
         if (rights == null) {
             rights = new ArrayList<>();
         }
+        addRight(rights, newRight);
+    }
+
+    /**
+     * Add a right to a collection, replacing the right having the same concern.
+     *
+     * @param rights the collection of rights to update
+     * @param newRight right to add
+     * @since 0.10.3
+     */
+    protected static void addRight(Collection<Right> rights, Right newRight)
+    {
         Iterator<Right> it = rights.iterator();
         while (it.hasNext()) {
             Right oldRight = it.next();
@@ -291,7 +338,7 @@ public class MigrationAction implements Serializable, Comparable
      */
     public DocumentReference getWebPreferencesReference()
     {
-        return new DocumentReference("WebPreferences", targetDocument.getLastSpaceReference());
+        return new DocumentReference("WebPreferences", getTargetDocument().getLastSpaceReference());
     }
 
     /**
@@ -299,7 +346,7 @@ public class MigrationAction implements Serializable, Comparable
      */
     public boolean isIdentity()
     {
-        return sourceDocument.equals(targetDocument);
+        return getSourceDocument().equals(getTargetDocument());
     }
 
     /**
@@ -307,7 +354,7 @@ public class MigrationAction implements Serializable, Comparable
      */
     public boolean hasPreferences()
     {
-        return preferences != null && !preferences.isEmpty();
+        return !getPreferences().isEmpty();
     }
 
     /**
@@ -315,6 +362,6 @@ public class MigrationAction implements Serializable, Comparable
      */
     public boolean hasRights()
     {
-        return rights != null && !rights.isEmpty();
+        return !getRights().isEmpty();
     }
 }
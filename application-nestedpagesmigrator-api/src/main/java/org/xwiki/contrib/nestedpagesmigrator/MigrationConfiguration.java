@@ -46,6 +46,38 @@ public class MigrationConfiguration implements Serializable
     private boolean convertPreferences;
 
     private boolean convertRights;
+
+    private boolean filterInQuery;
+
+    private boolean useMetadataIndex;
+
+    private boolean useParentGraph;
+
+    private boolean preloadDocumentNames;
+
+    private int planComputationThreads;
+
+    private boolean compactPlan;
+
+    private int planSpillThreshold;
+
+    private int migrationThreads;
+
+    private int solrQueueHighWatermark;
+
+    private int solrQueueLowWatermark;
+
+    private boolean coalesceSaves;
+
+    private boolean executionJournal;
+
+    private boolean deferLinkUpdates;
+
+    private boolean bulkSpaceMoves;
+
+    private int throttleTargetLatency;
+
+    private int throttleMaxHeapUsage;
     
     private List<SpaceReference> excludedSpaces = new ArrayList<>();
     
@@ -69,6 +101,8 @@ public class MigrationConfiguration implements Serializable
         addAutoRedirect = true;
         convertPreferences = true;
         convertRights = false;
+        planComputationThreads = 1;
+        migrationThreads = 1;
         this.wikiReference = wikiReference;
     }
 
@@ -177,6 +211,369 @@ public class MigrationConfiguration implements Serializable
         this.convertRights = convertRights;
     }
 
+    /**
+     * @return if the pages to convert must be filtered by the database query instead of loading each candidate
+     * document (see {@link #setFilterInQuery(boolean)})
+     * @since 0.10.3
+     */
+    public boolean isFilterInQuery()
+    {
+        return filterInQuery;
+    }
+
+    /**
+     * Filter the pages to convert directly in the database query (parent, class and excluded objects) instead of
+     * loading each candidate document. This is much faster on big wikis, but a page is considered as holding a class
+     * as soon as its class definition is stored, even if the class has no property.
+     *
+     * @param filterInQuery if the pages to convert must be filtered by the database query
+     * @since 0.10.3
+     */
+    public void setFilterInQuery(boolean filterInQuery)
+    {
+        this.filterInQuery = filterInQuery;
+    }
+
+    /**
+     * @return if the metadata of all documents must be loaded at once, instead of loading each document when its
+     * parent or its authors are needed (see {@link #setUseMetadataIndex(boolean)})
+     * @since 0.10.3
+     */
+    public boolean isUseMetadataIndex()
+    {
+        return useMetadataIndex;
+    }
+
+    /**
+     * Load the parent and the authors of all documents with a single query before computing the plan, so the
+     * documents don't need to be loaded one by one (and don't fill the document cache). It needs some memory for each
+     * document of the wiki.
+     *
+     * @param useMetadataIndex if the metadata of all documents must be loaded at once
+     * @since 0.10.3
+     */
+    public void setUseMetadataIndex(boolean useMetadataIndex)
+    {
+        this.useMetadataIndex = useMetadataIndex;
+    }
+
+    /**
+     * @return if the plan must be computed from the whole parent graph, built before creating any action (see
+     * {@link #setUseParentGraph(boolean)})
+     * @since 0.10.3
+     */
+    public boolean isUseParentGraph()
+    {
+        return useParentGraph;
+    }
+
+    /**
+     * Build the graph of the parent/child relationships of all the documents to convert before computing their
+     * targets, instead of walking up the parent chain of each document. The graph is built from the metadata index,
+     * which is loaded even if {@link #isUseMetadataIndex()} is false. It has no effect when the children are not moved.
+     *
+     * @param useParentGraph if the plan must be computed from the whole parent graph
+     * @since 0.10.3
+     */
+    public void setUseParentGraph(boolean useParentGraph)
+    {
+        this.useParentGraph = useParentGraph;
+    }
+
+    /**
+     * @return if the names of all documents must be loaded before computing the plan, to check the existence of the
+     * candidate targets in memory (see {@link #setPreloadDocumentNames(boolean)})
+     * @since 0.10.3
+     */
+    public boolean isPreloadDocumentNames()
+    {
+        return preloadDocumentNames;
+    }
+
+    /**
+     * Load a compact set of the names of all documents before computing the plan, so that checking if a candidate
+     * target is free does not need a database query anymore. The wiki is still queried when a name is found in the
+     * set, to rule out hash collisions. When disabled, the existence of each candidate is checked in the wiki.
+     *
+     * @param preloadDocumentNames if the names of all documents must be loaded before computing the plan
+     * @since 0.10.3
+     */
+    public void setPreloadDocumentNames(boolean preloadDocumentNames)
+    {
+        this.preloadDocumentNames = preloadDocumentNames;
+    }
+
+    /**
+     * @return the number of threads used to read the documents while computing the plan (see
+     * {@link #setPlanComputationThreads(int)})
+     * @since 0.10.3
+     */
+    public int getPlanComputationThreads()
+    {
+        return planComputationThreads;
+    }
+
+    /**
+     * Read the parents of the documents to convert with several threads (one task per top-level space) before
+     * computing the plan. The plan is still computed by a single thread, so it is the same whatever the number of
+     * threads is. It has no effect when the metadata index is used, or when the children are not moved.
+     *
+     * @param planComputationThreads the number of threads used to read the documents (1 to disable the parallel
+     * reading)
+     * @since 0.10.3
+     */
+    public void setPlanComputationThreads(int planComputationThreads)
+    {
+        this.planComputationThreads = planComputationThreads;
+    }
+
+    /**
+     * @return if the computed plan is stored in a compact representation (see {@link #setCompactPlan(boolean)})
+     * @since 0.10.3
+     */
+    public boolean isCompactPlan()
+    {
+        return compactPlan;
+    }
+
+    /**
+     * Store the computed plan in primitive arrays, each document reference being recorded only once, instead of one
+     * object per action. The actions are then light views on these arrays, created when they are accessed. It
+     * reduces a lot the memory used by very large plans, which are kept in the job status.
+     *
+     * @param compactPlan if the computed plan must be stored in a compact representation
+     * @since 0.10.3
+     */
+    public void setCompactPlan(boolean compactPlan)
+    {
+        this.compactPlan = compactPlan;
+    }
+
+    /**
+     * @return the number of actions above which the computed plan is stored in a file instead of the memory (see
+     * {@link #setPlanSpillThreshold(int)})
+     * @since 0.10.3
+     */
+    public int getPlanSpillThreshold()
+    {
+        return planSpillThreshold;
+    }
+
+    /**
+     * Store the computed plans having at least the given number of actions in a binary file of the permanent
+     * directory, instead of keeping them in memory until they are executed. The plan is not read from the file on
+     * demand: the first request of the plan (to display a page of its children, to apply the changes of the user or
+     * to execute it) decodes the whole file in memory, and the decoded plan is kept until the garbage collector needs
+     * the memory, after which the next request decodes the whole file again. So only the plans that nobody is
+     * reviewing are kept out of the heap.
+     *
+     * @param planSpillThreshold the minimum number of actions of the plans to store in a file (0 to always keep the
+     * plan in memory)
+     * @since 0.10.3
+     */
+    public void setPlanSpillThreshold(int planSpillThreshold)
+    {
+        this.planSpillThreshold = planSpillThreshold;
+    }
+
+    /**
+     * @return the number of threads used to execute the plan (see {@link #setMigrationThreads(int)})
+     * @since 0.10.3
+     */
+    public int getMigrationThreads()
+    {
+        return migrationThreads;
+    }
+
+    /**
+     * Execute the plan with several threads. An action is always performed after its parent action, but the actions
+     * that are not ancestors of each other can be performed at the same time, each thread having its own context.
+     * Since a page linking to several renamed pages could then be updated by several threads at the same time, the
+     * links are always updated after all the moves in this case (see {@link #setDeferLinkUpdates(boolean)}).
+     *
+     * @param migrationThreads the number of threads used to execute the plan (1 to execute the actions one by one)
+     * @since 0.10.3
+     */
+    public void setMigrationThreads(int migrationThreads)
+    {
+        this.migrationThreads = migrationThreads;
+    }
+
+    /**
+     * @return the size of the Solr indexing queue above which the migration pauses (see
+     * {@link #setSolrQueueHighWatermark(int)})
+     * @since 0.10.3
+     */
+    public int getSolrQueueHighWatermark()
+    {
+        return solrQueueHighWatermark;
+    }
+
+    /**
+     * Before renaming a document, the migration pauses while the Solr indexing queue is bigger than this size, until
+     * it goes down to {@link #getSolrQueueLowWatermark()}. With the default value (0), each rename waits until all the
+     * previously renamed documents are indexed.
+     *
+     * @param solrQueueHighWatermark the size of the Solr indexing queue above which the migration pauses
+     * @since 0.10.3
+     */
+    public void setSolrQueueHighWatermark(int solrQueueHighWatermark)
+    {
+        this.solrQueueHighWatermark = solrQueueHighWatermark;
+    }
+
+    /**
+     * @return the size of the Solr indexing queue below which a paused migration continues (see
+     * {@link #setSolrQueueHighWatermark(int)})
+     * @since 0.10.3
+     */
+    public int getSolrQueueLowWatermark()
+    {
+        return solrQueueLowWatermark;
+    }
+
+    /**
+     * @param solrQueueLowWatermark the size of the Solr indexing queue below which a paused migration continues (it
+     * cannot be higher than {@link #getSolrQueueHighWatermark()})
+     * @since 0.10.3
+     */
+    public void setSolrQueueLowWatermark(int solrQueueLowWatermark)
+    {
+        this.solrQueueLowWatermark = solrQueueLowWatermark;
+    }
+
+    /**
+     * @return if the executor saves the documents as few times as possible (see {@link #setCoalesceSaves(boolean)})
+     * @since 0.10.3
+     */
+    public boolean isCoalesceSaves()
+    {
+        return coalesceSaves;
+    }
+
+    /**
+     * Save the documents as few times as possible during the execution of the plan: the parent field of a moved
+     * document is set when the rename creates it, instead of being saved afterwards, and the "WebPreferences" page is
+     * not saved when the action has no enabled right or preference.
+     *
+     * @param coalesceSaves if the executor saves the documents as few times as possible
+     * @since 0.10.3
+     */
+    public void setCoalesceSaves(boolean coalesceSaves)
+    {
+        this.coalesceSaves = coalesceSaves;
+    }
+
+    /**
+     * @return if the performed actions are written in a journal (see {@link #setExecutionJournal(boolean)})
+     * @since 0.10.3
+     */
+    public boolean isExecutionJournal()
+    {
+        return executionJournal;
+    }
+
+    /**
+     * Write the performed actions in a journal file, so that executing the same plan again (after a crash, for
+     * example) skips them without loading their documents.
+     *
+     * @param executionJournal if the performed actions are written in a journal
+     * @since 0.10.3
+     */
+    public void setExecutionJournal(boolean executionJournal)
+    {
+        this.executionJournal = executionJournal;
+    }
+
+    /**
+     * @return if the links to the migrated documents are updated after all the moves (see
+     * {@link #setDeferLinkUpdates(boolean)})
+     * @since 0.10.3
+     */
+    public boolean isDeferLinkUpdates()
+    {
+        // Updating the links during concurrent moves would lose some updates
+        return deferLinkUpdates || migrationThreads > 1;
+    }
+
+    /**
+     * Update the links to the migrated documents once all the documents have been moved, instead of during each move,
+     * so that a document linking to many migrated documents is saved only once. This is always done when the plan is
+     * executed by several threads (see {@link #setMigrationThreads(int)}).
+     *
+     * @param deferLinkUpdates if the links to the migrated documents are updated after all the moves
+     * @since 0.10.3
+     */
+    public void setDeferLinkUpdates(boolean deferLinkUpdates)
+    {
+        this.deferLinkUpdates = deferLinkUpdates;
+    }
+
+    /**
+     * @return if the spaces are moved at once when possible (see {@link #setBulkSpaceMoves(boolean)})
+     * @since 0.10.3
+     */
+    public boolean isBulkSpaceMoves()
+    {
+        return bulkSpaceMoves;
+    }
+
+    /**
+     * Move a whole space with a single deep rename when the plan moves all its documents to the same relative
+     * location under another space, and when they all have the same author. The other documents are still moved one
+     * by one. This is only done when the plan is executed by a single thread.
+     *
+     * @param bulkSpaceMoves if the spaces are moved at once when possible
+     * @since 0.10.3
+     */
+    public void setBulkSpaceMoves(boolean bulkSpaceMoves)
+    {
+        this.bulkSpaceMoves = bulkSpaceMoves;
+    }
+
+    /**
+     * @return the time (in milliseconds) a rename should take, 0 if the execution is not throttled (see
+     * {@link #setThrottleTargetLatency(int)})
+     * @since 0.10.3
+     */
+    public int getThrottleTargetLatency()
+    {
+        return throttleTargetLatency;
+    }
+
+    /**
+     * Throttle the execution of the plan so that it does not slow down a wiki in production. The renames are paced,
+     * as well as the other writes of the migration (deletions of duplicates, saves of the parent fields, of the
+     * preferences and of the updated links), and the pace is adapted to keep the duration of a write (including the
+     * time spent waiting for the Solr indexer) below the given latency.
+     *
+     * @param throttleTargetLatency the time (in milliseconds) a rename should take, 0 to not throttle the execution
+     * @since 0.10.3
+     */
+    public void setThrottleTargetLatency(int throttleTargetLatency)
+    {
+        this.throttleTargetLatency = throttleTargetLatency;
+    }
+
+    /**
+     * @return the percentage of the heap above which a throttled execution slows down, 0 to ignore the heap usage
+     * @since 0.10.3
+     */
+    public int getThrottleMaxHeapUsage()
+    {
+        return throttleMaxHeapUsage;
+    }
+
+    /**
+     * @param throttleMaxHeapUsage the percentage of the heap above which a throttled execution slows down, 0 to
+     * ignore the heap usage
+     * @since 0.10.3
+     */
+    public void setThrottleMaxHeapUsage(int throttleMaxHeapUsage)
+    {
+        this.throttleMaxHeapUsage = throttleMaxHeapUsage;
+    }
+
     public List<SpaceReference> getExcludedSpaces()
     {
         return new ArrayList<>(excludedSpaces);
@@ -61,11 +61,42 @@ public class MigrationPlanTree
         actions.put(action.getSourceDocument(), action);
         actionsByTarget.put(action.getTargetDocument(), action);
         
+        fireActionAdded(action);
+    }
+
+    /**
+     * Notify the listeners that an action has been added to the plan.
+     *
+     * @param action the added action
+     * @since 0.10.3
+     */
+    protected void fireActionAdded(MigrationAction action)
+    {
         for (MigrationPlanTreeListener listener : listeners) {
             listener.actionAdded(this, action);
         }
     }
     
+    /**
+     * Record a new action in the plan, as a child of the given parent action. Implementations may store the action in
+     * another representation, so the returned action is the one to update afterwards.
+     *
+     * @param action the action to record
+     * @param parentAction the parent action, or null if the action is not attached to the tree yet
+     * @return the recorded action
+     * @throws MigrationException if an action with the same source or the same target already exists
+     * @since 0.10.3
+     */
+    public MigrationAction createAction(MigrationAction action, MigrationAction parentAction)
+        throws MigrationException
+    {
+        if (parentAction != null) {
+            parentAction.addChild(action);
+        }
+        addAction(action);
+        return action;
+    }
+
     public MigrationAction getActionAbout(DocumentReference documentReference)
     {
         MigrationAction action = actions.get(documentReference);
@@ -39,6 +39,21 @@ public interface NestedPagesMigrator
 
     MigrationPlanTree getPlan(String wikiId);
 
+    /**
+     * Keep the modifications made to the plan returned by {@link #getPlan(String)}. It is needed because the plan
+     * returned may be a copy of the kept plan. The default implementation does nothing, which is right for the
+     * implementations returning the kept plan itself.
+     *
+     * @param wikiId the id of the wiki where the plan have been computed
+     * @param plan the modified plan
+     * @throws MigrationException if the plan cannot be saved
+     * @since 0.10.3
+     */
+    default void updatePlan(String wikiId, MigrationPlanTree plan) throws MigrationException
+    {
+        // The plan returned by getPlan() is the kept plan, so the modifications are already kept
+    }
+
     Job startMigration(MigrationPlanTree plan, MigrationConfiguration configuration) throws MigrationException;
 
     /**
@@ -25,12 +25,14 @@ import java.util.List;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.NestedPagesMigrator;
 import org.xwiki.contrib.nestedpagesmigrator.internal.breakage.Breakage;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.MigrationJournalStore;
 import org.xwiki.contrib.nestedpagesmigrator.internal.job.HierarchyBreakageDetectorJob;
 import org.xwiki.contrib.nestedpagesmigrator.internal.job.HierarchyBreakageDetectorJobStatus;
 import org.xwiki.contrib.nestedpagesmigrator.internal.job.MigrationPlanCreatorJob;
@@ -38,6 +40,8 @@ import org.xwiki.contrib.nestedpagesmigrator.internal.job.MigrationPlanCreatorJo
 import org.xwiki.contrib.nestedpagesmigrator.internal.job.MigrationPlanExecutorJob;
 import org.xwiki.contrib.nestedpagesmigrator.internal.job.MigrationPlanExecutorRequest;
 import org.xwiki.contrib.nestedpagesmigrator.internal.job.MigrationPlanRequest;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.MigrationPlanFileStore;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.SpilledMigrationPlan;
 import org.xwiki.job.Job;
 import org.xwiki.job.JobException;
 import org.xwiki.job.JobExecutor;
@@ -65,6 +69,15 @@ public class DefaultNestedPagesMigrator implements NestedPagesMigrator
     @Inject
     private JobStatusStore jobStatusStore;
 
+    @Inject
+    private MigrationPlanFileStore planFileStore;
+
+    @Inject
+    private MigrationJournalStore journalStore;
+
+    @Inject
+    private Logger logger;
+
     @Override
     public Job startMigrationPlanCreation(MigrationConfiguration configuration) throws MigrationException
     {
@@ -98,9 +111,30 @@ public class DefaultNestedPagesMigrator implements NestedPagesMigrator
     public MigrationPlanTree getPlan(String wikiId)
     {
         MigrationPlanCreatorJobStatus jobStatus = (MigrationPlanCreatorJobStatus) getStatus(wikiId, CREATE_PLAN);
+        SpilledMigrationPlan spilledPlan = jobStatus.getSpilledPlan();
+        if (jobStatus.getPlan() == null && spilledPlan != null) {
+            // The decoded plan is only softly kept, so that it does not stay in memory when the memory is needed
+            try {
+                return spilledPlan.load();
+            } catch (MigrationException e) {
+                logger.error("Failed to load the migration plan of the wiki [{}].", wikiId, e);
+                return null;
+            }
+        }
         return jobStatus.getPlan();
     }
 
+    @Override
+    public void updatePlan(String wikiId, MigrationPlanTree plan) throws MigrationException
+    {
+        MigrationPlanCreatorJobStatus jobStatus = (MigrationPlanCreatorJobStatus) getStatus(wikiId, CREATE_PLAN);
+        if (jobStatus.getSpilledPlan() != null) {
+            jobStatus.setSpilledPlan(planFileStore.update(jobStatus.getSpilledPlan(), plan));
+        } else {
+            jobStatus.setPlan(plan);
+        }
+    }
+
     @Override
     public Job startMigration(MigrationPlanTree plan, MigrationConfiguration configuration) throws MigrationException
     {
@@ -137,6 +171,16 @@ public class DefaultNestedPagesMigrator implements NestedPagesMigrator
     {
         MigrationPlanCreatorJobStatus jobStatus = (MigrationPlanCreatorJobStatus) getStatus(wikiId, CREATE_PLAN);
         jobStatus.setPlan(null);
+        if (jobStatus.getSpilledPlan() != null) {
+            jobStatus.getSpilledPlan().delete();
+            jobStatus.setSpilledPlan(null);
+        }
+        // The journal of the discarded plan must not be used by the next plan, even if it is the same
+        try {
+            journalStore.delete(wikiId);
+        } catch (MigrationException e) {
+            logger.warn("Failed to delete the execution journal of the wiki [{}].", wikiId, e);
+        }
     }
 
     @Override
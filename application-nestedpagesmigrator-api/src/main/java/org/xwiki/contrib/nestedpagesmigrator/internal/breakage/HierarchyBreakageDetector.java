@@ -28,12 +28,13 @@ import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadataIndex;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePool;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePoolManager;
 import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.reference.SpaceReference;
-import org.xwiki.model.reference.WikiReference;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
@@ -59,17 +60,34 @@ public class HierarchyBreakageDetector
     @Inject
     private JobProgressManager progressManager;
 
+    @Inject
+    private ReferencePoolManager referencePoolManager;
+
     @Inject
     private Logger logger;
 
     public List<Breakage> detectBreakage(List<DocumentReference> documentsToLookAt)
     {
+        return detectBreakage(documentsToLookAt, null);
+    }
+
+    /**
+     * @param documentsToLookAt the documents to analyze
+     * @param metadataIndex the metadata of the documents of the wiki, used to read the parents instead of loading the
+     * documents (can be null)
+     * @return the documents that would lost their parent
+     * @since 0.10.3
+     */
+    public List<Breakage> detectBreakage(List<DocumentReference> documentsToLookAt, PageMetadataIndex metadataIndex)
+    {
+        ReferencePool referencePool = referencePoolManager.getPool();
         progressManager.pushLevelProgress(documentsToLookAt.size(), this);
         List<Breakage> results = new ArrayList<>();
         for (DocumentReference reference : documentsToLookAt) {
             progressManager.startStep(this);
-            DocumentReference locationParent = computeLocationParent(reference);
-            DocumentReference actualParent = getActualParent(reference);
+            DocumentReference locationParent = computeLocationParent(reference, referencePool);
+            DocumentReference actualParent = metadataIndex != null ? metadataIndex.getParentReference(reference)
+                    : getActualParent(reference);
             if (locationParent != null && !locationParent.equals(actualParent)) {
                 results.add(new Breakage(reference, locationParent, actualParent));
             }
@@ -78,23 +96,23 @@ public class HierarchyBreakageDetector
         return results;
     }
 
-    private DocumentReference computeLocationParent(DocumentReference document)
+    private DocumentReference computeLocationParent(DocumentReference document, ReferencePool referencePool)
     {
         // Case 1: A.B, parent is A.WebHome
         if (!SPACE_HOME.equals(document.getName())) {
-            return new DocumentReference(SPACE_HOME, new SpaceReference(document.getParent()));
+            return referencePool.getWebHome(document.getParent());
         }
 
         EntityReference grandParent = document.getParent().getParent();
 
         // Case 2: A.B.WebHome, parent is A.WebHome
         if (grandParent.getType() == EntityType.SPACE) {
-            return new DocumentReference(SPACE_HOME, new SpaceReference(grandParent));
+            return referencePool.getWebHome(grandParent);
         }
 
         // Case 3: B.WebHome, parent is Main.WebHome
         if (grandParent.getType() == EntityType.WIKI) {
-            return new DocumentReference(SPACE_HOME, new SpaceReference("Main", new WikiReference(grandParent)));
+            return referencePool.getWebHome(referencePool.getSpace("Main", grandParent));
         }
 
         // Other case should not exist
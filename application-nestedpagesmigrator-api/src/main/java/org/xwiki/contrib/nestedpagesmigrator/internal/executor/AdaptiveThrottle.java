@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pace the writes of a migration (the renames, but also the deletions of the duplicates and the saves of the parent
+ * fields, of the preferences and of the updated links) so that it does not degrade the response time of a wiki in
+ * production. The allowed rate of writes is adjusted with an AIMD (additive increase, multiplicative decrease)
+ * controller: it grows slowly as long as the writes take less time than the target latency (which includes the time
+ * spent waiting for the Solr indexer), and it is halved as soon as a write is slower or the heap usage goes above its
+ * limit. The rate is shared by all the threads executing the plan.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class AdaptiveThrottle
+{
+    /**
+     * The rate (writes per second) at the beginning of the migration.
+     */
+    public static final double INITIAL_RATE = 5;
+
+    /**
+     * The lowest allowed rate: one write every 20 seconds.
+     */
+    public static final double MIN_RATE = 0.05;
+
+    /**
+     * The highest allowed rate, which a rename job hardly reaches anyway.
+     */
+    public static final double MAX_RATE = 100;
+
+    private static final double INCREASE_STEP = 0.5;
+
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private static final double PERCENT = 100;
+
+    private final long targetLatency;
+
+    private final int maxHeapUsage;
+
+    private double rate = INITIAL_RATE;
+
+    private long nextSlot;
+
+    /**
+     * Construct a new AdaptiveThrottle.
+     *
+     * @param targetLatency the maximum time (in milliseconds) a write should take
+     * @param maxHeapUsage the maximum percentage of the heap that should be used, 0 to ignore the heap usage
+     */
+    public AdaptiveThrottle(long targetLatency, int maxHeapUsage)
+    {
+        this.targetLatency = targetLatency;
+        this.maxHeapUsage = maxHeapUsage;
+        this.nextSlot = System.nanoTime();
+    }
+
+    /**
+     * Wait until the next write is allowed by the current rate.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException
+    {
+        long waitTime;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextSlot);
+            nextSlot = slot + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            waitTime = slot - now;
+        }
+        if (waitTime > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitTime);
+        }
+    }
+
+    /**
+     * Adjust the rate after a write (a rename or any other write of the migration).
+     *
+     * @param latency the time (in milliseconds) the write took
+     */
+    public synchronized void onRename(long latency)
+    {
+        if (latency > targetLatency || isHeapOverloaded()) {
+            rate = Math.max(MIN_RATE, rate * DECREASE_FACTOR);
+        } else {
+            rate = Math.min(MAX_RATE, rate + INCREASE_STEP);
+        }
+    }
+
+    /**
+     * @return the number of writes per second currently allowed
+     */
+    public synchronized double getRate()
+    {
+        return rate;
+    }
+
+    /**
+     * @return if the heap usage is above its limit
+     */
+    protected boolean isHeapOverloaded()
+    {
+        if (maxHeapUsage <= 0) {
+            return false;
+        }
+        Runtime runtime = Runtime.getRuntime();
+        double usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        return usedMemory * PERCENT / runtime.maxMemory() > maxHeapUsage;
+    }
+}
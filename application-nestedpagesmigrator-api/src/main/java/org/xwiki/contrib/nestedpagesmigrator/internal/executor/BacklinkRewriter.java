@@ -0,0 +1,254 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.ClassBlockMatcher;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Update the links to the migrated documents once all of them have been moved, instead of letting each rename update
+ * the documents linking to the renamed one. A document linking to many migrated documents is then saved only once.
+ * The documents are found with the backlinks table, which still contains the links to the old references since the
+ * documents have not been saved yet. The relative links of the moved documents are updated too.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = BacklinkRewriter.class)
+@Singleton
+public class BacklinkRewriter
+{
+    private static final String STATEMENT =
+            "select distinct link.id.fullName from XWikiLinks link where link.id.link in (:links)";
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final String COMMENT = "Updated the links to the pages migrated by the Nested Pages Migrator.";
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> currentResolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    @Named("compactwiki")
+    private EntityReferenceSerializer<String> compactSerializer;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Update the links to the renamed documents.
+     *
+     * @param renames the new references of the renamed documents, indexed by their old references
+     * @param wikiReference the wiki where the documents have been renamed
+     * @param throttle the throttle pacing the saves of the migration, null if the migration is not throttled
+     * @return the number of saved documents
+     * @throws MigrationException if the backlinks cannot be read
+     */
+    public int rewrite(Map<DocumentReference, DocumentReference> renames, WikiReference wikiReference,
+            AdaptiveThrottle throttle) throws MigrationException
+    {
+        // The documents to update, with the reference against which their links must be resolved
+        Map<DocumentReference, DocumentReference> documents = new LinkedHashMap<>();
+        for (DocumentReference backlink : getBacklinks(renames, wikiReference)) {
+            DocumentReference newReference = renames.get(backlink);
+            documents.put(newReference != null ? newReference : backlink, backlink);
+        }
+        for (Map.Entry<DocumentReference, DocumentReference> rename : renames.entrySet()) {
+            documents.put(rename.getValue(), rename.getKey());
+        }
+
+        int savedDocuments = 0;
+        for (Map.Entry<DocumentReference, DocumentReference> document : documents.entrySet()) {
+            try {
+                savedDocuments += rewrite(document.getKey(), document.getValue(), renames, throttle);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("The update of the links has been interrupted.");
+                break;
+            } catch (Exception e) {
+                logger.warn(String.format("Failed to update the links of [%s].", document.getKey()), e);
+            }
+        }
+        return savedDocuments;
+    }
+
+    private List<DocumentReference> getBacklinks(Map<DocumentReference, DocumentReference> renames,
+            WikiReference wikiReference) throws MigrationException
+    {
+        List<DocumentReference> backlinks = new ArrayList<>();
+        List<String> links = new ArrayList<>(BATCH_SIZE);
+        try {
+            for (DocumentReference oldReference : renames.keySet()) {
+                links.add(localSerializer.serialize(oldReference));
+                if (links.size() == BATCH_SIZE) {
+                    addBacklinks(links, wikiReference, backlinks);
+                    links.clear();
+                }
+            }
+            if (!links.isEmpty()) {
+                addBacklinks(links, wikiReference, backlinks);
+            }
+        } catch (QueryException e) {
+            throw new MigrationException("Failed to get the backlinks of the migrated documents.", e);
+        }
+        return backlinks;
+    }
+
+    private void addBacklinks(List<String> links, WikiReference wikiReference, List<DocumentReference> backlinks)
+        throws QueryException
+    {
+        Query query = queryManager.createQuery(STATEMENT, Query.HQL);
+        query.setWiki(wikiReference.getName());
+        query.bindValue("links", new ArrayList<>(links));
+        for (Object fullName : query.execute()) {
+            backlinks.add(documentReferenceResolver.resolve((String) fullName, wikiReference));
+        }
+    }
+
+    /**
+     * Update the links of a document and of its translations, and save them if needed.
+     *
+     * @param documentReference the document to update
+     * @param baseReference the reference against which the links of the document were written (its old reference if
+     * it has been moved)
+     * @param renames the renamed documents
+     * @param throttle the throttle pacing the saves, or null
+     * @return the number of saved documents (the translations are counted separately)
+     */
+    private int rewrite(DocumentReference documentReference, DocumentReference baseReference,
+            Map<DocumentReference, DocumentReference> renames, AdaptiveThrottle throttle)
+        throws XWikiException, InterruptedException
+    {
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+        XWikiDocument document = xwiki.getDocument(documentReference, context);
+
+        int savedDocuments = 0;
+        // The cached documents must not be modified
+        if (rewrite(document.clone(), documentReference, baseReference, renames, throttle, context)) {
+            savedDocuments++;
+        }
+        // Each translation has its own content
+        for (Locale locale : document.getTranslationLocales(context)) {
+            XWikiDocument translatedDocument = document.getTranslatedDocument(locale, context);
+            if (translatedDocument != document
+                    && rewrite(translatedDocument.clone(), documentReference, baseReference, renames, throttle,
+                    context)) {
+                savedDocuments++;
+            }
+        }
+        return savedDocuments;
+    }
+
+    private boolean rewrite(XWikiDocument document, DocumentReference documentReference,
+            DocumentReference baseReference, Map<DocumentReference, DocumentReference> renames,
+            AdaptiveThrottle throttle, XWikiContext context) throws XWikiException, InterruptedException
+    {
+        XDOM xdom = document.getXDOM();
+
+        boolean modified = false;
+        List<LinkBlock> linkBlocks = xdom.getBlocks(new ClassBlockMatcher(LinkBlock.class), Block.Axes.DESCENDANT);
+        for (LinkBlock linkBlock : linkBlocks) {
+            ResourceReference reference = linkBlock.getReference();
+            if (reference.getType() != ResourceType.DOCUMENT || reference.getReference().isEmpty()) {
+                continue;
+            }
+            DocumentReference linkedDocument = currentResolver.resolve(reference.getReference(), baseReference);
+            DocumentReference newLinkedDocument = renames.get(linkedDocument);
+            if (newLinkedDocument == null) {
+                // Keep the links that still target the same document from the current location
+                if (linkedDocument.equals(currentResolver.resolve(reference.getReference(), documentReference))) {
+                    continue;
+                }
+                newLinkedDocument = linkedDocument;
+            }
+            String newReference = compactSerializer.serialize(newLinkedDocument, documentReference);
+            if (!newReference.equals(reference.getReference())) {
+                reference.setReference(newReference);
+                modified = true;
+            }
+        }
+
+        if (modified) {
+            document.setContent(xdom);
+            save(document, throttle, context);
+        }
+        return modified;
+    }
+
+    private void save(XWikiDocument document, AdaptiveThrottle throttle, XWikiContext context)
+        throws XWikiException, InterruptedException
+    {
+        if (throttle == null) {
+            context.getWiki().saveDocument(document, COMMENT, true, context);
+            return;
+        }
+
+        throttle.acquire();
+        long start = System.nanoTime();
+        context.getWiki().saveDocument(document, COMMENT, true, context);
+        throttle.onRename(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
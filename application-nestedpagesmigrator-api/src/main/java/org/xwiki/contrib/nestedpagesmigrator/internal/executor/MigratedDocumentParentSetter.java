@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatingEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Set the parent field of a migrated document while the rename job creates it, so that the document does not need to
+ * be saved a second time after the rename. The expected documents are kept per thread, since the rename job is run by
+ * the thread performing the action.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component
+@Named(MigratedDocumentParentSetter.NAME)
+@Singleton
+public class MigratedDocumentParentSetter extends AbstractEventListener
+{
+    /**
+     * The name of the listener.
+     */
+    public static final String NAME = "NestedPagesMigrator.MigratedDocumentParentSetter";
+
+    /**
+     * The parent to set on a document, and if it has been set.
+     */
+    private static final class ParentUpdate
+    {
+        private final DocumentReference parent;
+
+        private boolean applied;
+
+        ParentUpdate(DocumentReference parent)
+        {
+            this.parent = parent;
+        }
+    }
+
+    private final ThreadLocal<Map<DocumentReference, ParentUpdate>> expectedDocuments =
+            new ThreadLocal<Map<DocumentReference, ParentUpdate>>()
+            {
+                @Override
+                protected Map<DocumentReference, ParentUpdate> initialValue()
+                {
+                    return new HashMap<>();
+                }
+            };
+
+    /**
+     * Construct a new MigratedDocumentParentSetter.
+     */
+    public MigratedDocumentParentSetter()
+    {
+        super(NAME, new DocumentCreatingEvent());
+    }
+
+    /**
+     * Set the parent of the given document when it is created by the current thread, until
+     * {@link #stopExpecting(DocumentReference)} is called.
+     *
+     * @param document the document that is going to be created
+     * @param parent the parent to set
+     */
+    public void expect(DocumentReference document, DocumentReference parent)
+    {
+        expectedDocuments.get().put(document, new ParentUpdate(parent));
+    }
+
+    /**
+     * Stop setting the parent of the given document.
+     *
+     * @param document the document that was expected
+     * @return if the parent has been set when the document was created
+     */
+    public boolean stopExpecting(DocumentReference document)
+    {
+        ParentUpdate update = expectedDocuments.get().remove(document);
+        return update != null && update.applied;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        Map<DocumentReference, ParentUpdate> documents = expectedDocuments.get();
+        if (documents.isEmpty()) {
+            return;
+        }
+
+        XWikiDocument document = (XWikiDocument) source;
+        ParentUpdate update = documents.get(document.getDocumentReference());
+        if (update != null) {
+            // The translations are created after the default document, so the entry is kept for them
+            document.setParentReference(update.parent);
+            update.applied = true;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+/**
+ * An append-only file listing the actions of a plan that have been performed, so that a new execution of the same plan
+ * can skip them without looking at the documents. The file is synchronized with the disk every
+ * {@link #SYNC_INTERVAL} actions: after a crash, the actions that were performed since the last synchronization are
+ * checked again, as if there were no journal.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class MigrationJournal implements Closeable
+{
+    /**
+     * The number of actions written between two synchronizations with the disk.
+     */
+    public static final int SYNC_INTERVAL = 100;
+
+    private final FileChannel channel;
+
+    private final Writer writer;
+
+    private final Set<String> doneActions;
+
+    private final EntityReferenceSerializer<String> serializer;
+
+    private int unsyncedActions;
+
+    /**
+     * Construct a new MigrationJournal.
+     *
+     * @param channel the channel of the journal file, positioned at its end
+     * @param doneActions the actions already written in the journal
+     * @param serializer the serializer used to identify the actions
+     */
+    MigrationJournal(FileChannel channel, Set<String> doneActions, EntityReferenceSerializer<String> serializer)
+    {
+        this.channel = channel;
+        this.writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+        this.doneActions = doneActions;
+        this.serializer = serializer;
+    }
+
+    /**
+     * @param action an action of the plan
+     * @return if the action has been performed by a previous execution of the plan
+     */
+    public synchronized boolean isDone(MigrationAction action)
+    {
+        return doneActions.contains(serializer.serialize(action.getSourceDocument()));
+    }
+
+    /**
+     * Write that an action has been performed.
+     *
+     * @param action the performed action
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void markDone(MigrationAction action) throws IOException
+    {
+        String id = serializer.serialize(action.getSourceDocument());
+        if (doneActions.add(id)) {
+            writer.write(id);
+            writer.write('\n');
+            if (++unsyncedActions >= SYNC_INTERVAL) {
+                sync();
+            }
+        }
+    }
+
+    private void sync() throws IOException
+    {
+        writer.flush();
+        channel.force(false);
+        unsyncedActions = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+/**
+ * Open the execution journals, stored in the permanent directory, one file per wiki. The first line of a journal
+ * identifies the plan it belongs to, so the journal of another plan is discarded instead of being used.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = MigrationJournalStore.class)
+@Singleton
+public class MigrationJournalStore
+{
+    private static final String FOLDER = "nestedpagesmigrator/journals";
+
+    private static final String EXTENSION = ".journal";
+
+    private static final char NEW_LINE = '\n';
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    /**
+     * Open the journal of a plan, creating it if the wiki has no journal for this plan yet.
+     *
+     * @param plan the plan to execute
+     * @param configuration the configuration of the execution
+     * @return the journal
+     * @throws MigrationException if the journal cannot be opened
+     */
+    public MigrationJournal open(MigrationPlanTree plan, MigrationConfiguration configuration)
+        throws MigrationException
+    {
+        File file = getFile(configuration.getWikiReference().getName());
+        String planId = getPlanId(plan);
+        try {
+            Set<String> doneActions = new HashSet<>();
+            if (!read(file, planId, doneActions)) {
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), (planId + NEW_LINE).getBytes(StandardCharsets.UTF_8));
+            }
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            return new MigrationJournal(channel, doneActions, serializer);
+        } catch (IOException e) {
+            throw new MigrationException(String.format("Failed to open the journal [%s].", file), e);
+        }
+    }
+
+    /**
+     * Delete the journal of a wiki, once its plan has been fully executed or discarded. Otherwise, executing the same
+     * plan again (after restoring a backup of the wiki, for example) would skip all the actions.
+     *
+     * @param wikiId the wiki whose journal must be deleted
+     * @throws MigrationException if the journal cannot be deleted
+     */
+    public void delete(String wikiId) throws MigrationException
+    {
+        File file = getFile(wikiId);
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            throw new MigrationException(String.format("Failed to delete the journal [%s].", file), e);
+        }
+    }
+
+    /**
+     * Read the actions of an existing journal.
+     *
+     * @return false if there is no journal for this plan
+     */
+    private boolean read(File file, String planId, Set<String> doneActions) throws IOException
+    {
+        if (!file.exists()) {
+            return false;
+        }
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        List<String> lines = Arrays.asList(content.split(String.valueOf(NEW_LINE), -1));
+        if (lines.size() < 2 || !planId.equals(lines.get(0))) {
+            return false;
+        }
+        // The last line is either empty or a line truncated by a crash
+        doneActions.addAll(lines.subList(1, lines.size() - 1));
+        truncate(file, content.lastIndexOf(NEW_LINE) + 1, content);
+        return true;
+    }
+
+    private void truncate(File file, int length, String content) throws IOException
+    {
+        if (length < content.length()) {
+            long size = content.substring(0, length).getBytes(StandardCharsets.UTF_8).length;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(size);
+            }
+        }
+    }
+
+    /**
+     * @return a digest of the source, the target and the enabled flags of all the actions of the plan, so that the
+     * journal is discarded when the user enables or disables a part of the plan
+     */
+    private String getPlanId(MigrationPlanTree plan) throws MigrationException
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new MigrationException("SHA-1 is not supported.", e);
+        }
+
+        // The plan is walked without recursion, since the parent chains can be very long
+        Deque<Iterator<MigrationAction>> stack = new ArrayDeque<>();
+        stack.push(plan.getTopLevelAction().getChildren().iterator());
+        while (!stack.isEmpty()) {
+            Iterator<MigrationAction> iterator = stack.peek();
+            if (!iterator.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            MigrationAction action = iterator.next();
+            update(digest, serializer.serialize(action.getSourceDocument()));
+            update(digest, serializer.serialize(action.getTargetDocument()));
+            update(digest, getEnabledFlags(action));
+            stack.push(action.getChildren().iterator());
+        }
+
+        return new BigInteger(1, digest.digest()).toString(16);
+    }
+
+    private String getEnabledFlags(MigrationAction action)
+    {
+        StringBuilder flags = new StringBuilder();
+        flags.append(getFlag(action.isEnabled()));
+        for (Right right : action.getRights()) {
+            flags.append(getFlag(right.isEnabled()));
+        }
+        flags.append(' ');
+        for (Preference preference : action.getPreferences()) {
+            flags.append(getFlag(preference.isEnabled()));
+        }
+        return flags.toString();
+    }
+
+    private char getFlag(boolean enabled)
+    {
+        return enabled ? '1' : '0';
+    }
+
+    private void update(MessageDigest digest, String value)
+    {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) NEW_LINE);
+    }
+
+    private File getFile(String wikiId) throws MigrationException
+    {
+        try {
+            return new File(new File(environment.getPermanentDirectory(), FOLDER),
+                    URLEncoder.encode(wikiId, "UTF-8") + EXTENSION);
+        } catch (UnsupportedEncodingException e) {
+            throw new MigrationException("UTF-8 is not supported.", e);
+        }
+    }
+}
@@ -19,6 +19,22 @@
  */
 package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
 
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.inject.Inject;
 import javax.inject.Provider;
 
@@ -27,13 +43,22 @@ import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.InstantiationStrategy;
 import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.Preference;
 import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.contrib.nestedpagesmigrator.internal.job.MigrationPlanExecutorJobStatus;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobContext;
 import org.xwiki.job.event.status.JobProgressManager;
+import org.xwiki.logging.LogQueue;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.logging.event.LogQueueListener;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -58,6 +83,11 @@ import com.xpn.xwiki.objects.BaseObject;
 @InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
 public class MigrationPlanExecutor
 {
+    /**
+     * Time given to the running actions to stop when the parallel execution ends, in seconds.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 60;
+
     @Inject
     private JobProgressManager progressManager;
 
@@ -76,12 +106,32 @@ public class MigrationPlanExecutor
     @Inject
     private Logger logger;
 
+    @Inject
+    private LoggerManager loggerManager;
+
+    @Inject
+    private JobContext jobContext;
+
     @Inject
     private ObservationManager observationManager;
 
-    private XWikiContext context;
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private SolrIndexingBackPressure solrIndexingBackPressure;
 
-    private XWiki xwiki;
+    @Inject
+    private MigratedDocumentParentSetter parentSetter;
+
+    @Inject
+    private MigrationJournalStore journalStore;
+
+    @Inject
+    private BacklinkRewriter backlinkRewriter;
+
+    @Inject
+    private SpaceMoveDetector spaceMoveDetector;
 
     private DocumentReference redirectClass;
 
@@ -91,6 +141,33 @@ public class MigrationPlanExecutor
 
     private DocumentReference preferencesClassReference;
 
+    private volatile MigrationJournal journal;
+
+    /**
+     * The moved documents, when the links are updated after all the moves.
+     */
+    private Map<DocumentReference, DocumentReference> renames;
+
+    /**
+     * The documents moved with their space, associated to the author that must update their parent field (or null if
+     * the parent field has been set during the move).
+     */
+    private Map<DocumentReference, DocumentReference> movedWithSpace;
+
+    /**
+     * The spaces found not movable at once, so that they are not checked again.
+     */
+    private Set<SpaceReference> notMovableSpaces;
+
+    private AdaptiveThrottle throttle;
+
+    private MigrationPlanExecutorJobStatus status;
+
+    /**
+     * The number of actions that have failed, the journal is kept when it is not 0.
+     */
+    private int failedActions;
+
     /**
      * Perform the migration described on the given plan.
      *
@@ -100,13 +177,29 @@ public class MigrationPlanExecutor
      */
     public void performMigration(MigrationPlanTree plan, MigrationConfiguration configuration) throws MigrationException
     {
+        performMigration(plan, configuration, null);
+    }
+
+    /**
+     * Perform the migration described on the given plan.
+     *
+     * @param plan the plan to execute
+     * @param configuration the configuration
+     * @param status the status of the job executing the plan, updated with the rate of the renames (can be null)
+     * @throws MigrationException if error happens
+     * @since 0.10.3
+     */
+    public void performMigration(MigrationPlanTree plan, MigrationConfiguration configuration,
+            MigrationPlanExecutorJobStatus status) throws MigrationException
+    {
+        this.status = status;
+        this.failedActions = 0;
         observationManager.notify(new BeginMigrationEvent(configuration.getWikiReference().getName()), this);
 
-        context = contextProvider.get();
-        xwiki = context.getWiki();
         redirectClass = new DocumentReference("RedirectClass",
                 new SpaceReference("XWiki", configuration.getWikiReference()));
 
+        boolean completed = false;
         try {
             this.configuration = configuration;
             this.rightsClassReference =
@@ -116,14 +209,54 @@ public class MigrationPlanExecutor
 
             progressManager.pushLevelProgress(plan.getActions().size(), this);
             logger.info("Start the execution of the plan.");
+            long pauseCount = solrIndexingBackPressure.getPauseCount();
+            long pauseTime = solrIndexingBackPressure.getPauseTime();
 
-            for (MigrationAction action : plan.getTopLevelAction().getChildren()) {
-                performAction(action);
+            if (configuration.isExecutionJournal()) {
+                journal = journalStore.open(plan, configuration);
+            }
+            if (configuration.isDeferLinkUpdates()) {
+                renames = new ConcurrentHashMap<>();
+            }
+            if (configuration.isBulkSpaceMoves() && configuration.getMigrationThreads() <= 1) {
+                movedWithSpace = new HashMap<>();
+                notMovableSpaces = new HashSet<>();
+            }
+            if (configuration.getThrottleTargetLatency() > 0) {
+                throttle = new AdaptiveThrottle(configuration.getThrottleTargetLatency(),
+                        configuration.getThrottleMaxHeapUsage());
+                updateRenameRate();
+            }
+
+            if (configuration.getMigrationThreads() > 1) {
+                performActionsInParallel(plan, configuration.getMigrationThreads());
+            } else {
+                for (MigrationAction action : plan.getTopLevelAction().getChildren()) {
+                    performAction(action);
+                }
+            }
+
+            if (renames != null && !renames.isEmpty() && !Thread.currentThread().isInterrupted()) {
+                logger.info("Update the links to the [{}] migrated documents.", renames.size());
+                int savedDocuments = backlinkRewriter.rewrite(renames, configuration.getWikiReference(), throttle);
+                if (throttle != null) {
+                    updateRenameRate();
+                }
+                logger.info("The links of [{}] documents have been updated.", savedDocuments);
             }
 
             progressManager.popLevelProgress(this);
+            completed = failedActions == 0 && !Thread.currentThread().isInterrupted();
             logger.info("Plan have been executed.");
+            // Not exact if several migrations are running at the same time, but it's unlikely
+            logger.debug("The migration has waited [{}] times for the Solr indexer, during [{}] ms.",
+                    solrIndexingBackPressure.getPauseCount() - pauseCount,
+                    solrIndexingBackPressure.getPauseTime() - pauseTime);
         } finally {
+            closeJournal();
+            if (completed && configuration.isExecutionJournal()) {
+                deleteJournal(configuration.getWikiReference().getName());
+            }
             observationManager.notify(new EndMigrationEvent(configuration.getWikiReference().getName()), this);
         }
     }
@@ -135,33 +268,215 @@ public class MigrationPlanExecutor
      */
     private void performAction(MigrationAction action)
     {
+        // Stop as soon as the execution is interrupted, instead of failing on each remaining action
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+
         progressManager.startStep(this);
 
+        logConversion(action);
+
+        try {
+            if (movedWithSpace != null) {
+                moveSpace(action);
+            }
+            migrate(action);
+            markDone(action);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("The execution of the plan has been interrupted.");
+            return;
+        } catch (Exception e) {
+            logFailure(action, e);
+        }
+
+        // Do the children, whatever happen to the parent...
+        for (MigrationAction child : action.getChildren()) {
+            performAction(child);
+        }
+    }
+
+    /**
+     * Perform the actions on a pool of threads. The children of an action are scheduled once the action is done, so
+     * an action is always performed after its parent, and the subtrees of the plan are performed at the same time.
+     * The progress is handled by the current thread. The logs and the current job are held per thread, so the worker
+     * threads send their logs to the job status too, and run the rename jobs as sub-jobs of the current job.
+     *
+     * @param plan the plan to execute
+     * @param threads the number of threads to use
+     * @throws MigrationException if the execution is interrupted
+     */
+    private void performActionsInParallel(MigrationPlanTree plan, int threads) throws MigrationException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new WorkerThreadFactory(contextProvider.get(),
+                jobContext.getCurrentJob(), status != null ? status.getLog() : null));
+        CompletionService<ActionResult> completionService = new ExecutorCompletionService<>(pool);
+        try {
+            int pendingActions = 0;
+            for (MigrationAction action : plan.getTopLevelAction().getChildren()) {
+                submitAction(action, completionService);
+                pendingActions++;
+            }
+
+            while (pendingActions > 0) {
+                ActionResult result = completionService.take().get();
+                pendingActions--;
+                progressManager.startStep(this);
+                if (result.error != null) {
+                    logFailure(result.action, result.error);
+                } else {
+                    markDone(result.action);
+                }
+
+                // Do the children, whatever happen to the parent...
+                for (MigrationAction child : result.action.getChildren()) {
+                    submitAction(child, completionService);
+                    pendingActions++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MigrationException("The execution of the plan has been interrupted.", e);
+        } catch (ExecutionException e) {
+            // Should not happen since the tasks catch their errors
+            throw new MigrationException("Failed to execute the plan.", e.getCause());
+        } finally {
+            shutdown(pool);
+        }
+    }
+
+    /**
+     * Stop the pool and wait for its threads, so that no action is still running when the execution ends (which
+     * happens before all the actions are done when the execution fails or is interrupted).
+     */
+    private void shutdown(ExecutorService pool)
+    {
+        pool.shutdownNow();
+        try {
+            if (!pool.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                logger.warn("Some actions of the plan are still running after the end of the execution.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void submitAction(final MigrationAction action, CompletionService<ActionResult> completionService)
+    {
+        logConversion(action);
+
+        completionService.submit(new Callable<ActionResult>()
+        {
+            @Override
+            public ActionResult call()
+            {
+                try {
+                    migrate(action);
+                    return new ActionResult(action, null);
+                } catch (Exception e) {
+                    return new ActionResult(action, e);
+                }
+            }
+        });
+    }
+
+    private void markDone(MigrationAction action)
+    {
+        // A disabled action is not done: it must be performed if the user enables it before the next execution
+        if (journal != null && action.isEnabled()) {
+            try {
+                journal.markDone(action);
+            } catch (IOException e) {
+                logger.warn("Failed to write the execution journal, it is not used anymore by this execution.", e);
+                closeJournal();
+            }
+        }
+    }
+
+    private void closeJournal()
+    {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the execution journal.", e);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Delete the journal of a plan that has been fully executed, so that executing the same plan again (after
+     * restoring a backup of the wiki, for example) does not skip all the actions.
+     */
+    private void deleteJournal(String wikiId)
+    {
+        try {
+            journalStore.delete(wikiId);
+        } catch (MigrationException e) {
+            logger.warn("Failed to delete the execution journal.", e);
+        }
+    }
+
+    private void logConversion(MigrationAction action)
+    {
         String sourceDocument = serializer.serialize(action.getSourceDocument());
         String targetDocument = serializer.serialize(action.getTargetDocument());
         logger.info("Converting [{}] to [{}].", sourceDocument, targetDocument);
+    }
 
-        try {
-            // Move the document (if this action is enabled by the user)
-            if (action.isEnabled() && !action.isIdentity() && isDocumentUnMigratedYet(action.getSourceDocument())) {
+    private void logFailure(MigrationAction action, Exception e)
+    {
+        failedActions++;
+        logger.warn(String.format("Failed to perform the migration of [%s].", action.getSourceDocument()), e);
+    }
+
+    /**
+     * Perform a migration action, without its children.
+     *
+     * @param action the action to perform
+     * @throws Exception if error happens
+     */
+    private void migrate(MigrationAction action) throws Exception
+    {
+        // Skip the actions performed by a previous execution of the plan, without loading their documents
+        boolean movable = action.isEnabled() && !action.isIdentity();
+        MigrationJournal currentJournal = journal;
+        if (currentJournal != null && currentJournal.isDone(action)) {
+            if (movable) {
+                recordRename(action);
+            }
+            return;
+        }
+
+        // Move the document (if this action is enabled by the user)
+        if (movable) {
+            if (movedWithSpace != null && movedWithSpace.containsKey(action.getSourceDocument())) {
+                DocumentReference author = movedWithSpace.get(action.getSourceDocument());
+                if (author != null) {
+                    updateParentField(action.getTargetDocument(), author);
+                }
+            } else if (isDocumentUnMigratedYet(action.getSourceDocument())) {
                 if (action.shouldDeletePrevious()) {
                     deleteDocument(action);
                 }
                 moveDocument(action);
             }
+            // The links to a document moved by a previous execution may not have been updated yet
+            recordRename(action);
+        }
 
-            // Apply rights and preferences
-            if (action.hasRights() || action.hasPreferences()) {
-                applyRightsAndPreferences(action);
-            }
-
-        } catch (Exception e) {
-            logger.warn(String.format("Failed to perform the migration of [%s].", action.getSourceDocument()), e);
+        // Apply rights and preferences
+        if (action.hasRights() || action.hasPreferences()) {
+            applyRightsAndPreferences(action);
         }
+    }
 
-        // Do the children, whatever happen to the parent...
-        for (MigrationAction child : action.getChildren()) {
-            performAction(child);
+    private void recordRename(MigrationAction action)
+    {
+        if (renames != null) {
+            renames.put(action.getSourceDocument(), action.getTargetDocument());
         }
     }
 
@@ -173,6 +488,9 @@ public class MigrationPlanExecutor
      */
     private boolean isDocumentUnMigratedYet(DocumentReference documentReference) throws XWikiException
     {
+        XWikiContext context = contextProvider.get();
+        XWiki xwiki = context.getWiki();
+
         // If the document do not exist anymore, it must have been migrated
         if (!xwiki.exists(documentReference, context)) {
             return false;
@@ -190,27 +508,34 @@ public class MigrationPlanExecutor
      * @param action the action containing the preferences and the rights to set
      *
      * @throws XWikiException if error happens
+     * @throws InterruptedException if the execution is interrupted while waiting for the throttle
      */
-    private void applyRightsAndPreferences(MigrationAction action) throws XWikiException
+    private void applyRightsAndPreferences(MigrationAction action) throws XWikiException, InterruptedException
     {
         XWikiContext context = contextProvider.get();
         XWiki xwiki = context.getWiki();
 
         XWikiDocument preferencesPage = xwiki.getDocument(action.getWebPreferencesReference(), context);
 
+        boolean modified = false;
+
         // Apply rights
         if (action.hasRights()) {
-            applyRights(action, preferencesPage, context);
+            modified |= applyRights(action, preferencesPage, context);
         }
 
         // Apply preferences
         if (action.hasPreferences()) {
-            applyPreferences(action, preferencesPage, context);
+            modified |= applyPreferences(action, preferencesPage, context);
         }
 
-        // Save the document
-        xwiki.saveDocument(preferencesPage,
-                "Rights and/or preferences set by the Nested Pages Migrator Application.", context);
+        // Save the document (unless the user has disabled all the rights and preferences)
+        if (modified || !configuration.isCoalesceSaves()) {
+            long start = startWrite();
+            xwiki.saveDocument(preferencesPage,
+                    "Rights and/or preferences set by the Nested Pages Migrator Application.", context);
+            endWrite(start);
+        }
     }
 
     /**
@@ -228,7 +553,9 @@ public class MigrationPlanExecutor
         XWikiContext  context  = contextProvider.get();
         XWiki         xwiki    = context.getWiki();
         XWikiDocument document = xwiki.getDocument(action.getTargetDocument(), context);
+        long start = startWrite();
         context.getWiki().deleteDocument(document, true, context);
+        endWrite(start);
     }
 
     /**
@@ -242,26 +569,169 @@ public class MigrationPlanExecutor
     {
         DocumentReference author = getDocumentAuthor(action.getSourceDocument())    ;
 
-        // Rename the document
-        renameJobExecutor.rename(action.getSourceDocument(), action.getTargetDocument(), author, configuration);
+        DocumentReference parent = getParentReference(action.getTargetDocument());
+        boolean hasParent = parent != null;
 
-        // Update the "parent" field of the target document to point to the new parent
-        EntityReference spaceParent = action.getTargetDocument().getLastSpaceReference().getParent();
-        if (spaceParent.getType() == EntityType.SPACE) {
-            // To avoid giving admin right to the document, save it with the same author
-            XWikiContext context = contextProvider.get();
-            DocumentReference currentUser = context.getUserReference();
+        // Rename the document, setting its parent while it is created when the saves are coalesced
+        long start = startWrite();
+        if (hasParent && configuration.isCoalesceSaves()) {
+            parentSetter.expect(action.getTargetDocument(), parent);
             try {
-                context.setUserReference(author);
-                // Update the parent using the bridge
-                documentAccessBridge.setDocumentParentReference(action.getTargetDocument(),
-                        new DocumentReference("WebHome", new SpaceReference(spaceParent)));
+                renameJobExecutor.rename(action.getSourceDocument(), action.getTargetDocument(), author,
+                        configuration);
             } finally {
-                context.setUserReference(currentUser);
+                if (parentSetter.stopExpecting(action.getTargetDocument())) {
+                    hasParent = false;
+                }
+            }
+        } else {
+            renameJobExecutor.rename(action.getSourceDocument(), action.getTargetDocument(), author, configuration);
+        }
+        endWrite(start);
+
+        // Update the "parent" field of the target document to point to the new parent
+        if (hasParent) {
+            updateParentField(action.getTargetDocument(), author);
+        }
+    }
+
+    /**
+     * Move the space of the action with a single deep rename, if the action and its descendants move all the
+     * documents of the space to the same relative location. The moved documents are then skipped by
+     * {@link #migrate(MigrationAction)}, except for their parent field.
+     *
+     * @param action the action to perform
+     * @throws InterruptedException if the execution is interrupted
+     */
+    private void moveSpace(MigrationAction action) throws InterruptedException
+    {
+        MigrationJournal currentJournal = journal;
+        if (movedWithSpace.containsKey(action.getSourceDocument())
+                || currentJournal != null && currentJournal.isDone(action)) {
+            return;
+        }
+
+        SpaceMove spaceMove;
+        try {
+            spaceMove = spaceMoveDetector.detect(action, notMovableSpaces);
+        } catch (MigrationException e) {
+            logger.warn(String.format("Failed to check if the space of [%s] can be moved at once.",
+                    action.getSourceDocument()), e);
+            return;
+        }
+        if (spaceMove == null) {
+            return;
+        }
+
+        logger.info("Moving the space [{}] to [{}], with its [{}] documents.", spaceMove.getSource(),
+                spaceMove.getTarget(), spaceMove.getDocuments().size());
+
+        // Set the parents while the documents are created when the saves are coalesced
+        Map<DocumentReference, DocumentReference> targets = new HashMap<>();
+        for (DocumentReference document : spaceMove.getDocuments()) {
+            DocumentReference target = new DocumentReference(document, spaceMove.getSource(), spaceMove.getTarget());
+            targets.put(document, target);
+            DocumentReference parent = getParentReference(target);
+            if (parent != null && configuration.isCoalesceSaves()) {
+                parentSetter.expect(target, parent);
+            }
+        }
+
+        boolean moved = false;
+        try {
+            long start = startWrite();
+            renameJobExecutor.renameSpace(spaceMove.getSource(), spaceMove.getTarget(), spaceMove.getAuthor(),
+                    configuration);
+            moved = true;
+            endWrite(start);
+        } catch (ComponentLookupException | MigrationException e) {
+            // The documents that have not been moved by the failed job are moved one by one
+            logger.warn(String.format("Failed to move the space [%s], its documents are moved one by one.",
+                    spaceMove.getSource()), e);
+        } finally {
+            for (Map.Entry<DocumentReference, DocumentReference> target : targets.entrySet()) {
+                boolean parentSet = parentSetter.stopExpecting(target.getValue());
+                if (moved) {
+                    movedWithSpace.put(target.getKey(), parentSet || getParentReference(target.getValue()) == null
+                            ? null : spaceMove.getAuthor());
+                }
             }
         }
     }
 
+    /**
+     * Wait until the throttle allows the next write (a rename, a deletion or a save).
+     *
+     * @return the start time of the write
+     */
+    private long startWrite() throws InterruptedException
+    {
+        if (throttle != null) {
+            throttle.acquire();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Adjust the rate of the writes to the duration of the last one.
+     *
+     * @param start the start time of the write
+     */
+    private void endWrite(long start)
+    {
+        if (throttle != null) {
+            throttle.onRename(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            updateRenameRate();
+        }
+    }
+
+    private void updateRenameRate()
+    {
+        if (status != null) {
+            status.setRenameRate(throttle.getRate());
+        }
+    }
+
+    /**
+     * @param documentReference a migrated document
+     * @return the home page of the parent space of the document, or null if the document is in a top level space
+     */
+    private DocumentReference getParentReference(DocumentReference documentReference)
+    {
+        EntityReference spaceParent = documentReference.getLastSpaceReference().getParent();
+        if (spaceParent.getType() == EntityType.SPACE) {
+            return new DocumentReference("WebHome", new SpaceReference(spaceParent));
+        }
+        return null;
+    }
+
+    /**
+     * Update the "parent" field of a migrated document to point to its new parent.
+     *
+     * @param documentReference the migrated document
+     * @param author the author of the document
+     */
+    private void updateParentField(DocumentReference documentReference, DocumentReference author) throws Exception
+    {
+        DocumentReference parent = getParentReference(documentReference);
+        if (parent == null) {
+            return;
+        }
+
+        // To avoid giving admin right to the document, save it with the same author
+        XWikiContext context = contextProvider.get();
+        DocumentReference currentUser = context.getUserReference();
+        long start = startWrite();
+        try {
+            context.setUserReference(author);
+            // Update the parent using the bridge
+            documentAccessBridge.setDocumentParentReference(documentReference, parent);
+        } finally {
+            endWrite(start);
+            context.setUserReference(currentUser);
+        }
+    }
+
     private DocumentReference getDocumentAuthor(DocumentReference documentReference) throws XWikiException
     {
         XWikiContext context = contextProvider.get();
@@ -276,16 +746,20 @@ public class MigrationPlanExecutor
      * @param action the action holding the preferences to set
      * @param document the "WebPreferences" document corresponding to the target document
      * @param context the XWiki Context
+     * @return if a preference has been set
      */
-    private void applyPreferences(MigrationAction action, XWikiDocument document, XWikiContext context)
+    private boolean applyPreferences(MigrationAction action, XWikiDocument document, XWikiContext context)
     {
+        boolean modified = false;
         BaseObject obj = document.getXObject(preferencesClassReference, true, context);
         for (Preference preference : action.getPreferences()) {
             // Check that this preference migration is enabled by the user
             if (preference.isEnabled()) {
                 obj.set(preference.getName(), preference.getValue(), context);
+                modified = true;
             }
         }
+        return modified;
     }
 
     /**
@@ -294,11 +768,14 @@ public class MigrationPlanExecutor
      * @param action the action holding the rights to set
      * @param document the "WebPreferences" document corresponding to the target document
      * @param context the XWiki Context
+     * @return if a right has been set
      *
      * @throws XWikiException if error happens
      */
-    private void applyRights(MigrationAction action, XWikiDocument document, XWikiContext context) throws XWikiException
+    private boolean applyRights(MigrationAction action, XWikiDocument document, XWikiContext context)
+        throws XWikiException
     {
+        boolean modified = false;
         // Create one XWikiGlobalRights object per right
         for (Right right : action.getRights()) {
             // Check that this right migration is enabled by the user
@@ -312,7 +789,83 @@ public class MigrationPlanExecutor
                 }
                 obj.set("levels", right.getLevel(), context);
                 obj.set("allow", right.isAllow() ? 1 : 0, context);
+                modified = true;
             }
         }
+        return modified;
+    }
+
+    /**
+     * The outcome of an action performed by a worker thread.
+     */
+    private static final class ActionResult
+    {
+        private final MigrationAction action;
+
+        private final Exception error;
+
+        ActionResult(MigrationAction action, Exception error)
+        {
+            this.action = action;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Create the worker threads, each one with its own execution context and its own copy of the XWiki context.
+     */
+    private final class WorkerThreadFactory implements ThreadFactory
+    {
+        private final XWikiContext context;
+
+        private final Job job;
+
+        private final LogQueue logQueue;
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        WorkerThreadFactory(XWikiContext context, Job job, LogQueue logQueue)
+        {
+            this.context = context;
+            this.job = job;
+            this.logQueue = logQueue;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable)
+        {
+            final XWikiContext workerContext = context.clone();
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    ExecutionContext executionContext = new ExecutionContext();
+                    execution.setContext(executionContext);
+                    workerContext.declareInExecutionContext(executionContext);
+                    if (job != null) {
+                        jobContext.pushCurrentJob(job);
+                    }
+                    // Otherwise the logs of the worker (such as the deleted duplicates) would not be in the job log
+                    if (logQueue != null) {
+                        loggerManager.pushLogListener(new LogQueueListener(
+                                LogQueueListener.class.getName() + '_' + Thread.currentThread().getName(), logQueue));
+                    }
+                    try {
+                        runnable.run();
+                    } finally {
+                        if (logQueue != null) {
+                            loggerManager.popLogListener();
+                        }
+                        if (job != null) {
+                            jobContext.popCurrentJob();
+                        }
+                        execution.removeContext();
+                    }
+                }
+            }, "Nested pages migration " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
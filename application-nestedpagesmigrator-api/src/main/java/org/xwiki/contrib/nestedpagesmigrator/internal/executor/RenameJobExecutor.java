@@ -19,8 +19,8 @@
  */
 package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
 
-import java.lang.InterruptedException;
 import java.util.Arrays;
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -29,12 +29,15 @@ import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.job.Job;
+import org.xwiki.logging.LogLevel;
+import org.xwiki.logging.event.LogEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.refactoring.job.MoveRequest;
 import org.xwiki.refactoring.job.RefactoringJobs;
-import org.xwiki.search.solr.internal.api.SolrIndexer;
 
 /**
  * Execute the rename Job in the current thread.
@@ -50,25 +53,52 @@ public class RenameJobExecutor
     private ComponentManager componentManager;
 
     @Inject
-    private SolrIndexer solrIndexer;
+    private SolrIndexingBackPressure solrIndexingBackPressure;
 
     public void rename(DocumentReference origin, DocumentReference target, DocumentReference author,
             MigrationConfiguration configuration)
-            throws ComponentLookupException
+            throws ComponentLookupException, InterruptedException, MigrationException
+    {
+        checkErrors(run(origin, target, false, author, configuration), origin);
+    }
+
+    /**
+     * Rename a space with all its documents and its sub-spaces, in a single job.
+     *
+     * @param origin the space to rename
+     * @param target the new reference of the space
+     * @param author the user that moves the documents
+     * @param configuration the configuration of the migration
+     * @throws ComponentLookupException if the rename job cannot be created
+     * @throws InterruptedException if the thread is interrupted while waiting for the Solr indexer
+     * @throws MigrationException if the rename job has logged errors (some documents may not have been moved)
+     * @since 0.10.3
+     */
+    public void renameSpace(SpaceReference origin, SpaceReference target, DocumentReference author,
+            MigrationConfiguration configuration)
+            throws ComponentLookupException, InterruptedException, MigrationException
+    {
+        checkErrors(run(origin, target, true, author, configuration), origin);
+    }
+
+    private Job run(EntityReference origin, EntityReference target, boolean deep, DocumentReference author,
+            MigrationConfiguration configuration)
+            throws ComponentLookupException, InterruptedException
     {
         // Create a MoveRequest from the Refactoring API
         MoveRequest request = new MoveRequest();
 
         // Source, target
-        request.setEntityReferences(Arrays.asList((EntityReference) origin));
+        request.setEntityReferences(Arrays.asList(origin));
         request.setDestination(target);
 
         // Configuration
         request.setAutoRedirect(configuration.isAddAutoRedirect());
         request.setCheckRights(false);
-        request.setDeep(false);
+        request.setDeep(deep);
         request.setInteractive(false);
-        request.setUpdateLinks(true);
+        // The links can be updated after all the renames, by BacklinkRewriter
+        request.setUpdateLinks(!configuration.isDeferLinkUpdates());
         request.setUserReference(author);
         request.setUpdateParentField(false); // we do it manually because of a bug
 
@@ -76,15 +106,24 @@ public class RenameJobExecutor
         Job job = componentManager.getInstance(Job.class, RefactoringJobs.RENAME);
         job.initialize(request);
 
-        // Wait until SOLR finish indexing previously renamed page before running the job
-        while (this.solrIndexer.getQueueSize() != 0) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                // Do nothing
-            }
-        }
+        // Wait until SOLR has indexed enough of the previously renamed pages before running the job
+        solrIndexingBackPressure.await(configuration);
 
         job.run();
+
+        return job;
+    }
+
+    /**
+     * The rename job logs its errors instead of throwing them, so a failed rename would otherwise be considered done.
+     */
+    private void checkErrors(Job job, EntityReference origin) throws MigrationException
+    {
+        List<LogEvent> errors = job.getStatus().getLog().getLogsFrom(LogLevel.ERROR);
+        if (!errors.isEmpty()) {
+            LogEvent error = errors.get(0);
+            throw new MigrationException(String.format("Failed to rename [%s]: %s", origin,
+                    error.getFormattedMessage()), error.getThrowable());
+        }
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
+import org.xwiki.search.solr.internal.api.SolrIndexer;
+
+/**
+ * Slow down the migration when the Solr indexer cannot follow the renames. The migration continues as long as the
+ * indexing queue is not bigger than the high watermark of the configuration; above it, the migration pauses until the
+ * queue goes down to the low watermark. While waiting, the queue is checked less and less often.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = SolrIndexingBackPressure.class)
+@Singleton
+public class SolrIndexingBackPressure
+{
+    private static final long MIN_POLL_INTERVAL = 10;
+
+    private static final long MAX_POLL_INTERVAL = 500;
+
+    @Inject
+    private SolrIndexer solrIndexer;
+
+    @Inject
+    private Logger logger;
+
+    private final AtomicLong pauseCount = new AtomicLong();
+
+    private final AtomicLong pauseTime = new AtomicLong();
+
+    /**
+     * Wait, if needed, until the Solr indexer has caught up.
+     *
+     * @param configuration the configuration holding the watermarks
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void await(MigrationConfiguration configuration) throws InterruptedException
+    {
+        int highWatermark = configuration.getSolrQueueHighWatermark();
+        int queueSize = solrIndexer.getQueueSize();
+        if (queueSize <= highWatermark) {
+            return;
+        }
+
+        int lowWatermark = Math.min(configuration.getSolrQueueLowWatermark(), highWatermark);
+        long start = System.nanoTime();
+        long pollInterval = MIN_POLL_INTERVAL;
+        try {
+            while (queueSize > lowWatermark) {
+                Thread.sleep(pollInterval);
+                pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL);
+                queueSize = solrIndexer.getQueueSize();
+            }
+        } finally {
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            pauseCount.incrementAndGet();
+            pauseTime.addAndGet(waited);
+            logger.debug("Waited [{}] ms for the Solr indexing queue to go down to [{}].", waited, lowWatermark);
+        }
+    }
+
+    /**
+     * @return the number of times the migrations have been paused
+     */
+    public long getPauseCount()
+    {
+        return pauseCount.get();
+    }
+
+    /**
+     * @return the total time (in milliseconds) the migrations have been paused
+     */
+    public long getPauseTime()
+    {
+        return pauseTime.get();
+    }
+}
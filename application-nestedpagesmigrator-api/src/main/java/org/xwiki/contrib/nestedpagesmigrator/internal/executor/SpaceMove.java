@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
+
+import java.util.Set;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+
+/**
+ * A space of the wiki that can be moved with a single deep rename, because all its documents are moved by the plan to
+ * the same relative location under the new space.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class SpaceMove
+{
+    private final SpaceReference source;
+
+    private final SpaceReference target;
+
+    private final DocumentReference author;
+
+    private final Set<DocumentReference> documents;
+
+    /**
+     * Construct a new SpaceMove.
+     *
+     * @param source the space to move
+     * @param target the new reference of the space
+     * @param author the author of all the documents of the space
+     * @param documents the documents of the space, with their current references
+     */
+    public SpaceMove(SpaceReference source, SpaceReference target, DocumentReference author,
+            Set<DocumentReference> documents)
+    {
+        this.source = source;
+        this.target = target;
+        this.author = author;
+        this.documents = documents;
+    }
+
+    /**
+     * @return the space to move
+     */
+    public SpaceReference getSource()
+    {
+        return source;
+    }
+
+    /**
+     * @return the new reference of the space
+     */
+    public SpaceReference getTarget()
+    {
+        return target;
+    }
+
+    /**
+     * @return the author of all the documents of the space
+     */
+    public DocumentReference getAuthor()
+    {
+        return author;
+    }
+
+    /**
+     * @return the documents of the space, with their current references
+     */
+    public Set<DocumentReference> getDocuments()
+    {
+        return documents;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.executor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.internal.query.SpacePrefixCondition;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.text.StringUtils;
+
+/**
+ * Detect the spaces that can be moved with a single deep rename instead of one rename per document. A space can be
+ * moved when an action moves its home page to the home page of another space, and when every document of the space
+ * (including its sub-spaces) is moved by this action or one of its descendants to the same relative location under
+ * the new space. Since the rename job saves the moved documents with the author of the request, all the documents of
+ * the space must also have the same author. A space holding a redirection left by a previous execution of the plan
+ * is never moved at once, since the deep rename would move the redirection too.
+ * <p>
+ * The documents of a space are listed with a single query, which is also used to find the sub-spaces that cannot be
+ * moved at once, so that they are not checked again when their own home page is reached.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = SpaceMoveDetector.class)
+@Singleton
+public class SpaceMoveDetector
+{
+    private static final String STATEMENT = "select doc.fullName, doc.author, "
+            + "(select count(obj.id) from BaseObject obj where obj.name = doc.fullName "
+            + "and obj.className = :redirectClass) from XWikiDocument doc "
+            + "where " + SpacePrefixCondition.CONDITION + " and doc.translation = 0";
+
+    private static final String REDIRECT_CLASS = "XWiki.RedirectClass";
+
+    private static final String WEB_HOME = "WebHome";
+
+    /**
+     * A space with a single document is not worth a deep rename.
+     */
+    private static final int MIN_DOCUMENTS = 2;
+
+    /**
+     * A space that may be moved at once, with the state of its check.
+     */
+    private static final class Candidate
+    {
+        private final SpaceReference target;
+
+        private String author;
+
+        private int documentCount;
+
+        private boolean movable = true;
+
+        Candidate(SpaceReference target)
+        {
+            this.target = target;
+        }
+
+        private boolean isMovable()
+        {
+            return movable && documentCount >= MIN_DOCUMENTS && !StringUtils.isEmpty(author);
+        }
+    }
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    /**
+     * @param action an action of the plan
+     * @param notMovableSpaces the spaces already known as not movable at once, completed with the sub-spaces found
+     * not movable while checking the space of the action (the caller keeps it for the whole execution of the plan)
+     * @return the space move that performs the action and its descendants in the same space, or null if the documents
+     * of the space must be moved one by one
+     * @throws MigrationException if the documents of the space cannot be listed
+     */
+    public SpaceMove detect(MigrationAction action, Set<SpaceReference> notMovableSpaces) throws MigrationException
+    {
+        if (!isSpaceMove(action)) {
+            return null;
+        }
+        SpaceReference source = action.getSourceDocument().getLastSpaceReference();
+        SpaceReference target = action.getTargetDocument().getLastSpaceReference();
+        if (notMovableSpaces.contains(source)) {
+            return null;
+        }
+
+        Map<DocumentReference, MigrationAction> actions = getActionsInSpace(action, source);
+        if (actions.size() < MIN_DOCUMENTS) {
+            return null;
+        }
+
+        // The spaces of the subtree whose home page is moved to the home page of another space
+        Map<EntityReference, Candidate> candidates = new HashMap<>();
+        for (MigrationAction spaceAction : actions.values()) {
+            if (isSpaceMove(spaceAction)) {
+                candidates.put(spaceAction.getSourceDocument().getLastSpaceReference(),
+                        new Candidate(spaceAction.getTargetDocument().getLastSpaceReference()));
+            }
+        }
+
+        Set<DocumentReference> documents = new HashSet<>();
+        try {
+            Query query = queryManager.createQuery(STATEMENT, Query.HQL);
+            query.setWiki(source.getWikiReference().getName());
+            String space = localSerializer.serialize(source);
+            query.bindValue("space", space);
+            query.bindValue("spacePrefix", SpacePrefixCondition.getPattern(space));
+            query.bindValue("redirectClass", REDIRECT_CLASS);
+            List<Object[]> results = query.execute();
+
+            for (Object[] result : results) {
+                DocumentReference document =
+                        documentReferenceResolver.resolve((String) result[0], source.getWikiReference());
+                // A document outside of the space would be considered as moved with it, and never moved
+                if (!document.hasParent(source)) {
+                    continue;
+                }
+                check(document, (String) result[1], ((Number) result[2]).longValue() > 0, source, actions,
+                        candidates);
+                documents.add(document);
+            }
+        } catch (QueryException e) {
+            throw new MigrationException(String.format("Failed to list the documents of [%s].", source), e);
+        }
+
+        for (Map.Entry<EntityReference, Candidate> candidate : candidates.entrySet()) {
+            if (!candidate.getValue().isMovable()) {
+                notMovableSpaces.add(new SpaceReference(candidate.getKey()));
+            }
+        }
+
+        Candidate candidate = candidates.get(source);
+        if (!candidate.isMovable()) {
+            return null;
+        }
+        return new SpaceMove(source, target,
+                documentReferenceResolver.resolve(candidate.author, source.getWikiReference()), documents);
+    }
+
+    /**
+     * Check a document of the space against the space and each of its sub-spaces holding the document.
+     */
+    private void check(DocumentReference document, String author, boolean redirect, SpaceReference source,
+            Map<DocumentReference, MigrationAction> actions, Map<EntityReference, Candidate> candidates)
+    {
+        MigrationAction documentAction = actions.get(document);
+        for (EntityReference space = document.getLastSpaceReference();
+                space != null && space.getType() == EntityType.SPACE; space = space.getParent()) {
+            Candidate candidate = candidates.get(space);
+            if (candidate != null && candidate.movable) {
+                // The document must be moved by the plan, at the location where the deep rename would move it
+                if (redirect || documentAction == null || !new DocumentReference(document, space,
+                        candidate.target).equals(documentAction.getTargetDocument())
+                        || candidate.documentCount > 0 && !StringUtils.equals(candidate.author, author)) {
+                    candidate.movable = false;
+                } else {
+                    candidate.author = author;
+                    candidate.documentCount++;
+                }
+            }
+            if (space.equals(source)) {
+                break;
+            }
+        }
+    }
+
+    private boolean isSimpleMove(MigrationAction action)
+    {
+        return action.isEnabled() && !action.isIdentity() && !action.shouldDeletePrevious();
+    }
+
+    /**
+     * @return if the action moves the home page of a space to the home page of another space, outside of the first one
+     */
+    private boolean isSpaceMove(MigrationAction action)
+    {
+        if (!isSimpleMove(action) || !WEB_HOME.equals(action.getSourceDocument().getName())
+                || !WEB_HOME.equals(action.getTargetDocument().getName())) {
+            return false;
+        }
+        SpaceReference source = action.getSourceDocument().getLastSpaceReference();
+        SpaceReference target = action.getTargetDocument().getLastSpaceReference();
+        return !source.equals(target) && !target.hasParent(source);
+    }
+
+    /**
+     * @return the actions (indexed by their source document) of the given action and its descendants that move a
+     * document of the given space
+     */
+    private Map<DocumentReference, MigrationAction> getActionsInSpace(MigrationAction action, SpaceReference space)
+    {
+        Map<DocumentReference, MigrationAction> actions = new HashMap<>();
+        actions.put(action.getSourceDocument(), action);
+
+        // The plan is walked without recursion, since the parent chains can be very long
+        Deque<Iterator<MigrationAction>> stack = new ArrayDeque<>();
+        stack.push(action.getChildren().iterator());
+        while (!stack.isEmpty()) {
+            Iterator<MigrationAction> iterator = stack.peek();
+            if (!iterator.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            MigrationAction child = iterator.next();
+            if (isSimpleMove(child) && child.getSourceDocument().hasParent(space)) {
+                actions.put(child.getSourceDocument(), child);
+            }
+            stack.push(child.getChildren().iterator());
+        }
+        return actions;
+    }
+}
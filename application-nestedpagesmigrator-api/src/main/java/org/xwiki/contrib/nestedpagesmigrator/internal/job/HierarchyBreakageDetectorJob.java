@@ -34,6 +34,8 @@ import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.internal.breakage.Breakage;
 import org.xwiki.contrib.nestedpagesmigrator.internal.breakage.HierarchyBreakageDetector;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadataIndex;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadataIndexLoader;
 import org.xwiki.contrib.nestedpagesmigrator.internal.pages.PagesToTransformGetter;
 import org.xwiki.job.AbstractJob;
 import org.xwiki.job.Job;
@@ -62,6 +64,9 @@ public class HierarchyBreakageDetectorJob extends AbstractJob<MigrationPlanReque
     @Inject
     private HierarchyBreakageDetector hierarchyBreakageDetector;
 
+    @Inject
+    private PageMetadataIndexLoader metadataIndexLoader;
+
     @Override
     protected void runInternal() throws Exception
     {
@@ -72,11 +77,13 @@ public class HierarchyBreakageDetectorJob extends AbstractJob<MigrationPlanReque
 
             // Step 1: Detect pages
             progressManager.startStep(this);
-            List<DocumentReference> pages =  pagesToTransformGetter.getPagesToConvert(configuration);
+            PageMetadataIndex metadataIndex = configuration.isUseMetadataIndex()
+                    ? metadataIndexLoader.load(configuration.getWikiReference()) : null;
+            List<DocumentReference> pages =  pagesToTransformGetter.getPagesToConvert(configuration, metadataIndex);
 
             // Step 2: Detect breakages
             progressManager.startStep(this);
-            List<Breakage> breakages = hierarchyBreakageDetector.detectBreakage(pages);
+            List<Breakage> breakages = hierarchyBreakageDetector.detectBreakage(pages, metadataIndex);
             getStatus().setBreakages(breakages);
 
             progressManager.popLevelProgress(this);
@@ -29,6 +29,9 @@ import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.internal.pages.PagesMigrationPlanCreator;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.MigrationPlanFileStore;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePool;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePoolManager;
 import org.xwiki.contrib.nestedpagesmigrator.internal.preferences.PreferencesMigrationPlanCreator;
 import org.xwiki.contrib.nestedpagesmigrator.internal.rights.RightsMigrationPlanCreator;
 import org.xwiki.job.AbstractJob;
@@ -53,6 +56,12 @@ public class MigrationPlanCreatorJob extends AbstractJob<MigrationPlanRequest, M
     @Inject
     private RightsMigrationPlanCreator rightsMigrationPlanCreator;
 
+    @Inject
+    private ReferencePoolManager referencePoolManager;
+
+    @Inject
+    private MigrationPlanFileStore planFileStore;
+
     @Override
     protected void runInternal() throws Exception
     {
@@ -67,15 +76,33 @@ public class MigrationPlanCreatorJob extends AbstractJob<MigrationPlanRequest, M
             }
 
             // End
-            getStatus().setPlan(plan);
+            storePlan(plan, configuration);
             progressManager.popLevelProgress(this);
             logger.info("Plan is computed.");
+            ReferencePool referencePool = referencePoolManager.getPool();
+            logger.debug("[{}] references have been requested while computing the plan, [{}] have been created.",
+                    referencePool.getRequestCount(), referencePool.getCreatedCount());
         } catch (Exception e) {
             logger.error("Failed to compute the migration plan.", e);
             e.printStackTrace();
         }
     }
 
+    private void storePlan(MigrationPlanTree plan, MigrationConfiguration configuration)
+    {
+        int threshold = configuration.getPlanSpillThreshold();
+        if (threshold > 0 && plan.getActions().size() >= threshold) {
+            try {
+                getStatus().setSpilledPlan(planFileStore.spill(plan, configuration));
+                logger.info("The plan of [{}] actions has been stored in a file.", plan.getActions().size());
+                return;
+            } catch (MigrationException e) {
+                logger.warn("Failed to store the plan in a file, it is kept in memory.", e);
+            }
+        }
+        getStatus().setPlan(plan);
+    }
+
     private MigrationPlanTree createFullPlan()
             throws org.xwiki.component.manager.ComponentLookupException, MigrationException
     {
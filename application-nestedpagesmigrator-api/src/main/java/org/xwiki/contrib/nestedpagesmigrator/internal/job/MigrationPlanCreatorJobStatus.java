@@ -20,6 +20,7 @@
 package org.xwiki.contrib.nestedpagesmigrator.internal.job;
 
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.SpilledMigrationPlan;
 import org.xwiki.job.DefaultJobStatus;
 import org.xwiki.job.event.status.JobStatus;
 import org.xwiki.logging.LoggerManager;
@@ -33,6 +34,8 @@ import org.xwiki.observation.ObservationManager;
 public class MigrationPlanCreatorJobStatus extends DefaultJobStatus<MigrationPlanRequest>
 {
     private MigrationPlanTree plan;
+
+    private SpilledMigrationPlan spilledPlan;
     
     /**
      * @param request the request provided when started the job
@@ -64,4 +67,24 @@ public class MigrationPlanCreatorJobStatus extends DefaultJobStatus<MigrationPla
     {
         this.plan = plan;
     }
+
+    /**
+     * @return the computed plan when it has been stored in a file instead of the memory, null otherwise
+     * @since 0.10.3
+     */
+    public SpilledMigrationPlan getSpilledPlan()
+    {
+        return spilledPlan;
+    }
+
+    /**
+     * Save the computed migration plan, stored in a file.
+     *
+     * @param spilledPlan the computed plan
+     * @since 0.10.3
+     */
+    public void setSpilledPlan(SpilledMigrationPlan spilledPlan)
+    {
+        this.spilledPlan = spilledPlan;
+    }
 }
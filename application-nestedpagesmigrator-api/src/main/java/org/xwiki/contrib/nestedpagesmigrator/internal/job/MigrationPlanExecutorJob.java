@@ -27,7 +27,8 @@ import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.internal.executor.MigrationPlanExecutor;
 import org.xwiki.job.AbstractJob;
-import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.Job;
+import org.xwiki.job.event.status.JobStatus;
 
 /**
  * Jobs that executes a migration.
@@ -38,7 +39,8 @@ import org.xwiki.job.DefaultJobStatus;
 @Component
 @InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
 @Named(MigrationPlanExecutorJob.JOB_TYPE)
-public class MigrationPlanExecutorJob extends AbstractJob<MigrationPlanExecutorRequest, DefaultJobStatus>
+public class MigrationPlanExecutorJob
+    extends AbstractJob<MigrationPlanExecutorRequest, MigrationPlanExecutorJobStatus>
 {
     /**
      * The job type.
@@ -55,7 +57,16 @@ public class MigrationPlanExecutorJob extends AbstractJob<MigrationPlanExecutorR
         MigrationPlanExecutorRequest request = getRequest();
         MigrationPlanExecutor executor = componentManager.getInstance(MigrationPlanExecutor.class);
         // Perform the migration
-        executor.performMigration(plan, request.getConfiguration());
+        executor.performMigration(plan, request.getConfiguration(), getStatus());
+    }
+
+    @Override
+    protected MigrationPlanExecutorJobStatus createNewStatus(MigrationPlanExecutorRequest request)
+    {
+        Job currentJob = this.jobContext.getCurrentJob();
+        JobStatus currentJobStatus = currentJob != null ? currentJob.getStatus() : null;
+        return new MigrationPlanExecutorJobStatus(request, currentJobStatus, this.observationManager,
+                this.loggerManager);
     }
 
     @Override
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.job;
+
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.observation.ObservationManager;
+
+/**
+ * Custom Job Status of the execution of a migration plan, holding the rate of the renames when the execution is
+ * throttled.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class MigrationPlanExecutorJobStatus extends DefaultJobStatus<MigrationPlanExecutorRequest>
+{
+    private volatile double renameRate;
+
+    /**
+     * @param request the request provided when started the job
+     * @param parentJobStatus the status of the parent job (i.e. the status of the job that started this one); pass {@code
+     * null} if this job hasn't been started by another job (i.e. if this is not a sub-job)
+     * @param observationManager the observation manager component
+     * @param loggerManager the logger manager component
+     */
+    public MigrationPlanExecutorJobStatus(MigrationPlanExecutorRequest request, JobStatus parentJobStatus,
+            ObservationManager observationManager, LoggerManager loggerManager)
+    {
+        super(request, parentJobStatus, observationManager, loggerManager);
+    }
+
+    /**
+     * @return the number of writes (renames, deletions or saves) per second currently allowed by the throttle, 0 if
+     * the execution is not throttled
+     */
+    public double getRenameRate()
+    {
+        return renameRate;
+    }
+
+    /**
+     * @param renameRate the number of writes per second currently allowed by the throttle
+     */
+    public void setRenameRate(double renameRate)
+    {
+        this.renameRate = renameRate;
+    }
+}
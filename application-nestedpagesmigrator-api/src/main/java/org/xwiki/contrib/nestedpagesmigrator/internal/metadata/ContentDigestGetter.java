@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.metadata;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+/**
+ * Compute a digest of the content of a document, reading only its content with a projection query instead of loading
+ * the whole document (objects, attachments, etc...) in the document cache.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = ContentDigestGetter.class)
+@Singleton
+public class ContentDigestGetter
+{
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final String STATEMENT = "select doc.content from XWikiDocument doc "
+            + "where doc.fullName = :fullName and doc.translation = 0";
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * @param documentReference a document
+     * @return the digest of the content of the document, or null if the document does not exist
+     * @throws MigrationException if the content cannot be read
+     */
+    public String getContentDigest(DocumentReference documentReference) throws MigrationException
+    {
+        try {
+            Query query = queryManager.createQuery(STATEMENT, Query.HQL);
+            query.setWiki(documentReference.getWikiReference().getName());
+            query.bindValue("fullName", localSerializer.serialize(documentReference));
+            query.setLimit(1);
+            List<String> results = query.execute();
+            if (results.isEmpty()) {
+                return null;
+            }
+
+            // Some databases (Oracle) store an empty content as null
+            String content = results.get(0) != null ? results.get(0) : "";
+            MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            return Base64.getEncoder().encodeToString(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (QueryException | NoSuchAlgorithmException e) {
+            throw new MigrationException(
+                    String.format("Failed to compute the digest of the content of [%s].", documentReference), e);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.metadata;
+
+/**
+ * A compact set of document full names: only a 64-bit hash of each name is stored, in an open addressing table.
+ * Because two names can have the same hash, {@link #mightContain(String)} can return false positives (but never
+ * false negatives), so a positive answer must be verified.
+ * <p>
+ * Not thread-safe.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class DocumentNameSet
+{
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Value of the empty slots. A name whose hash is 0 is stored with an other value.
+     */
+    private static final long EMPTY = 0L;
+
+    private long[] table = new long[1024];
+
+    private int size;
+
+    /**
+     * @param fullName the full name of a document
+     */
+    public void add(String fullName)
+    {
+        // Keep the load factor under 0.5
+        if (2 * (size + 1) > table.length) {
+            resize(table.length * 2);
+        }
+        if (insert(table, hash(fullName))) {
+            size++;
+        }
+    }
+
+    /**
+     * @param fullName the full name of a document
+     * @return false if the document is not in the set, true if it is probably in the set
+     */
+    public boolean mightContain(String fullName)
+    {
+        long hash = hash(fullName);
+        int mask = table.length - 1;
+        for (int i = index(hash, mask);; i = (i + 1) & mask) {
+            if (table[i] == hash) {
+                return true;
+            }
+            if (table[i] == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return the number of different hashes in the set
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    private void resize(int capacity)
+    {
+        long[] newTable = new long[capacity];
+        for (long hash : table) {
+            if (hash != EMPTY) {
+                insert(newTable, hash);
+            }
+        }
+        table = newTable;
+    }
+
+    private static boolean insert(long[] table, long hash)
+    {
+        int mask = table.length - 1;
+        for (int i = index(hash, mask);; i = (i + 1) & mask) {
+            if (table[i] == hash) {
+                return false;
+            }
+            if (table[i] == EMPTY) {
+                table[i] = hash;
+                return true;
+            }
+        }
+    }
+
+    private static int index(long hash, int mask)
+    {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters of the name.
+     */
+    private static long hash(String fullName)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < fullName.length(); ++i) {
+            hash ^= fullName.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash == EMPTY ? 1L : hash;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.metadata;
+
+import java.util.Objects;
+
+/**
+ * The few fields of a document that the migrator needs, read without loading the whole document.
+ * The values are the ones stored in the database (serialized references), not resolved references.
+ * <p>
+ * The hidden flag is not part of it: the hidden pages are excluded by the query listing the candidates, so no
+ * document is loaded to check it. The digest of the content is not loaded with the other fields either, since it
+ * would mean reading the content of every page of the wiki: it is only computed, by {@link ContentDigestGetter}, for
+ * the few pages compared to a duplicated target.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class PageMetadata
+{
+    private final String parent;
+
+    private final String author;
+
+    private final String creator;
+
+    private final String contentAuthor;
+
+    private String contentDigest;
+
+    /**
+     * Construct a PageMetadata.
+     *
+     * @param parent the "parent" field of the document
+     * @param author the serialized reference of the author
+     * @param creator the serialized reference of the creator
+     * @param contentAuthor the serialized reference of the content author
+     */
+    public PageMetadata(String parent, String author, String creator, String contentAuthor)
+    {
+        this.parent = parent;
+        this.author = author;
+        this.creator = creator;
+        this.contentAuthor = contentAuthor;
+    }
+
+    /**
+     * @return the "parent" field of the document, as stored
+     */
+    public String getParent()
+    {
+        return parent;
+    }
+
+    /**
+     * @return the serialized reference of the author
+     */
+    public String getAuthor()
+    {
+        return author;
+    }
+
+    /**
+     * @return the serialized reference of the creator
+     */
+    public String getCreator()
+    {
+        return creator;
+    }
+
+    /**
+     * @return the serialized reference of the content author
+     */
+    public String getContentAuthor()
+    {
+        return contentAuthor;
+    }
+
+    /**
+     * @return the digest of the content of the document, or null if it has not been computed yet
+     * @see ContentDigestGetter
+     */
+    public String getContentDigest()
+    {
+        return contentDigest;
+    }
+
+    /**
+     * @param contentDigest the digest of the content of the document, kept so it is computed only once
+     */
+    public void setContentDigest(String contentDigest)
+    {
+        this.contentDigest = contentDigest;
+    }
+
+    /**
+     * @param other the metadata of an other document of the same wiki
+     * @return if both documents have the same author, creator and content author
+     */
+    public boolean hasSameAuthors(PageMetadata other)
+    {
+        return Objects.equals(author, other.author) && Objects.equals(creator, other.creator)
+                && Objects.equals(contentAuthor, other.contentAuthor);
+    }
+}
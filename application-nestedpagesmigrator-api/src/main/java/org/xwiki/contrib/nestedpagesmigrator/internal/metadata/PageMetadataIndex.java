@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.metadata;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.text.StringUtils;
+
+/**
+ * The metadata of all the documents of a wiki, loaded once and shared by the different steps of a job so they don't
+ * need to load (and to put in the document cache) each document to read its parent or its authors.
+ * <p>
+ * The index is complete: a document that is not in the index does not exist (or did not exist when the index has been
+ * loaded). Not thread-safe.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class PageMetadataIndex
+{
+    private final Map<String, PageMetadata> metadata = new HashMap<>();
+
+    private final WikiReference wikiReference;
+
+    private final DocumentReferenceResolver<String> documentReferenceResolver;
+
+    private final EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * Construct an empty index.
+     *
+     * @param wikiReference the wiki holding the documents of the index
+     * @param documentReferenceResolver resolver used to resolve the "parent" fields
+     * @param localSerializer serializer used to compute the keys of the index (the full names of the documents)
+     */
+    public PageMetadataIndex(WikiReference wikiReference, DocumentReferenceResolver<String> documentReferenceResolver,
+            EntityReferenceSerializer<String> localSerializer)
+    {
+        this.wikiReference = wikiReference;
+        this.documentReferenceResolver = documentReferenceResolver;
+        this.localSerializer = localSerializer;
+    }
+
+    /**
+     * Record the metadata of a document.
+     *
+     * @param fullName the full name of the document, as stored in the database
+     * @param pageMetadata the metadata of the document
+     */
+    public void put(String fullName, PageMetadata pageMetadata)
+    {
+        metadata.put(fullName, pageMetadata);
+    }
+
+    /**
+     * @param documentReference a document
+     * @return the metadata of the document, or null if the document does not exist or is on an other wiki
+     */
+    public PageMetadata get(DocumentReference documentReference)
+    {
+        if (!wikiReference.equals(documentReference.getWikiReference())) {
+            return null;
+        }
+        return metadata.get(localSerializer.serialize(documentReference));
+    }
+
+    /**
+     * @param documentReference a document
+     * @return the reference of the parent of the document, or null if the document has no parent (or does not exist)
+     */
+    public DocumentReference getParentReference(DocumentReference documentReference)
+    {
+        PageMetadata pageMetadata = get(documentReference);
+        if (pageMetadata == null || StringUtils.isBlank(pageMetadata.getParent())) {
+            return null;
+        }
+        // Same as XWikiDocument#getParentReference(): the parent is relative to the document
+        return documentReferenceResolver.resolve(pageMetadata.getParent(), documentReference);
+    }
+
+    /**
+     * @return the number of documents in the index
+     */
+    public int size()
+    {
+        return metadata.size();
+    }
+}
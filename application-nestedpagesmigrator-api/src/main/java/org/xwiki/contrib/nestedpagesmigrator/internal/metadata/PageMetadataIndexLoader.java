@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.metadata;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.internal.query.KeysetPagedQuery;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+/**
+ * Load the {@link PageMetadataIndex} or the {@link DocumentNameSet} of a wiki with a single projection query, read
+ * page by page.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = PageMetadataIndexLoader.class)
+@Singleton
+public class PageMetadataIndexLoader
+{
+    private static final int PAGE_SIZE = 5000;
+
+    private static final String STATEMENT = "select doc.fullName, doc.parent, doc.author, doc.creator, "
+            + "doc.contentAuthor from XWikiDocument doc where doc.translation = 0";
+
+    private static final String NAMES_STATEMENT =
+            "select doc.fullName from XWikiDocument doc where doc.translation = 0";
+
+    private static final String ORDER_BY = " order by doc.fullName";
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @param wikiReference the wiki to index
+     * @return the metadata of all the documents of the wiki
+     * @throws MigrationException if the query fails
+     */
+    public PageMetadataIndex load(WikiReference wikiReference) throws MigrationException
+    {
+        PageMetadataIndex index = new PageMetadataIndex(wikiReference, documentReferenceResolver, localSerializer);
+
+        // The same users and the same parents are used by a lot of documents: keep a single instance of each string
+        Map<String, String> pool = new HashMap<>();
+
+        try {
+            KeysetPagedQuery<Object[]> query = new KeysetPagedQuery<>(createQuery(STATEMENT, wikiReference),
+                    createQuery(STATEMENT + " and " + KeysetPagedQuery.KEY_CONDITION, wikiReference), PAGE_SIZE);
+            List<Object[]> rows;
+            while (!(rows = query.nextPage()).isEmpty()) {
+                for (Object[] row : rows) {
+                    index.put((String) row[0], new PageMetadata(intern(row[1], pool), intern(row[2], pool),
+                            intern(row[3], pool), intern(row[4], pool)));
+                }
+            }
+        } catch (QueryException e) {
+            throw new MigrationException(
+                    String.format("Failed to load the metadata of the documents of the wiki [%s].", wikiReference), e);
+        }
+
+        logger.info("Metadata of [{}] documents loaded.", index.size());
+        return index;
+    }
+
+    /**
+     * @param wikiReference the wiki to index
+     * @return the full names of all the documents of the wiki
+     * @throws MigrationException if the query fails
+     * @since 0.10.3
+     */
+    public DocumentNameSet loadDocumentNames(WikiReference wikiReference) throws MigrationException
+    {
+        DocumentNameSet names = new DocumentNameSet();
+
+        try {
+            KeysetPagedQuery<String> query = new KeysetPagedQuery<>(createQuery(NAMES_STATEMENT, wikiReference),
+                    createQuery(NAMES_STATEMENT + " and " + KeysetPagedQuery.KEY_CONDITION, wikiReference),
+                    PAGE_SIZE);
+            List<String> rows;
+            while (!(rows = query.nextPage()).isEmpty()) {
+                for (String fullName : rows) {
+                    names.add(fullName);
+                }
+            }
+        } catch (QueryException e) {
+            throw new MigrationException(
+                    String.format("Failed to load the names of the documents of the wiki [%s].", wikiReference), e);
+        }
+
+        logger.info("Names of [{}] documents loaded.", names.size());
+        return names;
+    }
+
+    private Query createQuery(String statement, WikiReference wikiReference) throws QueryException
+    {
+        Query query = queryManager.createQuery(statement + ORDER_BY, Query.HQL);
+        query.setWiki(wikiReference.getName());
+        return query;
+    }
+
+    private String intern(Object value, Map<String, String> pool)
+    {
+        if (value == null) {
+            return null;
+        }
+        String string = (String) value;
+        String pooled = pool.get(string);
+        if (pooled == null) {
+            pool.put(string, string);
+            pooled = string;
+        }
+        return pooled;
+    }
+}
@@ -41,13 +41,10 @@ public class IdentityMigrationAction extends MigrationAction
      *  
      * @return the created instance
      */
-    public static IdentityMigrationAction createInstance(DocumentReference documentReference,
+    public static MigrationAction createInstance(DocumentReference documentReference,
             MigrationAction parentAction, MigrationPlanTree plan) throws MigrationException
     {
-        IdentityMigrationAction action = new IdentityMigrationAction(documentReference);
-        parentAction.addChild(action);
-        plan.addAction(action);
-        return action;
+        return plan.createAction(new IdentityMigrationAction(documentReference), parentAction);
     }
 
     /**
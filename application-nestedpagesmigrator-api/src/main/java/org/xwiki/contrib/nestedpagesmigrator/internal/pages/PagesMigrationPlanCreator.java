@@ -19,12 +19,18 @@
  */
 package org.xwiki.contrib.nestedpagesmigrator.internal.pages;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Provider;
 
 import org.slf4j.Logger;
@@ -39,9 +45,18 @@ import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTreeListener;
 import org.xwiki.contrib.nestedpagesmigrator.TargetReference;
 import org.xwiki.contrib.nestedpagesmigrator.TargetState;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.ContentDigestGetter;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.DocumentNameSet;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadata;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadataIndex;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadataIndexLoader;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.CompactMigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePool;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePoolManager;
 import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.logging.Message;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.model.reference.SpaceReference;
 
 import com.xpn.xwiki.XWiki;
@@ -64,9 +79,25 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
     @Inject
     private PagesToTransformGetter pagesToTransformGetter;
 
+    @Inject
+    private PageMetadataIndexLoader metadataIndexLoader;
+
+    @Inject
+    private ContentDigestGetter contentDigestGetter;
+
+    @Inject
+    private ParentPrefetcher parentPrefetcher;
+
     @Inject
     private Provider<XWikiContext> contextProvider;
 
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private ReferencePoolManager referencePoolManager;
+
     @Inject
     private JobProgressManager progressManager;
 
@@ -81,10 +112,38 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
 
     private List<DocumentReference> concernedDocuments;
 
-    private final Set<DocumentReference> visitedDocuments = new HashSet<>();
+    /**
+     * Same content as concernedDocuments, but with a constant-time lookup (the list is kept for its order).
+     */
+    private final Set<DocumentReference> concernedDocumentSet = new HashSet<>();
+
+    /**
+     * The documents whose action is being computed (i.e. waiting for the action of their parent), shared between the
+     * nested calls of convertDocumentAndParents() to detect the cycles.
+     */
+    private final Set<DocumentReference> documentsInProgress = new HashSet<>();
 
     private MigrationConfiguration configuration;
 
+    private PageMetadataIndex metadataIndex;
+
+    /**
+     * For each space, the first suffix that might not be used by an action of the plan (see computeFreeTarget()).
+     */
+    private final Map<SpaceReference, Integer> nextSuffixes = new HashMap<>();
+
+    private DocumentNameSet documentNames;
+
+    /**
+     * The parents read in advance by several threads, when enabled by the configuration.
+     */
+    private Map<DocumentReference, DocumentReference> prefetchedParents;
+
+    /**
+     * The references shared by the planners of the current job.
+     */
+    private ReferencePool referencePool;
+
     @Override
     public void initialize()
     {
@@ -102,17 +161,39 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
     public MigrationPlanTree computeMigrationPlan(MigrationConfiguration configuration) throws MigrationException
     {
         this.configuration = configuration;
+        referencePool = referencePoolManager.getPool();
 
         // Start
         progressManager.pushLevelProgress(3, this);
 
         // Get the pages to convert
         progressManager.startStep(this, new Message("Get the pages to convert"));
-        concernedDocuments = pagesToTransformGetter.getPagesToConvert(configuration);
+        if (configuration.isUseMetadataIndex() || configuration.isUseParentGraph()) {
+            metadataIndex = metadataIndexLoader.load(configuration.getWikiReference());
+            concernedDocuments = pagesToTransformGetter.getPagesToConvert(configuration, metadataIndex);
+        } else {
+            concernedDocuments = pagesToTransformGetter.getPagesToConvert(configuration);
+        }
+        // The sources of the plan share their spaces with the targets
+        concernedDocuments = internReferences(concernedDocuments);
+        concernedDocumentSet.addAll(concernedDocuments);
+        if (configuration.isPreloadDocumentNames()) {
+            documentNames = metadataIndexLoader.loadDocumentNames(configuration.getWikiReference());
+        }
         
+        // Read the parents in parallel. The plan itself is computed sequentially since the targets depend on the
+        // order in which the documents are handled.
+        if (configuration.getPlanComputationThreads() > 1 && !configuration.isDontMoveChildren()
+                && metadataIndex == null) {
+            logger.info("Read the parents of the documents with [{}] threads.",
+                    configuration.getPlanComputationThreads());
+            prefetchedParents = parentPrefetcher.prefetchParents(concernedDocuments,
+                    configuration.getWikiReference(), configuration.getPlanComputationThreads());
+        }
+
         // Compute the plan
         progressManager.startStep(this, new Message("Compute the migration plan"));
-        plan = new MigrationPlanTree();
+        plan = configuration.isCompactPlan() ? new CompactMigrationPlanTree() : new MigrationPlanTree();
         plan.addListener(this);
         
         progressManager.pushLevelProgress(concernedDocuments.size(), this);
@@ -121,6 +202,8 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
             for (DocumentReference terminalDoc : concernedDocuments) {
                 convertDocumentAndItsParentWithoutMove(terminalDoc);
             }
+        } else if (configuration.isUseParentGraph()) {
+            convertDocumentsWithParentGraph();
         } else {
             for (DocumentReference documentReference : concernedDocuments) {
                 convertDocumentAndParents(documentReference);
@@ -134,13 +217,28 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
 
         // Free the memory
         concernedDocuments.clear();
-        visitedDocuments.clear();
+        concernedDocumentSet.clear();
+        documentsInProgress.clear();
+        nextSuffixes.clear();
+        metadataIndex = null;
+        documentNames = null;
+        prefetchedParents = null;
+        referencePool = null;
 
         // End
         this.progressManager.popLevelProgress(this);
         return plan;
     }
 
+    private List<DocumentReference> internReferences(List<DocumentReference> documentReferences)
+    {
+        List<DocumentReference> results = new ArrayList<>(documentReferences.size());
+        for (DocumentReference documentReference : documentReferences) {
+            results.add(referencePool.getDocument(documentReference));
+        }
+        return results;
+    }
+
     private void convertDocumentAndItsParentWithoutMove(DocumentReference terminalDoc) throws MigrationException
     {
         MigrationAction action = convertDocumentWithoutMove(terminalDoc);
@@ -151,8 +249,7 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
 
     private MigrationAction convertParentWithoutMove(DocumentReference originalDocument) throws MigrationException
     {
-        DocumentReference spaceHomeReference = new DocumentReference(SPACE_HOME_PAGE,
-                originalDocument.getLastSpaceReference());
+        DocumentReference spaceHomeReference = referencePool.getWebHome(originalDocument.getLastSpaceReference());
         
         MigrationAction parentAction = plan.getActionAbout(spaceHomeReference);
         if (parentAction == null) {
@@ -171,7 +268,8 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
     private MigrationAction convertDocumentWithoutMove(DocumentReference terminalDoc) 
             throws MigrationException
     {
-        SpaceReference parentSpace = new SpaceReference(terminalDoc.getName(), terminalDoc.getLastSpaceReference());
+        SpaceReference parentSpace =
+                referencePool.getSpace(terminalDoc.getName(), terminalDoc.getLastSpaceReference());
         TargetReference targetReference = computeFreeTarget(terminalDoc, parentSpace, null);
         
         return MigrationAction.createInstance(terminalDoc, targetReference, plan);
@@ -179,12 +277,154 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
 
     /**
      * Convert a document and all its parents to Nested Pages.
+     * <p>
+     * The parent chain is walked with an explicit stack instead of recursive calls, because some wikis have chains of
+     * thousands of pages that would overflow the stack of the job thread.
      *  
      * @param documentReference the document to convert
      *  
      * @return the migration of the document
      */
     private MigrationAction convertDocumentAndParents(DocumentReference documentReference) throws MigrationException
+    {
+        // The documents waiting for the action of their parent to be computed, the farthest ancestor on top
+        Deque<DocumentReference> chain = new ArrayDeque<>();
+
+        // Walk up the parent chain until we find an ancestor whose action is known
+        DocumentReference currentDocument = documentReference;
+        MigrationAction parentAction = getResolvedAction(currentDocument);
+        while (parentAction == null) {
+            // Now we are sure that the document needs to be converted, so let's start the real job.
+            // --
+
+            // Get the parent reference
+            DocumentReference parentReference;
+            try {
+                parentReference = getParent(currentDocument);
+            } catch (XWikiException e) {
+                logger.warn("Failed to open the document [{}].", currentDocument, e);
+                // Don't fail the migration just because of that, create an identity action instead.
+                parentAction =
+                        IdentityMigrationAction.createInstance(currentDocument, plan.getTopLevelAction(), plan);
+                continue;
+            }
+
+            // A plan concerning the parents must be prepared before we compute the plan for the current document.
+            chain.push(currentDocument);
+            documentsInProgress.add(currentDocument);
+            if (parentReference != null) {
+                currentDocument = parentReference;
+                parentAction = getResolvedAction(currentDocument);
+            } else {
+                // The document is orphan
+                parentAction = plan.getTopLevelAction();
+            }
+        }
+
+        // Then create the actions, from the top-most ancestor down to the document
+        while (!chain.isEmpty()) {
+            DocumentReference document = chain.pop();
+            parentAction = createAction(document, parentAction);
+            documentsInProgress.remove(document);
+        }
+
+        return parentAction;
+    }
+
+    /**
+     * Convert all the concerned documents and their parents, by building the whole parent graph first (from the
+     * metadata index) and then by creating the actions from the parents down to the children. The actions are created
+     * in the same order as with {@link #convertDocumentAndParents(DocumentReference)}, so the plan is the same.
+     */
+    private void convertDocumentsWithParentGraph() throws MigrationException
+    {
+        ParentGraph graph = new ParentGraph();
+        int[] startIds = new int[concernedDocuments.size()];
+        for (int i = 0; i < startIds.length; ++i) {
+            DocumentReference documentReference = concernedDocuments.get(i);
+            boolean known = graph.contains(documentReference);
+            startIds[i] = graph.getId(documentReference);
+            if (!known) {
+                addAncestors(graph, startIds[i]);
+            }
+        }
+
+        for (ParentGraph.Chain chain : graph.getChains(startIds)) {
+            if (chain.isCycle()) {
+                logger.info("The parent of [{}] is ignored because of a cyclic parent/child relationship.",
+                        graph.getDocument(chain.getDocuments()[0]));
+            }
+            convertChain(graph, chain);
+        }
+    }
+
+    /**
+     * Add the parent chain of a document to the graph, until a document that is already in the graph.
+     */
+    private void addAncestors(ParentGraph graph, int id) throws MigrationException
+    {
+        int currentId = id;
+        while (true) {
+            DocumentReference documentReference = graph.getDocument(currentId);
+
+            // Same check as in getResolvedAction(): this document is not converted, so its parents don't matter
+            if (!concernedDocumentSet.contains(documentReference) && metadataIndex.get(documentReference) != null) {
+                graph.setStop(currentId);
+                return;
+            }
+
+            DocumentReference parentReference;
+            try {
+                parentReference = getParent(documentReference);
+            } catch (XWikiException e) {
+                // Should not happen since the parents are read from the metadata index
+                throw new MigrationException(String.format("Failed to get the parent of [%s].", documentReference), e);
+            }
+            if (parentReference == null) {
+                return;
+            }
+
+            boolean known = graph.contains(parentReference);
+            int parentId = graph.getId(parentReference);
+            graph.setParent(currentId, parentId);
+            if (known) {
+                return;
+            }
+            currentId = parentId;
+        }
+    }
+
+    /**
+     * Create the actions of a chain of documents, from the farthest ancestor down to the child.
+     */
+    private void convertChain(ParentGraph graph, ParentGraph.Chain chain) throws MigrationException
+    {
+        // Like in convertDocumentAndParents(), the documents of the chain are waiting for the action of their parent
+        int[] ids = chain.getDocuments();
+        for (int id : ids) {
+            documentsInProgress.add(graph.getDocument(id));
+        }
+
+        MigrationAction parentAction = chain.getEnd() != ParentGraph.NO_PARENT
+                ? getResolvedAction(graph.getDocument(chain.getEnd())) : plan.getTopLevelAction();
+        for (int id : ids) {
+            DocumentReference documentReference = graph.getDocument(id);
+            // The action might have been created already, when a virtual parent has been converted
+            MigrationAction action = plan.getActionAbout(documentReference);
+            if (action == null) {
+                action = createAction(documentReference, parentAction);
+            }
+            documentsInProgress.remove(documentReference);
+            parentAction = action;
+        }
+    }
+
+    /**
+     * @param documentReference a document met while walking up a parent chain
+     * @return the action to use for this document if it does not need to be converted (or has been converted
+     * already), or null if the parent of the document must be converted first
+     */
+    private MigrationAction getResolvedAction(DocumentReference documentReference) throws MigrationException
     {
         // A planned action concerning this document might have been created already. We avoid recomputing the 
         // conversion by returning the existing action, if there is any.
@@ -196,7 +436,7 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
         // Since the user might have configured some exclusions, we verify that this document is contained in the list
         // of documents to convert. Note: the document might not exist. In that case, it is good to compute a plan
         // for it (even not applied) to compute a good path for its children.
-        if (!concernedDocuments.contains(documentReference) && xwiki.exists(documentReference, context)) {
+        if (!concernedDocumentSet.contains(documentReference) && exists(documentReference)) {
             // Otherwise, we create an "identity" action: it does nothing, but it will be added to the plan so that
             // action won't be recomputed afterward.
             // Note that this action is added as child of the top-level action, because we want to have it in the plan 
@@ -204,33 +444,14 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
             return IdentityMigrationAction.createInstance(documentReference, plan.getTopLevelAction(), plan);
         }
 
-        // If the document have already been visited, we are probably experiencing a cyclic parent/child relationship:
+        // If the document is already waiting for its parent, we are experiencing a cyclic parent/child relationship:
         // A -> B -> C -> A
-        if (!visitedDocuments.add(documentReference)) {
+        if (documentsInProgress.contains(documentReference)) {
             // In that case, we put the document at the top level
             return plan.getTopLevelAction();
         }
 
-        // Now we are sure that the document needs to be converted, so let's start the real job.
-        // --
-
-        // Get the parent reference
-        DocumentReference parentReference;
-        try {
-            parentReference = getParent(documentReference);
-        } catch (XWikiException e) {
-            logger.warn("Failed to open the document [{}].", documentReference, e);
-            // Don't fail the migration just because of that, return an identity action instead.
-            return IdentityMigrationAction.createInstance(documentReference, plan.getTopLevelAction(), plan);
-        }
-
-        // Get the action concerning the parent (or the top level action if the document is orphan). Because a plan 
-        // concerning the parents must have been prepared before we compute the plan for the current document.
-        MigrationAction parentAction = parentReference != null ?
-                convertDocumentAndParents(parentReference) : plan.getTopLevelAction();
-
-        // Now, create the action for the current document
-        return createAction(documentReference, parentAction);
+        return null;
     }
 
     /**
@@ -243,9 +464,16 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
      */
     private DocumentReference getParent(DocumentReference documentReference) throws XWikiException
     {
-        // To read the "parent" field of the document, we need to load the document
-        XWikiDocument document = xwiki.getDocument(documentReference, context);
-        DocumentReference parentReference = document.getParentReference();
+        DocumentReference parentReference;
+        if (metadataIndex != null) {
+            parentReference = metadataIndex.getParentReference(documentReference);
+        } else if (prefetchedParents != null && prefetchedParents.containsKey(documentReference)) {
+            parentReference = prefetchedParents.get(documentReference);
+        } else {
+            // To read the "parent" field of the document, we need to load the document
+            XWikiDocument document = xwiki.getDocument(documentReference, context);
+            parentReference = document.getParentReference();
+        }
 
         // The parent field might not be filled. In that case, the document is actually an orphan.
         if (parentReference == null) {
@@ -253,12 +481,12 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
             // Best effort: use the space ancestor as parent.
             // [Space.Page, no parent] => [Space.Page.WebHome, Space.WebHome]
             if (isTerminal(documentReference)) {
-                parentReference = new DocumentReference(SPACE_HOME_PAGE, documentReference.getLastSpaceReference());
+                parentReference = referencePool.getWebHome(documentReference.getLastSpaceReference());
             } else {
                 List<SpaceReference> parentSpaces = documentReference.getSpaceReferences();
                 if (parentSpaces.size() > 1) {
                     // [PageA.PageB.WebHome, no parent] => [PageA.PageB.WebHome, PageA.WebHome]
-                    parentReference = new DocumentReference(SPACE_HOME_PAGE, parentSpaces.get(parentSpaces.size() - 2));
+                    parentReference = referencePool.getWebHome(parentSpaces.get(parentSpaces.size() - 2));
                 }
                 // Otherwise, we let the document orphan
                 // [Space.WebHome, no parent] => [Space.WebHome, no parent].
@@ -266,6 +494,8 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
         } else if (!parentReference.getWikiReference().equals(configuration.getWikiReference())) {
             // The parent is on another wiki
             parentReference = null;
+        } else {
+            parentReference = referencePool.getDocument(parentReference);
         }
 
         return parentReference;
@@ -292,7 +522,8 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
                 // The document is already a WebHome, so we use the current space name under the space of the parent 
                 // document.
                 // [Space.WebHome, Path.To.Parent.WebHome] => [Path.To.Parent.Space.WebHome].
-                SpaceReference spaceReference = new SpaceReference(documentReference.getLastSpaceReference().getName(),
+                SpaceReference spaceReference = referencePool.getSpace(
+                        documentReference.getLastSpaceReference().getName(),
                         parentAction.getTargetDocument().getLastSpaceReference());
                 TargetReference targetReference = computeFreeTarget(documentReference, spaceReference, null);
                 action = MigrationAction.createInstance(documentReference, targetReference, parentAction, plan);
@@ -330,7 +561,7 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
         // document.
         // [Space.Page, Path.To.Parent.WebHome] => [Path.To.Parent.Page.WebHome].
         // Not that the original space name is lost in the process.
-        SpaceReference parentSpace = new SpaceReference(documentReference.getName(),
+        SpaceReference parentSpace = referencePool.getSpace(documentReference.getName(),
                 parentAction.getTargetDocument().getLastSpaceReference());
         TargetReference targetReference = computeFreeTarget(documentReference, parentSpace, parentAction);
 
@@ -340,8 +571,8 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
         // --> Movies.Dramas.WebHome must be created!
         if (!targetReference.getTargetDocument().getLastSpaceReference().getParent().equals(
                 parentAction.getTargetDocument().getLastSpaceReference())) {
-            parentAction = convertDocumentAndParents(new DocumentReference(SPACE_HOME_PAGE, 
-                    (SpaceReference) targetReference.getTargetDocument().getLastSpaceReference().getParent()));
+            parentAction = convertDocumentAndParents(referencePool.getWebHome(
+                    targetReference.getTargetDocument().getLastSpaceReference().getParent()));
         }
 
         return MigrationAction.createInstance(documentReference, targetReference, parentAction, plan);
@@ -364,7 +595,7 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
         }
 
         // Problem: the target document already exists.
-        if (xwiki.exists(targetDocument, context)) {
+        if (exists(targetDocument)) {
             // But it's ok to have a target document that exists if the target document is the source document too.
             // ie: if the action do not move the document (identity action).
             if (documentReference.equals(targetDocument)) {
@@ -378,6 +609,19 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
         return TargetState.FREE;
     }
 
+    /**
+     * Check if a document exists. When the names of the documents have been loaded, the wiki is only queried if the
+     * name is found in memory (to rule out a hash collision).
+     */
+    private boolean exists(DocumentReference documentReference)
+    {
+        if (documentNames != null && configuration.getWikiReference().equals(documentReference.getWikiReference())
+                && !documentNames.mightContain(localSerializer.serialize(documentReference))) {
+            return false;
+        }
+        return xwiki.exists(documentReference, context);
+    }
+
     /*
      * Check that the existing target document is not the result of a failed attempt to run the migrator.
      *
@@ -401,6 +645,17 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
      */
     private boolean isTargetDuplicate(DocumentReference documentReference, DocumentReference targetDocument)
     {
+        // When the metadata are available, compare the authors and a digest of the content, without loading the
+        // documents
+        if (metadataIndex != null) {
+            PageMetadata sourceMetadata = metadataIndex.get(documentReference);
+            PageMetadata targetMetadata = metadataIndex.get(targetDocument);
+            if (sourceMetadata != null && targetMetadata != null) {
+                return sourceMetadata.hasSameAuthors(targetMetadata)
+                        && hasSameContent(documentReference, sourceMetadata, targetDocument, targetMetadata);
+            }
+        }
+
         try {
             XWikiDocument sourceDoc = xwiki.getDocument(documentReference, context);
             XWikiDocument targetDoc = xwiki.getDocument(targetDocument, context);
@@ -435,13 +690,37 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
         }
     }
 
+    private boolean hasSameContent(DocumentReference documentReference, PageMetadata metadata,
+            DocumentReference otherDocumentReference, PageMetadata otherMetadata)
+    {
+        try {
+            String digest = getContentDigest(documentReference, metadata);
+            return digest != null && digest.equals(getContentDigest(otherDocumentReference, otherMetadata));
+        } catch (MigrationException e) {
+            // Same as when the documents cannot be loaded: the more prudent is to not consider the target as free.
+            logger.error("Failed to compare the content of [{}] and [{}].", documentReference,
+                    otherDocumentReference, e);
+            return false;
+        }
+    }
+
+    private String getContentDigest(DocumentReference documentReference, PageMetadata metadata)
+            throws MigrationException
+    {
+        // A source document can be compared to several candidate targets, so keep the digest
+        if (metadata.getContentDigest() == null) {
+            metadata.setContentDigest(contentDigestGetter.getContentDigest(documentReference));
+        }
+        return metadata.getContentDigest();
+    }
+
     /**
      * Generate a target document that is not already used by a previous action or already existing in the wiki.
      */
     private TargetReference computeFreeTarget(DocumentReference documentReference,
             SpaceReference parentSpace, MigrationAction parentAction)
     {
-        DocumentReference targetDocument = new DocumentReference(SPACE_HOME_PAGE, parentSpace);
+        DocumentReference targetDocument = referencePool.getWebHome(parentSpace);
         int iteration = 0;
         TargetState targetState = getTargetState(documentReference, targetDocument);
         while (targetState == TargetState.USED) {
@@ -461,20 +740,23 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
                 String targetRootSpaceName = parentAction.getTargetDocument().getSpaceReferences().get(0).getName();
                 if (!documentReference.getLastSpaceReference().getName().equals(targetLastSpaceName)
                     && !targetRootSpaceName.equals(documentReference.getSpaceReferences().get(0).getName())) {
-                    newParentSpace = new SpaceReference(documentReference.getName(),
-                            new SpaceReference(documentReference.getLastSpaceReference().getName(),
+                    newParentSpace = referencePool.getSpace(documentReference.getName(),
+                            referencePool.getSpace(documentReference.getLastSpaceReference().getName(),
                                 parentAction.getTargetDocument().getLastSpaceReference()));
                 }
             }
             
             // This new name could be used already, so we add a number prefix
             if (iteration++ > 0) {
-                String spaceName = newParentSpace.getName() + "_" + iteration;
-                newParentSpace = new SpaceReference(spaceName, newParentSpace.getParent());
+                // Don't try again the suffixes that are already taken by the plan
+                if (iteration == 2) {
+                    iteration = getFirstSuffixNotInPlan(newParentSpace);
+                }
+                newParentSpace = getSuffixedSpace(newParentSpace, iteration);
             }
             
             // Create the new reference
-            targetDocument = new DocumentReference(SPACE_HOME_PAGE, newParentSpace);
+            targetDocument = referencePool.getWebHome(newParentSpace);
 
             // Check the state for the next iteration
             targetState = getTargetState(documentReference, targetDocument);
@@ -482,6 +764,30 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
         return new TargetReference(targetDocument, targetState);
     }
 
+    /**
+     * Since the actions are never removed from the plan, the suffixes taken by the plan for a given space remain
+     * taken: we remember the first one that was not, so that we don't test all of them again for the next document
+     * having the same name (some wikis have thousands of pages with the same name).
+     *
+     * @param space the space to suffix
+     * @return the first suffix (2 or more) whose target is not used by an action of the plan
+     */
+    private int getFirstSuffixNotInPlan(SpaceReference space)
+    {
+        Integer knownSuffix = nextSuffixes.get(space);
+        int suffix = knownSuffix != null ? knownSuffix : 2;
+        while (plan.getActionWithTarget(referencePool.getWebHome(getSuffixedSpace(space, suffix))) != null) {
+            suffix++;
+        }
+        nextSuffixes.put(space, suffix);
+        return suffix;
+    }
+
+    private SpaceReference getSuffixedSpace(SpaceReference space, int suffix)
+    {
+        return referencePool.getSpace(space.getName() + "_" + suffix, space.getParent());
+    }
+
     /** 
      * @param documentReference the document to test
      * @return either or not the document is terminal, i.e. its name is not "WebHome".
@@ -494,7 +800,7 @@ public class PagesMigrationPlanCreator implements Initializable, MigrationPlanTr
     @Override
     public void actionAdded(MigrationPlanTree plan, MigrationAction action)
     {   
-        if (concernedDocuments.contains(action.getSourceDocument())) {
+        if (concernedDocumentSet.contains(action.getSourceDocument())) {
             progressManager.startStep(this);
         }
     }
@@ -32,6 +32,8 @@ import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadataIndex;
+import org.xwiki.contrib.nestedpagesmigrator.internal.query.KeysetPagedQuery;
 import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
@@ -43,6 +45,7 @@ import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryFilter;
 import org.xwiki.query.QueryManager;
+import org.xwiki.text.StringUtils;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
@@ -58,6 +61,11 @@ import com.xpn.xwiki.doc.XWikiDocument;
 @Singleton
 public class PagesToTransformGetter
 {
+    /**
+     * Number of document names read at once from the database.
+     */
+    private static final int PAGE_SIZE = 1000;
+
     @Inject
     private QueryManager queryManager;
 
@@ -85,10 +93,24 @@ public class PagesToTransformGetter
      * @throws MigrationException if error happens
      */
     public List<DocumentReference> getPagesToConvert(MigrationConfiguration configuration) throws MigrationException
+    {
+        return getPagesToConvert(configuration, null);
+    }
+
+    /**
+     * @param configuration the configuration of the migration
+     * @param metadataIndex the metadata of the documents of the wiki, used to read the parent of the candidates
+     * instead of loading them (can be null)
+     *
+     * @return the list of pages to convert
+     *
+     * @throws MigrationException if error happens
+     * @since 0.10.3
+     */
+    public List<DocumentReference> getPagesToConvert(MigrationConfiguration configuration,
+            PageMetadataIndex metadataIndex) throws MigrationException
     {  
         try {
-            Query query = getQuery(configuration);
-
             XWikiContext context = contextProvider.get();
             XWiki xwiki = context.getWiki();
 
@@ -97,47 +119,40 @@ public class PagesToTransformGetter
 
             progressManager.pushLevelProgress(2, this);
             
-            // First: perform the query
-            progressManager.startStep(this);
-            List<String> docNames = query.execute();
-            // TODO: to scale efficiently, add a limit() and an offset()
-            
-            // Then load each document to see if they match the criteria
+            // First: count the candidates, so we can announce how many documents are going to be read
             progressManager.startStep(this);
-            
-            // Send how many document are going to be read
-            progressManager.pushLevelProgress(docNames.size(), this);
-            for (String docName : docNames) {
-                progressManager.startStep(this);
-                
-                DocumentReference documentReference =
-                        documentReferenceResolver.resolve(docName, configuration.getWikiReference());
-
-                try {
-                    XWikiDocument doc = xwiki.getDocument(documentReference, context);
-
-                    // If the document is not terminal and already under its parent, exclude it
-                    if (isNotTerminal(documentReference) && isAlreadyUnderParent(documentReference, doc)) {
-                        continue;
-                    }
+            long count = countCandidates(configuration);
 
-                    // If the document holds a class and the configuration say do not convert such a page, exclude it
-                    if (configuration.isExcludeClassPages() && !doc.getXClass().getPropertyList().isEmpty()) {
-                        continue;
-                    }
-
-                    // If the document holds a forbidden object, exclude it
-                    if (hasForbiddenObject(doc, excludedObjectClasses)) {
-                        continue;
+            // Then read the candidates page by page, and check each of them to see if they match the criteria.
+            // Reading them page by page keeps the memory bounded, whatever the size of the wiki is.
+            progressManager.startStep(this);
+            progressManager.pushLevelProgress((int) count, this);
+            KeysetPagedQuery<Object> candidates = new KeysetPagedQuery<>(getQuery(configuration, false),
+                    getQuery(configuration, true), PAGE_SIZE);
+            List<Object> rows;
+            while (!(rows = candidates.nextPage()).isEmpty()) {
+                for (Object row : rows) {
+                    progressManager.startStep(this);
+
+                    if (configuration.isFilterInQuery()) {
+                        // The query has already excluded the documents holding a class or a forbidden object, and
+                        // gives us the parent of the document, so we don't need to load it.
+                        Object[] columns = (Object[]) row;
+                        DocumentReference documentReference = documentReferenceResolver.resolve((String) columns[0],
+                                configuration.getWikiReference());
+                        if (!isNotTerminal(documentReference) || !isAlreadyUnderParent(documentReference,
+                                getParentReference((String) columns[1], documentReference))) {
+                            results.add(documentReference);
+                        }
+                    } else {
+                        DocumentReference documentReference =
+                                documentReferenceResolver.resolve((String) row, configuration.getWikiReference());
+                        if (isToConvert(documentReference, configuration, excludedObjectClasses, metadataIndex,
+                                xwiki, context)) {
+                            results.add(documentReference);
+                        }
                     }
-
-                } catch (XWikiException e) {
-                    // TODO: maybe continue without this document but add something in the logs?
-                    throw new MigrationException(
-                            String.format("Failed to get the document [%s]", documentReference), e);
                 }
-
-                results.add(documentReference);
             }
             // All documents have been loaded
             progressManager.popLevelProgress(this);
@@ -151,7 +166,68 @@ public class PagesToTransformGetter
         }
     }
 
-    private Query getQuery(MigrationConfiguration configuration) throws ComponentLookupException, QueryException
+    private boolean isToConvert(DocumentReference documentReference, MigrationConfiguration configuration,
+            List<DocumentReference> excludedObjectClasses, PageMetadataIndex metadataIndex, XWiki xwiki,
+            XWikiContext context) throws MigrationException
+    {
+        try {
+            XWikiDocument doc = null;
+            DocumentReference parentReference;
+            if (metadataIndex != null) {
+                parentReference = metadataIndex.getParentReference(documentReference);
+            } else {
+                doc = xwiki.getDocument(documentReference, context);
+                parentReference = doc.getParentReference();
+            }
+
+            // If the document is not terminal and already under its parent, exclude it
+            if (isNotTerminal(documentReference) && isAlreadyUnderParent(documentReference, parentReference)) {
+                return false;
+            }
+
+            // Nothing else to check, no need to load the document
+            if (!configuration.isExcludeClassPages() && excludedObjectClasses.isEmpty()) {
+                return true;
+            }
+            if (doc == null) {
+                doc = xwiki.getDocument(documentReference, context);
+            }
+
+            // If the document holds a class and the configuration say do not convert such a page, exclude it
+            if (configuration.isExcludeClassPages() && !doc.getXClass().getPropertyList().isEmpty()) {
+                return false;
+            }
+
+            // If the document holds a forbidden object, exclude it
+            return !hasForbiddenObject(doc, excludedObjectClasses);
+
+        } catch (XWikiException e) {
+            // TODO: maybe continue without this document but add something in the logs?
+            throw new MigrationException(
+                    String.format("Failed to get the document [%s]", documentReference), e);
+        }
+    }
+
+    private long countCandidates(MigrationConfiguration configuration)
+            throws ComponentLookupException, QueryException
+    {
+        Query query;
+        if (configuration.isFilterInQuery()) {
+            query = queryManager.createQuery(
+                    "select count(doc.fullName) from XWikiDocument doc " + getWhereClause(configuration, false),
+                    Query.HQL);
+        } else {
+            query = queryManager.createQuery(
+                    "select count(distinct doc.fullName) from Document doc " + getWhereClause(configuration, false),
+                    Query.XWQL);
+        }
+        bindValues(query, configuration);
+
+        List<Long> results = query.execute();
+        return results.isEmpty() || results.get(0) == null ? 0 : results.get(0);
+    }
+
+    private String getWhereClause(MigrationConfiguration configuration, boolean afterLastKey)
     {
         StringBuilder xwql = new StringBuilder();
 
@@ -175,15 +251,66 @@ public class PagesToTransformGetter
         if (configuration.hasExcludedPages()) {
             xwql.append(" and doc.fullName not in (:excludedDocList)");   
         }
-        
+        if (configuration.isFilterInQuery()) {
+            appendDocumentFilters(xwql, configuration);
+        }
+        if (afterLastKey) {
+            xwql.append(" and ").append(KeysetPagedQuery.KEY_CONDITION);
+        }
+
+        return xwql.toString();
+    }
+
+    /**
+     * Add the conditions that we would otherwise check by loading each document. Since they concern the document
+     * table and the objects table, the query has to be written in HQL.
+     */
+    private void appendDocumentFilters(StringBuilder hql, MigrationConfiguration configuration)
+    {
+        // The translations share the location and the parent of the default document, we only need the latter.
+        hql.append(" and doc.translation = 0");
+
+        // Same condition as the "hidden" query filter, which only handles the default select clause
+        if (configuration.isExcludeHiddenPages()) {
+            hql.append(" and (doc.hidden <> true or doc.hidden is null)");
+        }
+
+        // A document holding a class has its definition stored as XML
+        if (configuration.isExcludeClassPages()) {
+            hql.append(" and (doc.xWikiClassXML is null or doc.xWikiClassXML not like '<%')");
+        }
+
+        if (!configuration.getExcludedObjectClasses().isEmpty()) {
+            hql.append(" and not exists (select obj.id from BaseObject obj where obj.name = doc.fullName")
+                .append(" and obj.className in (:excludedClassList))");
+        }
+    }
+
+    private Query getQuery(MigrationConfiguration configuration, boolean afterLastKey)
+            throws ComponentLookupException, QueryException
+    {
         // It's important since the results could change because of the order (@see MigrationPlanCreator#createAction).
-        xwql.append(" order by doc.fullName");
+        // It's also what makes the keyset pagination possible.
+        String orderBy = " order by doc.fullName";
+
+        Query query;
+        if (configuration.isFilterInQuery()) {
+            query = queryManager.createQuery("select doc.fullName, doc.parent from XWikiDocument doc "
+                    + getWhereClause(configuration, afterLastKey) + orderBy, Query.HQL);
+        } else {
+            query = queryManager.createQuery(getWhereClause(configuration, afterLastKey) + orderBy, Query.XWQL);
+            query.addFilter(componentManager.<QueryFilter>getInstance(QueryFilter.class, "unique"));
+        }
+        bindValues(query, configuration);
 
-        Query query = queryManager.createQuery(xwql.toString(), Query.XWQL);
+        return query;
+    }
+
+    private void bindValues(Query query, MigrationConfiguration configuration) throws ComponentLookupException
+    {
         query.setWiki(configuration.getWikiReference().getName());
-        query.addFilter(componentManager.<QueryFilter>getInstance(QueryFilter.class, "unique"));
 
-        if (configuration.isExcludeHiddenPages()) {
+        if (configuration.isExcludeHiddenPages() && !configuration.isFilterInQuery()) {
             query.addFilter(componentManager.<QueryFilter>getInstance(QueryFilter.class, "hidden"));
         }
 
@@ -214,29 +341,50 @@ public class PagesToTransformGetter
             query.bindValue("excludedDocList", serializedExcludedPages);
         }
 
-        return query;
+        List<DocumentReference> excludedObjectClasses = configuration.getExcludedObjectClasses();
+        if (configuration.isFilterInQuery() && !excludedObjectClasses.isEmpty()) {
+            List<String> serializedExcludedClasses = new ArrayList<>(excludedObjectClasses.size());
+            for (DocumentReference classReference : excludedObjectClasses) {
+                serializedExcludedClasses.add(referenceSerializer.serialize(classReference));
+            }
+            query.bindValue("excludedClassList", serializedExcludedClasses);
+        }
     }
 
     /**
      * This method is needed because we cannot write it directly in the SQL query. It's a shame...
      *
      * @param documentReference the document reference
-     * @param document the corresponding XWiki document
+     * @param parentReference the parent set in the document
      * @return if the document is under its parent (so we don't need to return it)
      */
-    private boolean isAlreadyUnderParent(DocumentReference documentReference, XWikiDocument document)
+    private boolean isAlreadyUnderParent(DocumentReference documentReference, DocumentReference parentReference)
     {
         EntityReference spaceParent = documentReference.getLastSpaceReference().getParent();
         if (spaceParent.getType() == EntityType.SPACE) {
             // Return if the WebHome page of the parent space of the space is the parent set in the document
             // [A.B.WebHome must have A.WebHome as parent].
             DocumentReference expectedParent = new DocumentReference("WebHome", new SpaceReference(spaceParent));
-            return expectedParent.equals(document.getParentReference());
+            return expectedParent.equals(parentReference);
         } else {
             // The document is a top-level document [A.WebHome], so its parent must be itself or null
-            DocumentReference parent = document.getParentReference();
-            return parent == null || parent.equals(documentReference);
+            return parentReference == null || parentReference.equals(documentReference);
+        }
+    }
+
+    /**
+     * Resolve the "parent" field of a document, the same way the document does.
+     *
+     * @param parent the serialized parent, as stored in the database
+     * @param documentReference the reference of the document holding this parent
+     * @return the reference of the parent, or null if the document has no parent
+     */
+    private DocumentReference getParentReference(String parent, DocumentReference documentReference)
+    {
+        if (StringUtils.isBlank(parent)) {
+            return null;
         }
+        return documentReferenceResolver.resolve(parent, documentReference);
     }
 
     /**
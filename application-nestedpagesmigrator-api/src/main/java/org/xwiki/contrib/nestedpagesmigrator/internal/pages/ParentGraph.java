@@ -0,0 +1,229 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.pages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The child to parent relationships of the documents to convert, where each document is identified by an int. Each
+ * document has at most one parent, so the strongly connected components made of more than one document are simple
+ * cycles, which are found (and broken) while walking up the parent chains.
+ * <p>
+ * Not thread-safe.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class ParentGraph
+{
+    /**
+     * Value used when a document has no parent.
+     */
+    public static final int NO_PARENT = -1;
+
+    private static final byte UNVISITED = 0;
+
+    private static final byte IN_PROGRESS = 1;
+
+    private static final byte DONE = 2;
+
+    /**
+     * A list of documents to convert, from the farthest ancestor to the child, and the document where the walk up the
+     * parent chain has stopped.
+     *
+     * @version $Id: $
+     */
+    public static class Chain
+    {
+        private final int[] documents;
+
+        private final int end;
+
+        private final boolean cycle;
+
+        Chain(int[] documents, int end, boolean cycle)
+        {
+            this.documents = documents;
+            this.end = end;
+            this.cycle = cycle;
+        }
+
+        /**
+         * @return the documents of the chain, the farthest ancestor first
+         */
+        public int[] getDocuments()
+        {
+            return documents;
+        }
+
+        /**
+         * @return the parent of the farthest ancestor of the chain (a document already handled, a document not to
+         * convert, or a document of the chain itself in case of cycle), or {@link #NO_PARENT}
+         */
+        public int getEnd()
+        {
+            return end;
+        }
+
+        /**
+         * @return if the parent chain has been cut because of a cycle
+         */
+        public boolean isCycle()
+        {
+            return cycle;
+        }
+    }
+
+    private final Map<DocumentReference, Integer> ids = new HashMap<>();
+
+    private final List<DocumentReference> documents = new ArrayList<>();
+
+    private int[] parents = new int[1024];
+
+    private boolean[] stops = new boolean[1024];
+
+    /**
+     * @param documentReference a document
+     * @return the id of the document, which is added to the graph if needed
+     */
+    public int getId(DocumentReference documentReference)
+    {
+        Integer id = ids.get(documentReference);
+        if (id == null) {
+            id = documents.size();
+            ids.put(documentReference, id);
+            documents.add(documentReference);
+            if (id == parents.length) {
+                parents = Arrays.copyOf(parents, id * 2);
+                stops = Arrays.copyOf(stops, id * 2);
+            }
+            parents[id] = NO_PARENT;
+        }
+        return id;
+    }
+
+    /**
+     * @param documentReference a document
+     * @return if the document is part of the graph
+     */
+    public boolean contains(DocumentReference documentReference)
+    {
+        return ids.containsKey(documentReference);
+    }
+
+    /**
+     * @param id the id of a document
+     * @return the reference of the document
+     */
+    public DocumentReference getDocument(int id)
+    {
+        return documents.get(id);
+    }
+
+    /**
+     * @param id the id of a document
+     * @param parentId the id of its parent
+     */
+    public void setParent(int id, int parentId)
+    {
+        parents[id] = parentId;
+    }
+
+    /**
+     * @param id the id of a document
+     * @return the id of its parent, or {@link #NO_PARENT}
+     */
+    public int getParent(int id)
+    {
+        return parents[id];
+    }
+
+    /**
+     * Mark a document where the walk up the parent chains must stop, because it should not be converted.
+     *
+     * @param id the id of a document
+     */
+    public void setStop(int id)
+    {
+        stops[id] = true;
+    }
+
+    /**
+     * @return the number of documents in the graph
+     */
+    public int size()
+    {
+        return documents.size();
+    }
+
+    /**
+     * Compute the order in which the documents must be converted so that a parent is always converted before its
+     * children: starting from each given document, we walk up its parent chain until we meet a document already
+     * handled, a document not to convert, or a document of the current chain (cycle).
+     *
+     * @param startIds the ids of the documents to convert, in the order they have to be handled
+     * @return the chains of documents, in the order they have to be converted
+     */
+    public List<Chain> getChains(int[] startIds)
+    {
+        byte[] states = new byte[documents.size()];
+        List<Chain> chains = new ArrayList<>();
+        int[] path = new int[16];
+        for (int startId : startIds) {
+            int length = 0;
+            int current = startId;
+            boolean cycle = false;
+            while (current != NO_PARENT) {
+                if (states[current] == DONE || stops[current]) {
+                    break;
+                }
+                if (states[current] == IN_PROGRESS) {
+                    cycle = true;
+                    break;
+                }
+                states[current] = IN_PROGRESS;
+                if (length == path.length) {
+                    path = Arrays.copyOf(path, length * 2);
+                }
+                path[length++] = current;
+                current = parents[current];
+            }
+            if (length == 0) {
+                // Already handled
+                continue;
+            }
+
+            // Reverse the path so the farthest ancestor comes first
+            int[] chain = new int[length];
+            for (int i = 0; i < length; ++i) {
+                chain[i] = path[length - 1 - i];
+                states[chain[i]] = DONE;
+            }
+            chains.add(new Chain(chain, current, cycle));
+        }
+        return chains;
+    }
+}
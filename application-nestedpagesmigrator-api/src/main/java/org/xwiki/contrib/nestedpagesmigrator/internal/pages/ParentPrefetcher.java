@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.pages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.contrib.nestedpagesmigrator.internal.query.KeysetPagedQuery;
+import org.xwiki.contrib.nestedpagesmigrator.internal.query.SpacePrefixCondition;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.text.StringUtils;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Read the "parent" field of documents and of their ancestors on several threads, one task per top-level space, so
+ * that the plan creator (which must stay sequential to compute the same targets) does not need to load them one by
+ * one. Each task reads the parents of all the documents of its space with a projection query, so that no document is
+ * loaded in the document cache. The spaces of the ancestors that are outside of the spaces already read are read in a
+ * next round.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = ParentPrefetcher.class)
+@Singleton
+public class ParentPrefetcher
+{
+    private static final int PAGE_SIZE = 5000;
+
+    private static final String STATEMENT = "select doc.fullName, doc.parent from XWikiDocument doc "
+            + "where " + SpacePrefixCondition.CONDITION + " and doc.translation = 0";
+
+    private static final String ORDER_BY = " order by doc.fullName";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @param documents the documents whose parent chain must be read
+     * @param wikiReference the wiki where the documents are (the parents on other wikis are not read)
+     * @param threads the maximum number of threads to use
+     * @return the parent of each document that has been read (null if the document has no parent), the documents that
+     * could not be read are not in the map
+     */
+    public Map<DocumentReference, DocumentReference> prefetchParents(List<DocumentReference> documents,
+            WikiReference wikiReference, int threads)
+    {
+        // A synchronized HashMap, since a document without parent is stored with a null value
+        Map<DocumentReference, DocumentReference> parents = Collections.synchronizedMap(
+                new HashMap<DocumentReference, DocumentReference>());
+
+        Set<SpaceReference> readSpaces = new HashSet<>();
+        Set<SpaceReference> spaces = new LinkedHashSet<>();
+        for (DocumentReference documentReference : documents) {
+            spaces.add(documentReference.getSpaceReferences().get(0));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            while (!spaces.isEmpty()) {
+                readSpaces(spaces, wikiReference, parents, pool);
+                readSpaces.addAll(spaces);
+                spaces = getMissingSpaces(documents, wikiReference, parents, readSpaces);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+
+        return parents;
+    }
+
+    private void readSpaces(Set<SpaceReference> spaces, WikiReference wikiReference,
+            Map<DocumentReference, DocumentReference> parents, ForkJoinPool pool) throws InterruptedException
+    {
+        XWikiContext context = contextProvider.get();
+        List<Callable<Void>> tasks = new ArrayList<>(spaces.size());
+        for (SpaceReference space : spaces) {
+            // Each task has its own copy of the XWiki context
+            tasks.add(new ReadParentsTask(space, wikiReference, context.clone(), parents));
+        }
+
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // Not a problem, the plan creator will load the missing documents itself
+                logger.warn("Failed to read the parents of some documents in advance.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return the top-level spaces holding an ancestor of the documents that has not been read yet
+     */
+    private Set<SpaceReference> getMissingSpaces(List<DocumentReference> documents, WikiReference wikiReference,
+            Map<DocumentReference, DocumentReference> parents, Set<SpaceReference> readSpaces)
+    {
+        Set<SpaceReference> missingSpaces = new LinkedHashSet<>();
+        Set<DocumentReference> visited = new HashSet<>();
+        for (DocumentReference documentReference : documents) {
+            DocumentReference current = documentReference;
+            // Walk up the parent chain until a document that has not been read (or is on another wiki)
+            while (current != null && wikiReference.equals(current.getWikiReference()) && visited.add(current)
+                    && parents.containsKey(current)) {
+                current = parents.get(current);
+            }
+            if (current != null && wikiReference.equals(current.getWikiReference())
+                    && !parents.containsKey(current)) {
+                SpaceReference space = current.getSpaceReferences().get(0);
+                // A document of a space that has been read does not exist
+                if (!readSpaces.contains(space)) {
+                    missingSpaces.add(space);
+                }
+            }
+        }
+        return missingSpaces;
+    }
+
+    private final class ReadParentsTask implements Callable<Void>
+    {
+        private final SpaceReference space;
+
+        private final WikiReference wikiReference;
+
+        private final XWikiContext context;
+
+        private final Map<DocumentReference, DocumentReference> parents;
+
+        ReadParentsTask(SpaceReference space, WikiReference wikiReference, XWikiContext context,
+                Map<DocumentReference, DocumentReference> parents)
+        {
+            this.space = space;
+            this.wikiReference = wikiReference;
+            this.context = context;
+            this.parents = parents;
+        }
+
+        @Override
+        public Void call() throws QueryException
+        {
+            // The worker thread has no execution context yet
+            ExecutionContext executionContext = new ExecutionContext();
+            execution.setContext(executionContext);
+            context.declareInExecutionContext(executionContext);
+            try {
+                KeysetPagedQuery<Object[]> query = new KeysetPagedQuery<>(createQuery(STATEMENT),
+                        createQuery(STATEMENT + " and " + KeysetPagedQuery.KEY_CONDITION), PAGE_SIZE);
+                List<Object[]> rows;
+                while (!(rows = query.nextPage()).isEmpty()) {
+                    for (Object[] row : rows) {
+                        DocumentReference documentReference =
+                                documentReferenceResolver.resolve((String) row[0], wikiReference);
+                        String parent = (String) row[1];
+                        // Same as XWikiDocument#getParentReference(): the parent is relative to the document
+                        parents.put(documentReference, StringUtils.isBlank(parent) ? null
+                                : documentReferenceResolver.resolve(parent, documentReference));
+                    }
+                }
+            } finally {
+                execution.removeContext();
+            }
+            return null;
+        }
+
+        private Query createQuery(String statement) throws QueryException
+        {
+            String spaceName = localSerializer.serialize(space);
+            Query query = queryManager.createQuery(statement + ORDER_BY, Query.HQL);
+            query.setWiki(wikiReference.getName());
+            query.bindValue("space", spaceName);
+            query.bindValue("spacePrefix", SpacePrefixCondition.getPattern(spaceName));
+            return query;
+        }
+    }
+}
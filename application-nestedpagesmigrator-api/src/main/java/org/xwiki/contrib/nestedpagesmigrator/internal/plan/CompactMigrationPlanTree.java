@@ -0,0 +1,592 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.plan;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * A {@link MigrationPlanTree} storing its actions in primitive arrays instead of one object per action. The document
+ * references are recorded once in a {@link ReferenceDictionary}, and each action is a slot in the arrays holding the
+ * identifiers of its source and its target, the links to its parent, its first child and its next sibling, and its
+ * flags. The {@link MigrationAction} objects returned by this plan are light views on a slot, created when they are
+ * accessed: they can be updated, but they should not be kept longer than needed.
+ * <p>
+ * The preferences and the rights, that only concern a few actions, are stored in maps.
+ * <p>
+ * Unlike the default representation, an action can only have one parent action, and only the actions that have been
+ * recorded in the plan can be added as children. Not thread-safe.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class CompactMigrationPlanTree extends MigrationPlanTree
+{
+    /**
+     * Value of a missing link or reference.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * Slot of the top level action, which is the root of the tree but does not represent a real action.
+     */
+    private static final int TOP_LEVEL = 0;
+
+    /**
+     * Value of a reference which is not the source or the target of any action. It's the top level action, which is
+     * never the source or the target of an action.
+     */
+    private static final int NO_ACTION = 0;
+
+    private static final byte FLAG_ENABLED = 1;
+
+    private static final byte FLAG_DELETE_PREVIOUS = 2;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Minimum number of children of an action to index them when a page of its children is requested.
+     */
+    private static final int CHILD_INDEX_THRESHOLD = 64;
+
+    private final ReferenceDictionary dictionary = new ReferenceDictionary();
+
+    private int[] sources = new int[INITIAL_CAPACITY];
+
+    private int[] targets = new int[INITIAL_CAPACITY];
+
+    private int[] parents = new int[INITIAL_CAPACITY];
+
+    private int[] firstChildren = new int[INITIAL_CAPACITY];
+
+    private int[] lastChildren = new int[INITIAL_CAPACITY];
+
+    private int[] nextSiblings = new int[INITIAL_CAPACITY];
+
+    private int[] childCounts = new int[INITIAL_CAPACITY];
+
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Number of slots used, including the top level action.
+     */
+    private int slotCount;
+
+    /**
+     * Slot of the action having a given reference as source, indexed by reference identifier.
+     */
+    private int[] actionsBySource = new int[INITIAL_CAPACITY];
+
+    /**
+     * Slot of the action having a given reference as target, indexed by reference identifier.
+     */
+    private int[] actionsByTarget = new int[INITIAL_CAPACITY];
+
+    private final Map<Integer, Collection<Preference>> preferences = new HashMap<>();
+
+    private final Map<Integer, Collection<Right>> rights = new HashMap<>();
+
+    /**
+     * The slots of the children of the actions having many children, in order, built when a page of their children is
+     * requested so that getting a page does not walk all the previous siblings. Dropped when the children change.
+     */
+    private final Map<Integer, int[]> childIndexes = new HashMap<>();
+
+    private final Map<DocumentReference, MigrationAction> actions = new ActionMap();
+
+    private final MigrationAction topLevelAction;
+
+    /**
+     * Construct a new, empty CompactMigrationPlanTree.
+     */
+    public CompactMigrationPlanTree()
+    {
+        newSlot(NONE, NONE, FLAG_ENABLED);
+        topLevelAction = new Action(TOP_LEVEL);
+    }
+
+    @Override
+    public Map<DocumentReference, MigrationAction> getActions()
+    {
+        return actions;
+    }
+
+    @Override
+    public void addAction(MigrationAction action) throws MigrationException
+    {
+        fireActionAdded(new Action(record(action)));
+    }
+
+    @Override
+    public MigrationAction createAction(MigrationAction action, MigrationAction parentAction)
+        throws MigrationException
+    {
+        int slot = record(action);
+        if (parentAction != null) {
+            link(getSlot(parentAction), slot);
+        }
+        MigrationAction view = new Action(slot);
+        fireActionAdded(view);
+        return view;
+    }
+
+    @Override
+    public MigrationAction getActionAbout(DocumentReference documentReference)
+    {
+        MigrationAction action = getActions().get(documentReference);
+        return action != null ? action : getActionWithTarget(documentReference);
+    }
+
+    @Override
+    public MigrationAction getActionWithTarget(DocumentReference documentReference)
+    {
+        return getView(actionsByTarget, documentReference);
+    }
+
+    @Override
+    public MigrationAction getTopLevelAction()
+    {
+        return topLevelAction;
+    }
+
+    @Override
+    public void sort()
+    {
+        Comparator<Integer> comparator = new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer slot1, Integer slot2)
+            {
+                return getTargetSpaceName(slot1).compareTo(getTargetSpaceName(slot2));
+            }
+        };
+
+        for (int slot = 0; slot < slotCount; ++slot) {
+            if (firstChildren[slot] == NONE || nextSiblings[firstChildren[slot]] == NONE) {
+                continue;
+            }
+            List<Integer> children = new ArrayList<>();
+            for (int child = firstChildren[slot]; child != NONE; child = nextSiblings[child]) {
+                children.add(child);
+            }
+            // Like in the default representation, the sort is stable
+            Collections.sort(children, comparator);
+            firstChildren[slot] = NONE;
+            for (int child : children) {
+                appendChild(slot, child);
+            }
+        }
+    }
+
+    @Override
+    public void clearPreferences()
+    {
+        preferences.clear();
+    }
+
+    /**
+     * @return the number of different document references recorded in the plan
+     */
+    public int getReferenceCount()
+    {
+        return dictionary.size();
+    }
+
+    private String getTargetSpaceName(int slot)
+    {
+        return dictionary.get(targets[slot]).getLastSpaceReference().getName();
+    }
+
+    /**
+     * Record the action in a new slot, after the same checks than the default representation.
+     */
+    private int record(MigrationAction action) throws MigrationException
+    {
+        DocumentReference sourceDocument = action.getSourceDocument();
+        DocumentReference targetDocument = action.getTargetDocument();
+        if (getActions().containsKey(sourceDocument)) {
+            throw new MigrationException(String.format("An action concerning [%s] already exists.",
+                    sourceDocument));
+        }
+        MigrationAction previousAction = getActionWithTarget(targetDocument);
+        if (previousAction != null && !action.shouldDeletePrevious()) {
+            throw new MigrationException(String.format("An action with target [%s] already exists. It's [%s].",
+                    targetDocument, previousAction));
+        }
+
+        int source = dictionary.add(sourceDocument);
+        int target = dictionary.add(targetDocument);
+        byte actionFlags = 0;
+        if (action.isEnabled()) {
+            actionFlags |= FLAG_ENABLED;
+        }
+        if (action.shouldDeletePrevious()) {
+            actionFlags |= FLAG_DELETE_PREVIOUS;
+        }
+        int slot = newSlot(source, target, actionFlags);
+
+        if (dictionary.size() > actionsBySource.length) {
+            int capacity = Math.max(dictionary.size(), actionsBySource.length * 2);
+            actionsBySource = Arrays.copyOf(actionsBySource, capacity);
+            actionsByTarget = Arrays.copyOf(actionsByTarget, capacity);
+        }
+        actionsBySource[source] = slot;
+        actionsByTarget[target] = slot;
+
+        MigrationAction view = new Action(slot);
+        for (Preference preference : action.getPreferences()) {
+            view.addPreference(preference);
+        }
+        for (Right right : action.getRights()) {
+            view.addRight(right);
+        }
+
+        return slot;
+    }
+
+    private int newSlot(int source, int target, byte actionFlags)
+    {
+        if (slotCount == sources.length) {
+            int capacity = slotCount * 2;
+            sources = Arrays.copyOf(sources, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            childCounts = Arrays.copyOf(childCounts, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        int slot = slotCount++;
+        sources[slot] = source;
+        targets[slot] = target;
+        parents[slot] = NONE;
+        firstChildren[slot] = NONE;
+        lastChildren[slot] = NONE;
+        nextSiblings[slot] = NONE;
+        childCounts[slot] = 0;
+        flags[slot] = actionFlags;
+        return slot;
+    }
+
+    private void link(int parent, int child)
+    {
+        if (parents[child] != NONE) {
+            throw new IllegalStateException(
+                    String.format("The action [%s] already has a parent action.", new Action(child)));
+        }
+        parents[child] = parent;
+        childCounts[parent]++;
+        appendChild(parent, child);
+    }
+
+    private void appendChild(int parent, int child)
+    {
+        childIndexes.remove(parent);
+        nextSiblings[child] = NONE;
+        if (firstChildren[parent] == NONE) {
+            firstChildren[parent] = child;
+        } else {
+            nextSiblings[lastChildren[parent]] = child;
+        }
+        lastChildren[parent] = child;
+    }
+
+    /**
+     * @return the slot of an action of this plan
+     */
+    private int getSlot(MigrationAction action)
+    {
+        if (action instanceof Action && ((Action) action).getPlan() == this) {
+            return ((Action) action).slot;
+        }
+        int source = action.getSourceDocument() != null ? dictionary.getId(action.getSourceDocument())
+                : ReferenceDictionary.NOT_FOUND;
+        if (source == ReferenceDictionary.NOT_FOUND || actionsBySource[source] == NO_ACTION) {
+            throw new IllegalArgumentException(
+                    String.format("The action [%s] has not been recorded in the plan.", action));
+        }
+        return actionsBySource[source];
+    }
+
+    private MigrationAction getView(int[] actionsByReference, Object reference)
+    {
+        if (!(reference instanceof DocumentReference)) {
+            return null;
+        }
+        int id = dictionary.getId((DocumentReference) reference);
+        if (id == ReferenceDictionary.NOT_FOUND || actionsByReference[id] == NO_ACTION) {
+            return null;
+        }
+        return new Action(actionsByReference[id]);
+    }
+
+    /**
+     * View on a slot of the plan.
+     */
+    private final class Action extends MigrationAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int slot;
+
+        Action(int slot)
+        {
+            super(null, null);
+            this.slot = slot;
+        }
+
+        CompactMigrationPlanTree getPlan()
+        {
+            return CompactMigrationPlanTree.this;
+        }
+
+        @Override
+        public DocumentReference getSourceDocument()
+        {
+            return sources[slot] != NONE ? dictionary.get(sources[slot]) : null;
+        }
+
+        @Override
+        public DocumentReference getTargetDocument()
+        {
+            return targets[slot] != NONE ? dictionary.get(targets[slot]) : null;
+        }
+
+        @Override
+        public boolean shouldDeletePrevious()
+        {
+            return (flags[slot] & FLAG_DELETE_PREVIOUS) != 0;
+        }
+
+        @Override
+        public void setDeletePrevious(boolean deletePrevious)
+        {
+            setFlag(FLAG_DELETE_PREVIOUS, deletePrevious);
+        }
+
+        @Override
+        public boolean isEnabled()
+        {
+            return (flags[slot] & FLAG_ENABLED) != 0;
+        }
+
+        @Override
+        public void setEnabled(boolean enabled)
+        {
+            setFlag(FLAG_ENABLED, enabled);
+        }
+
+        private void setFlag(byte flag, boolean value)
+        {
+            if (value) {
+                flags[slot] |= flag;
+            } else {
+                flags[slot] &= ~flag;
+            }
+        }
+
+        @Override
+        public void addChild(MigrationAction action)
+        {
+            link(slot, getSlot(action));
+        }
+
+        /**
+         * @return a snapshot of the children: modifying the list has no effect on the plan
+         */
+        @Override
+        public List<MigrationAction> getChildren()
+        {
+            if (firstChildren[slot] == NONE) {
+                return Collections.emptyList();
+            }
+            List<MigrationAction> children = new ArrayList<>();
+            for (int child = firstChildren[slot]; child != NONE; child = nextSiblings[child]) {
+                children.add(new Action(child));
+            }
+            return children;
+        }
+
+        @Override
+        public int getChildCount()
+        {
+            return childCounts[slot];
+        }
+
+        @Override
+        public List<MigrationAction> getChildren(int offset, int limit)
+        {
+            List<MigrationAction> children = new ArrayList<>();
+            if (childCounts[slot] >= CHILD_INDEX_THRESHOLD) {
+                int[] index = getChildIndex();
+                for (int i = Math.max(offset, 0); i < index.length && children.size() < limit; ++i) {
+                    children.add(new Action(index[i]));
+                }
+                return children;
+            }
+
+            int child = firstChildren[slot];
+            for (int i = 0; i < offset && child != NONE; ++i) {
+                child = nextSiblings[child];
+            }
+            for (; child != NONE && children.size() < limit; child = nextSiblings[child]) {
+                children.add(new Action(child));
+            }
+            return children;
+        }
+
+        private int[] getChildIndex()
+        {
+            int[] index = childIndexes.get(slot);
+            if (index == null) {
+                index = new int[childCounts[slot]];
+                int i = 0;
+                for (int child = firstChildren[slot]; child != NONE; child = nextSiblings[child]) {
+                    index[i++] = child;
+                }
+                childIndexes.put(slot, index);
+            }
+            return index;
+        }
+
+        @Override
+        public Collection<Preference> getPreferences()
+        {
+            Collection<Preference> slotPreferences = preferences.get(slot);
+            return slotPreferences != null ? slotPreferences : Collections.<Preference>emptyList();
+        }
+
+        @Override
+        public void addPreference(Preference newPreference)
+        {
+            Collection<Preference> slotPreferences = preferences.get(slot);
+            if (slotPreferences == null) {
+                slotPreferences = new ArrayList<>();
+                preferences.put(slot, slotPreferences);
+            }
+            addPreference(slotPreferences, newPreference);
+        }
+
+        @Override
+        public Collection<Right> getRights()
+        {
+            Collection<Right> slotRights = rights.get(slot);
+            return slotRights != null ? slotRights : Collections.<Right>emptyList();
+        }
+
+        @Override
+        public void addRight(Right newRight)
+        {
+            Collection<Right> slotRights = rights.get(slot);
+            if (slotRights == null) {
+                slotRights = new ArrayList<>();
+                rights.put(slot, slotRights);
+            }
+            addRight(slotRights, newRight);
+        }
+
+        @Override
+        public boolean isIdentity()
+        {
+            return sources[slot] == targets[slot];
+        }
+    }
+
+    /**
+     * View on the actions of the plan, indexed by source document.
+     */
+    private final class ActionMap extends AbstractMap<DocumentReference, MigrationAction>
+    {
+        @Override
+        public int size()
+        {
+            return slotCount - 1;
+        }
+
+        @Override
+        public MigrationAction get(Object key)
+        {
+            return getView(actionsBySource, key);
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<DocumentReference, MigrationAction>> entrySet()
+        {
+            return new AbstractSet<Entry<DocumentReference, MigrationAction>>()
+            {
+                @Override
+                public int size()
+                {
+                    return ActionMap.this.size();
+                }
+
+                @Override
+                public Iterator<Entry<DocumentReference, MigrationAction>> iterator()
+                {
+                    return new Iterator<Entry<DocumentReference, MigrationAction>>()
+                    {
+                        private int nextSlot = TOP_LEVEL + 1;
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return nextSlot < slotCount;
+                        }
+
+                        @Override
+                        public Entry<DocumentReference, MigrationAction> next()
+                        {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            MigrationAction action = new Action(nextSlot++);
+                            return new SimpleImmutableEntry<>(action.getSourceDocument(), action);
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
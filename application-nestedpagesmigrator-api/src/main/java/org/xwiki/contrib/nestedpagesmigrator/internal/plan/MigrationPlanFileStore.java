@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.plan;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanBinarySerializer;
+import org.xwiki.environment.Environment;
+
+/**
+ * Store the migration plans in binary files of the permanent directory, one file per wiki, so that the plans waiting
+ * to be executed do not stay in memory.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = MigrationPlanFileStore.class)
+@Singleton
+public class MigrationPlanFileStore
+{
+    private static final String FOLDER = "nestedpagesmigrator/plans";
+
+    private static final String EXTENSION = ".plan";
+
+    @Inject
+    private Environment environment;
+
+    /**
+     * Write a plan to the file of its wiki, replacing the previous one.
+     *
+     * @param plan the plan to store
+     * @param configuration the configuration used to compute the plan
+     * @return the stored plan
+     * @throws MigrationException if the plan cannot be written
+     */
+    public SpilledMigrationPlan spill(MigrationPlanTree plan, MigrationConfiguration configuration)
+        throws MigrationException
+    {
+        File file = getFile(configuration.getWikiReference().getName());
+        write(plan, file);
+        return new SpilledMigrationPlan(file, plan.getActions().size(), configuration.isCompactPlan());
+    }
+
+    /**
+     * Replace a stored plan by a modified version of it.
+     *
+     * @param spilledPlan the stored plan
+     * @param plan the modified plan
+     * @return the new stored plan
+     * @throws MigrationException if the plan cannot be written
+     */
+    public SpilledMigrationPlan update(SpilledMigrationPlan spilledPlan, MigrationPlanTree plan)
+        throws MigrationException
+    {
+        write(plan, spilledPlan.getFile());
+        return new SpilledMigrationPlan(spilledPlan.getFile(), plan.getActions().size(), spilledPlan.isCompactPlan());
+    }
+
+    private void write(MigrationPlanTree plan, File file) throws MigrationException
+    {
+        file.getParentFile().mkdirs();
+        // The previous file may still be mapped in memory, so it is replaced instead of being overwritten
+        File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temporaryFile))) {
+                MigrationPlanBinarySerializer.serialize(plan, outputStream);
+            }
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temporaryFile.delete();
+            throw new MigrationException(String.format("Failed to write the plan to [%s].", file), e);
+        }
+    }
+
+    private File getFile(String wikiId) throws MigrationException
+    {
+        try {
+            return new File(new File(environment.getPermanentDirectory(), FOLDER),
+                    URLEncoder.encode(wikiId, "UTF-8") + EXTENSION);
+        } catch (UnsupportedEncodingException e) {
+            throw new MigrationException("UTF-8 is not supported.", e);
+        }
+    }
+}
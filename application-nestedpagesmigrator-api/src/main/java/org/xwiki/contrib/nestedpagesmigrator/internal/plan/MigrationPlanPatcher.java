@@ -0,0 +1,247 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.plan;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Apply the changes made by the user to a plan kept on the server, so that the whole plan does not have to be sent
+ * back. A patch is a JSON array of the changed actions, each one identified by its source document:
+ * <pre>
+ * [{"sourceDocument": "xwiki:Movies.WebHome", "enabled": false,
+ *   "preferences": [{"name": "skin", "enabled": false}],
+ *   "rights": [{"group": "xwiki:XWiki.AllGroup", "level": "edit", "enabled": false}]}]
+ * </pre>
+ * A preference is identified by its name, a right by its user or group and its level. Only the "enabled" flags can be
+ * changed. The whole patch is read before changing the plan, so an invalid patch does not modify the plan.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = MigrationPlanPatcher.class)
+@Singleton
+public class MigrationPlanPatcher
+{
+    private static final String ENABLED = "enabled";
+
+    /**
+     * The new value of the "enabled" flag of an action, a preference or a right.
+     */
+    private static final class Change
+    {
+        private final Object target;
+
+        private final boolean enabled;
+
+        Change(Object target, boolean enabled)
+        {
+            this.target = target;
+            this.enabled = enabled;
+        }
+
+        void apply()
+        {
+            if (target instanceof MigrationAction) {
+                ((MigrationAction) target).setEnabled(enabled);
+            } else if (target instanceof Preference) {
+                ((Preference) target).setEnabled(enabled);
+            } else {
+                ((Right) target).setEnabled(enabled);
+            }
+        }
+    }
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    /**
+     * Apply a patch to a plan.
+     *
+     * @param patch the JSON-serialized patch
+     * @param plan the plan to modify
+     * @param wikiReference the wiki of the plan
+     * @return the number of changes that have been applied
+     * @throws MigrationException if the patch is invalid or concerns an action that is not in the plan
+     */
+    public int apply(String patch, MigrationPlanTree plan, WikiReference wikiReference) throws MigrationException
+    {
+        JsonReader reader = new JsonReader(new StringReader(patch));
+        reader.setLenient(true);
+        List<Change> changes = new ArrayList<>();
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readActionPatch(reader, plan, wikiReference, changes);
+            }
+            reader.endArray();
+        } catch (IOException | IllegalStateException e) {
+            throw new MigrationException("Unexpected patch schema.", e);
+        }
+
+        for (Change change : changes) {
+            change.apply();
+        }
+        return changes.size();
+    }
+
+    private void readActionPatch(JsonReader reader, MigrationPlanTree plan, WikiReference wikiReference,
+            List<Change> changes) throws IOException, MigrationException
+    {
+        MigrationAction action = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("sourceDocument".equals(name)) {
+                DocumentReference sourceDocument = resolver.resolve(reader.nextString(), wikiReference);
+                action = plan.getActions().get(sourceDocument);
+                if (action == null) {
+                    throw new MigrationException(String.format("There is no action about [%s] in the plan.",
+                            sourceDocument));
+                }
+            } else if (action == null) {
+                // The source document must come first so that the changes can be applied while reading
+                throw new MigrationException("The source document of the action must come first in the patch.");
+            } else if (ENABLED.equals(name)) {
+                changes.add(new Change(action, readBoolean(reader)));
+            } else if ("preferences".equals(name)) {
+                readPreferencesPatch(reader, action, changes);
+            } else if ("rights".equals(name)) {
+                readRightsPatch(reader, action, wikiReference, changes);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readPreferencesPatch(JsonReader reader, MigrationAction action, List<Change> changes)
+        throws IOException, MigrationException
+    {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String preferenceName = null;
+            Boolean enabled = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("name".equals(name)) {
+                    preferenceName = reader.nextString();
+                } else if (ENABLED.equals(name)) {
+                    enabled = readBoolean(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            Preference preference = getPreference(action, preferenceName);
+            if (enabled != null) {
+                changes.add(new Change(preference, enabled));
+            }
+        }
+        reader.endArray();
+    }
+
+    private Preference getPreference(MigrationAction action, String name) throws MigrationException
+    {
+        for (Preference preference : action.getPreferences()) {
+            if (preference.getName().equals(name)) {
+                return preference;
+            }
+        }
+        throw new MigrationException(String.format("There is no preference [%s] on [%s].", name,
+                action.getSourceDocument()));
+    }
+
+    private void readRightsPatch(JsonReader reader, MigrationAction action, WikiReference wikiReference,
+            List<Change> changes) throws IOException, MigrationException
+    {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            DocumentReference user = null;
+            DocumentReference group = null;
+            String level = null;
+            Boolean enabled = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("user".equals(name)) {
+                    user = resolver.resolve(reader.nextString(), wikiReference);
+                } else if ("group".equals(name)) {
+                    group = resolver.resolve(reader.nextString(), wikiReference);
+                } else if ("level".equals(name)) {
+                    level = reader.nextString();
+                } else if (ENABLED.equals(name)) {
+                    enabled = readBoolean(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            Right right = getRight(action, new Right(user, user != null ? null : group, level, false, null));
+            if (enabled != null) {
+                changes.add(new Change(right, enabled));
+            }
+        }
+        reader.endArray();
+    }
+
+    private Right getRight(MigrationAction action, Right concern) throws MigrationException
+    {
+        for (Right right : action.getRights()) {
+            if (right.hasSameConcern(concern)) {
+                return right;
+            }
+        }
+        throw new MigrationException(String.format("There is no right like %s on [%s].", concern,
+                action.getSourceDocument()));
+    }
+
+    private boolean readBoolean(JsonReader reader) throws IOException
+    {
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return reader.nextBoolean();
+        }
+        return Boolean.parseBoolean(reader.nextString());
+    }
+}
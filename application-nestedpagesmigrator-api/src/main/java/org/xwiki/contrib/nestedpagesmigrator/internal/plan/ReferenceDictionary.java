@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.plan;
+
+import java.util.Arrays;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Give a stable int identifier to each different document reference, so that the references can be stored in
+ * primitive arrays. Each reference is kept only once, whatever the number of times it is recorded. The identifiers
+ * are allocated from 0 in the order the references are recorded; the lookup uses an open addressing table.
+ * <p>
+ * Not thread-safe.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class ReferenceDictionary
+{
+    /**
+     * Identifier returned when a reference is not in the dictionary.
+     */
+    public static final int NOT_FOUND = -1;
+
+    /**
+     * Value of the empty slots of the table. The slots store the identifiers plus one.
+     */
+    private static final int EMPTY = 0;
+
+    private DocumentReference[] references = new DocumentReference[1024];
+
+    /**
+     * Hash of each reference, to avoid computing it again when the table is resized.
+     */
+    private int[] hashes = new int[1024];
+
+    private int[] table = new int[2048];
+
+    private int size;
+
+    /**
+     * @param reference a document reference
+     * @return the identifier of the reference, recorded if it was not in the dictionary yet
+     */
+    public int add(DocumentReference reference)
+    {
+        int hash = hash(reference);
+        int id = getId(reference, hash);
+        if (id != NOT_FOUND) {
+            return id;
+        }
+
+        if (size == references.length) {
+            references = Arrays.copyOf(references, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        // Keep the load factor under 0.5
+        if (2 * (size + 1) > table.length) {
+            resize(table.length * 2);
+        }
+        id = size++;
+        references[id] = reference;
+        hashes[id] = hash;
+        insert(table, hash, id);
+        return id;
+    }
+
+    /**
+     * @param reference a document reference
+     * @return the identifier of the reference, or {@link #NOT_FOUND} if it is not in the dictionary
+     */
+    public int getId(DocumentReference reference)
+    {
+        return getId(reference, hash(reference));
+    }
+
+    private int getId(DocumentReference reference, int hash)
+    {
+        int mask = table.length - 1;
+        for (int i = hash & mask;; i = (i + 1) & mask) {
+            if (table[i] == EMPTY) {
+                return NOT_FOUND;
+            }
+            int id = table[i] - 1;
+            if (hashes[id] == hash && references[id].equals(reference)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * @param id the identifier of a reference
+     * @return the reference
+     */
+    public DocumentReference get(int id)
+    {
+        return references[id];
+    }
+
+    /**
+     * @return the number of references in the dictionary
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    private void resize(int capacity)
+    {
+        int[] newTable = new int[capacity];
+        for (int id = 0; id < size; ++id) {
+            insert(newTable, hashes[id], id);
+        }
+        table = newTable;
+    }
+
+    private static void insert(int[] table, int hash, int id)
+    {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = id + 1;
+    }
+
+    /**
+     * Spread the higher bits of the hash code, since only the lower ones are used to find a slot.
+     */
+    private static int hash(DocumentReference reference)
+    {
+        int hash = reference.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+}
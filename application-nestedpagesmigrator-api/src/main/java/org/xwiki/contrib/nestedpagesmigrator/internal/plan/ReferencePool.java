@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.plan;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+
+/**
+ * Keep a single instance of each wiki, space and document reference used while computing a plan. The references
+ * returned by the pool share their parents, so the plan does not hold a copy of the whole space chain for each
+ * document, and comparing two references of the pool stops at the first step when they are the same instance.
+ * The references of the pool are looked up by instance, and the other ones by name, walking down from the closest
+ * ancestor of the pool, so that getting a reference never needs to compute the hash code of a reference (which walks
+ * the whole space chain). The space chain is walked without recursion, since the spaces can be nested very deeply.
+ * <p>
+ * The pool counts the references requested and the references created, to measure its effect. Not thread-safe.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class ReferencePool
+{
+    private static final String SPACE_HOME = "WebHome";
+
+    private static final String SPACE_PREFERENCES = "WebPreferences";
+
+    /**
+     * A wiki or a space of the pool, with its children.
+     */
+    private static final class Node
+    {
+        private final EntityReference reference;
+
+        private final Map<String, Node> spaces = new HashMap<>();
+
+        private final Map<String, DocumentReference> documents = new HashMap<>();
+
+        Node(EntityReference reference)
+        {
+            this.reference = reference;
+        }
+    }
+
+    /**
+     * The wikis of the pool, by name.
+     */
+    private final Map<String, Node> wikis = new HashMap<>();
+
+    /**
+     * The wikis and spaces of the pool, by instance of their reference.
+     */
+    private final Map<EntityReference, Node> nodes = new IdentityHashMap<>();
+
+    private long requestCount;
+
+    private long createdCount;
+
+    /**
+     * @param space the reference of a space
+     * @return the instance of the pool equal to the given space
+     */
+    public SpaceReference getSpace(EntityReference space)
+    {
+        requestCount++;
+        return (SpaceReference) getNode(space).reference;
+    }
+
+    /**
+     * @param name the name of a space
+     * @param parent the parent of the space (a wiki or a space)
+     * @return the instance of the pool of the space with the given name under the given parent
+     */
+    public SpaceReference getSpace(String name, EntityReference parent)
+    {
+        requestCount++;
+        return (SpaceReference) getSpaceNode(name, getNode(parent)).reference;
+    }
+
+    /**
+     * @param name the name of a document
+     * @param space the space of the document
+     * @return the instance of the pool of the document with the given name in the given space
+     */
+    public DocumentReference getDocument(String name, EntityReference space)
+    {
+        requestCount++;
+        Node spaceNode = getNode(space);
+        DocumentReference document = spaceNode.documents.get(name);
+        if (document == null) {
+            document = new DocumentReference(name, (SpaceReference) spaceNode.reference);
+            spaceNode.documents.put(name, document);
+            createdCount++;
+        }
+        return document;
+    }
+
+    /**
+     * @param document the reference of a document
+     * @return the instance of the pool equal to the given document, or the document itself when it has a locale
+     */
+    public DocumentReference getDocument(DocumentReference document)
+    {
+        if (document.getLocale() != null) {
+            return document;
+        }
+        return getDocument(document.getName(), document.getLastSpaceReference());
+    }
+
+    /**
+     * @param space the reference of a space
+     * @return the instance of the pool of the home page of the space
+     */
+    public DocumentReference getWebHome(EntityReference space)
+    {
+        return getDocument(SPACE_HOME, space);
+    }
+
+    /**
+     * @param space the reference of a space
+     * @return the instance of the pool of the preferences page of the space
+     */
+    public DocumentReference getWebPreferences(EntityReference space)
+    {
+        return getDocument(SPACE_PREFERENCES, space);
+    }
+
+    /**
+     * @return the number of references requested to the pool
+     */
+    public long getRequestCount()
+    {
+        return requestCount;
+    }
+
+    /**
+     * @return the number of references created by the pool, i.e. the number of different references requested
+     */
+    public long getCreatedCount()
+    {
+        return createdCount;
+    }
+
+    private Node getSpaceNode(String name, Node parentNode)
+    {
+        Node node = parentNode.spaces.get(name);
+        if (node == null) {
+            node = new Node(new SpaceReference(name, parentNode.reference));
+            parentNode.spaces.put(name, node);
+            nodes.put(node.reference, node);
+            createdCount++;
+        }
+        return node;
+    }
+
+    private Node getNode(EntityReference reference)
+    {
+        // Most of the references are either in the pool or the child of a reference of the pool
+        Node node = nodes.get(reference);
+        if (node != null) {
+            return node;
+        }
+        if (reference.getType() == EntityType.SPACE) {
+            Node parentNode = nodes.get(reference.getParent());
+            if (parentNode != null) {
+                return getSpaceNode(reference.getName(), parentNode);
+            }
+        }
+
+        // Walk up to the closest ancestor of the pool, then down to the reference
+        Deque<String> names = new ArrayDeque<>();
+        EntityReference current = reference;
+        while (node == null && current.getType() == EntityType.SPACE) {
+            names.push(current.getName());
+            current = current.getParent();
+            node = nodes.get(current);
+        }
+        if (node == null) {
+            node = getWikiNode(current);
+        }
+        while (!names.isEmpty()) {
+            node = getSpaceNode(names.pop(), node);
+        }
+        return node;
+    }
+
+    private Node getWikiNode(EntityReference wiki)
+    {
+        Node node = wikis.get(wiki.getName());
+        if (node == null) {
+            node = new Node(new WikiReference(wiki));
+            wikis.put(wiki.getName(), node);
+            nodes.put(node.reference, node);
+            createdCount++;
+        }
+        return node;
+    }
+}
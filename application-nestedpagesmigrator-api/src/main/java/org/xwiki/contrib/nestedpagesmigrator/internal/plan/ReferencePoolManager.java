@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.plan;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+/**
+ * Give the {@link ReferencePool} of the current job, so that all the planners working for a job share the same
+ * references. The pool is stored in the execution context, which is created for each job and disposed at its end.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+@Component(roles = ReferencePoolManager.class)
+@Singleton
+public class ReferencePoolManager
+{
+    private static final String PROPERTY_NAME = "npmig.referencePool";
+
+    @Inject
+    private Execution execution;
+
+    /**
+     * @return the pool of the current job, or a new pool if there is no execution context
+     */
+    public ReferencePool getPool()
+    {
+        ExecutionContext context = execution.getContext();
+        if (context == null) {
+            return new ReferencePool();
+        }
+
+        ReferencePool pool = (ReferencePool) context.getProperty(PROPERTY_NAME);
+        if (pool == null) {
+            pool = new ReferencePool();
+            context.setProperty(PROPERTY_NAME, pool);
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.plan;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanBinaryDeserializer;
+
+/**
+ * A migration plan stored in a binary file by {@link MigrationPlanFileStore}, instead of being kept in memory. The
+ * plan cannot be read partially: reading it decodes the whole file into a {@link MigrationPlanTree}.
+ * <p>
+ * The decoded plan is kept behind a soft reference, so that the successive reads of the plan (the UI displays it page
+ * by page) do not decode the whole file each time, while the garbage collector can still reclaim it when the memory is
+ * needed, in which case the next read decodes the file again. The trade-off is that, as long as it is cached, the
+ * decoded plan is shared by all the readers, like a plan kept in memory: a modification of the plan is seen by the
+ * next reads even before it is stored with {@link MigrationPlanFileStore#update}. Since updating the file creates a
+ * new instance, the cache never holds a plan older than the file.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class SpilledMigrationPlan
+{
+    private final File file;
+
+    private final int actionCount;
+
+    private final boolean compactPlan;
+
+    private volatile SoftReference<MigrationPlanTree> cachedPlan;
+
+    /**
+     * Construct a new SpilledMigrationPlan.
+     *
+     * @param file the file containing the plan
+     * @param actionCount the number of actions of the plan
+     * @param compactPlan if the plan must be loaded in the compact representation
+     */
+    public SpilledMigrationPlan(File file, int actionCount, boolean compactPlan)
+    {
+        this.file = file;
+        this.actionCount = actionCount;
+        this.compactPlan = compactPlan;
+    }
+
+    /**
+     * @return the file containing the plan
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the number of actions of the plan
+     */
+    public int getActionCount()
+    {
+        return actionCount;
+    }
+
+    /**
+     * @return if the plan is loaded in the compact representation
+     */
+    public boolean isCompactPlan()
+    {
+        return compactPlan;
+    }
+
+    /**
+     * Read the plan. The whole file is decoded, but it is mapped in memory instead of being copied in the heap first.
+     * The plan is decoded again only when the previously decoded plan has been reclaimed by the garbage collector.
+     *
+     * @return the plan
+     * @throws MigrationException if the file cannot be read
+     */
+    public MigrationPlanTree load() throws MigrationException
+    {
+        SoftReference<MigrationPlanTree> reference = cachedPlan;
+        MigrationPlanTree plan = reference != null ? reference.get() : null;
+        if (plan != null) {
+            return plan;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            plan = MigrationPlanBinaryDeserializer.deserialize(buffer, compactPlan);
+            cachedPlan = new SoftReference<>(plan);
+            return plan;
+        } catch (IOException e) {
+            throw new MigrationException(String.format("Failed to read the plan stored in [%s].", file), e);
+        }
+    }
+
+    /**
+     * Delete the file containing the plan.
+     *
+     * @return true if the file has been deleted
+     */
+    public boolean delete()
+    {
+        cachedPlan = null;
+        return file.delete();
+    }
+}
@@ -32,6 +32,8 @@ import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePool;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePoolManager;
 import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
@@ -57,12 +59,17 @@ public class PreferencesMigrationPlanCreator
     @Inject
     private JobProgressManager progressManager;
 
+    @Inject
+    private ReferencePoolManager referencePoolManager;
+
     private Collection<String> properties;
 
     private DocumentReference classReference;
 
     private MigrationPlanTree plan;
 
+    private ReferencePool referencePool;
+
     /**
      * Handle the conversion of the preferences.
      *
@@ -75,6 +82,7 @@ public class PreferencesMigrationPlanCreator
             throws MigrationException
     {
         this.plan = plan;
+        referencePool = referencePoolManager.getPool();
         classReference = new DocumentReference(configuration.getWikiReference().getName(), "XWiki", "XWikiPreferences");
         properties = preferencesPropertiesGetter.getPreferencesProperties();
 
@@ -123,8 +131,7 @@ public class PreferencesMigrationPlanCreator
         if (!"WebHome".equals(documentReference.getName())) {
             return false;
         }
-        DocumentReference webPreferences
-                = new DocumentReference("WebPreferences", documentReference.getLastSpaceReference());
+        DocumentReference webPreferences = referencePool.getWebPreferences(documentReference.getLastSpaceReference());
         return !isNull(documentAccessBridge.getProperty(webPreferences, classReference, property));
     }
 
@@ -151,14 +158,14 @@ public class PreferencesMigrationPlanCreator
      */
     private Preference getPreferenceValue(SpaceReference space, String propertyName)
     {
-        DocumentReference webPreferences = new DocumentReference("WebPreferences", space);
+        DocumentReference webPreferences = referencePool.getWebPreferences(space);
         Object value = documentAccessBridge.getProperty(webPreferences, classReference, propertyName);
 
         if (isNull(value)) {
             // Fallback to the parent space
             EntityReference spaceParent = webPreferences.getLastSpaceReference().getParent();
             if (spaceParent.getType() == EntityType.SPACE) {
-                return getPreferenceValue(new SpaceReference(spaceParent), propertyName);
+                return getPreferenceValue(referencePool.getSpace(spaceParent), propertyName);
             } else if (spaceParent.getType() == EntityType.WIKI) {
                 return new Preference(propertyName,
                         documentAccessBridge.getProperty(classReference, classReference, propertyName), classReference);
@@ -191,8 +198,7 @@ public class PreferencesMigrationPlanCreator
         }
 
         // Get the value for the WebPreferences page of the target document
-        DocumentReference webPreferences
-                = new DocumentReference("WebPreferences", targetDocument.getLastSpaceReference());
+        DocumentReference webPreferences = referencePool.getWebPreferences(targetDocument.getLastSpaceReference());
         Object value = documentAccessBridge.getProperty(webPreferences, classReference, propertyName);
 
         // If the value is null, we must explore the parents, to get inherited preferences
@@ -201,7 +207,7 @@ public class PreferencesMigrationPlanCreator
             EntityReference spaceParent = webPreferences.getLastSpaceReference().getParent();
             if (spaceParent.getType() == EntityType.SPACE) {
                 // If the parent is a space, we get the document parent
-                DocumentReference parent = new DocumentReference("WebHome", new SpaceReference(spaceParent));
+                DocumentReference parent = referencePool.getWebHome(spaceParent);
                 // And we get the value from this parent
                 value = getPreferenceValueAfter(parent, propertyName);
             } else if (spaceParent.getType() == EntityType.WIKI) {
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.query;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+
+/**
+ * Read the results of a query ordered by {@code doc.fullName} page by page, using the last full name that has been
+ * read as the lower bound of the next page (keyset pagination). Unlike offset-based pagination, the cost of each page
+ * does not depend on how far we are in the results, and the memory needed is bounded by the size of a page.
+ * <p>
+ * Two queries are needed: the first one returns the first page, the second one must be the same query with an
+ * additional {@code doc.fullName > :lastFullName} condition (see {@link #KEY_PARAMETER}). We don't use a single query
+ * bound to an empty string because some databases (Oracle) consider an empty string as null.
+ * <p>
+ * Each row returned by the queries must either be the full name of a document, or an array whose first column is the
+ * full name of a document.
+ *
+ * @param <T> the type of the rows returned by the queries
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public class KeysetPagedQuery<T>
+{
+    /**
+     * Name of the parameter holding the last full name of the previous page.
+     */
+    public static final String KEY_PARAMETER = "lastFullName";
+
+    /**
+     * Condition to add to the query used to get the next pages.
+     */
+    public static final String KEY_CONDITION = "doc.fullName > :" + KEY_PARAMETER;
+
+    private final Query firstPageQuery;
+
+    private final Query nextPagesQuery;
+
+    private final int pageSize;
+
+    private String lastKey;
+
+    private boolean finished;
+
+    /**
+     * Construct a new KeysetPagedQuery.
+     *
+     * @param firstPageQuery the query returning the first page
+     * @param nextPagesQuery the query returning the next pages, having the {@link #KEY_CONDITION}
+     * @param pageSize the maximum number of rows to read at once
+     */
+    public KeysetPagedQuery(Query firstPageQuery, Query nextPagesQuery, int pageSize)
+    {
+        this.firstPageQuery = firstPageQuery;
+        this.nextPagesQuery = nextPagesQuery;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return the next page of results, or an empty list when all results have been read
+     * @throws QueryException if the query fails
+     */
+    public List<T> nextPage() throws QueryException
+    {
+        if (finished) {
+            return Collections.emptyList();
+        }
+
+        Query query;
+        if (lastKey == null) {
+            query = firstPageQuery;
+        } else {
+            query = nextPagesQuery;
+            query.bindValue(KEY_PARAMETER, lastKey);
+        }
+        query.setLimit(pageSize);
+
+        List<T> results = query.execute();
+
+        // A page that is not full is necessarily the last one
+        if (results == null || results.size() < pageSize) {
+            finished = true;
+        }
+        if (results == null || results.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        lastKey = getKey(results.get(results.size() - 1));
+        return results;
+    }
+
+    private String getKey(Object row)
+    {
+        if (row instanceof Object[]) {
+            return (String) ((Object[]) row)[0];
+        }
+        return (String) row;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.query;
+
+/**
+ * Condition matching the documents of a space and of its sub-spaces. The serialized name of the space is used as a
+ * prefix in a {@code like} condition, so its wildcards ({@code %} and {@code _}) must be escaped, otherwise the space
+ * {@code Dev_Docs} would also match the documents of {@code DevXDocs}. An explicit escape character is declared since
+ * the default one depends on the database: MySQL and PostgreSQL use {@code \}, which would make the escaped dots of a
+ * space name (such as {@code A\.B}) match any character instead of a backslash.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public final class SpacePrefixCondition
+{
+    /**
+     * Condition on {@code doc.space}, expecting the name of the space in the {@code space} parameter and the result
+     * of {@link #getPattern(String)} in the {@code spacePrefix} parameter.
+     */
+    public static final String CONDITION =
+            "(doc.space = :space or doc.space like :spacePrefix escape '" + SpacePrefixCondition.ESCAPE + "')";
+
+    private static final char ESCAPE = '!';
+
+    private SpacePrefixCondition()
+    {
+    }
+
+    /**
+     * @param space the serialized local name of a space
+     * @return the pattern matching the names of the sub-spaces of the given space
+     */
+    public static String getPattern(String space)
+    {
+        StringBuilder pattern = new StringBuilder(space.length() + 2);
+        for (int i = 0; i < space.length(); i++) {
+            char c = space.charAt(i);
+            if (c == ESCAPE || c == '%' || c == '_') {
+                pattern.append(ESCAPE);
+            }
+            pattern.append(c);
+        }
+        return pattern.append(".%").toString();
+    }
+}
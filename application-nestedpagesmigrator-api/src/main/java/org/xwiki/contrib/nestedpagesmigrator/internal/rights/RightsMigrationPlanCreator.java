@@ -32,6 +32,8 @@ import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePool;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePoolManager;
 import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
@@ -54,6 +56,9 @@ public class RightsMigrationPlanCreator
     @Inject
     private DocumentRightsBridge documentRightsBridge;
 
+    @Inject
+    private ReferencePoolManager referencePoolManager;
+
     /**
      * Handle the conversion of the rights.
      *
@@ -65,19 +70,21 @@ public class RightsMigrationPlanCreator
     {
         // TODO: when "allow" is given to some people, it denies all the others!!!!!
 
+        ReferencePool referencePool = referencePoolManager.getPool();
         progressManager.pushLevelProgress(plan.getActions().size(), this);
         for (MigrationAction action : plan.getTopLevelAction().getChildren()) {
-            convertRights(action, plan);
+            convertRights(action, plan, referencePool);
         }
         progressManager.popLevelProgress(this);
     }
 
-    private void convertRights(MigrationAction action, MigrationPlanTree plan) throws MigrationException
+    private void convertRights(MigrationAction action, MigrationPlanTree plan, ReferencePool referencePool)
+        throws MigrationException
     {
         progressManager.startStep(this);
 
-        Collection<Right> oldRights = getRightsFromHierarchy(action.getSourceDocument(), null);
-        Collection<Right> newRights = getRightsFromHierarchy(action.getTargetDocument(), plan);
+        Collection<Right> oldRights = getRightsFromHierarchy(action.getSourceDocument(), null, referencePool);
+        Collection<Right> newRights = getRightsFromHierarchy(action.getTargetDocument(), plan, referencePool);
 
         // Preserve all old rights
         for (Right oldRight : oldRights) {
@@ -119,34 +126,34 @@ public class RightsMigrationPlanCreator
 
         // Convert children too
         for (MigrationAction child : action.getChildren()) {
-            convertRights(child, plan);
+            convertRights(child, plan, referencePool);
         }
     }
 
-    private Collection<Right> getRightsFromHierarchy(DocumentReference documentReference, MigrationPlanTree plan)
-        throws MigrationException
+    private Collection<Right> getRightsFromHierarchy(DocumentReference documentReference, MigrationPlanTree plan,
+        ReferencePool referencePool) throws MigrationException
     {
         Collection<Right> rights = new ArrayList<>();
-        getRightsFromHierarchy(documentReference.getLastSpaceReference(), rights, plan);
+        getRightsFromHierarchy(documentReference.getLastSpaceReference(), rights, plan, referencePool);
         return rights;
     }
 
-    private void getRightsFromHierarchy(SpaceReference spaceReference, Collection<Right> rights, MigrationPlanTree plan)
-            throws MigrationException
+    private void getRightsFromHierarchy(SpaceReference spaceReference, Collection<Right> rights, MigrationPlanTree plan,
+            ReferencePool referencePool) throws MigrationException
     {
         if (plan != null) {
-            MigrationAction action = plan.getActionWithTarget(new DocumentReference("WebHome", spaceReference));
+            MigrationAction action = plan.getActionWithTarget(referencePool.getWebHome(spaceReference));
             if (action != null) {
                 addRightsIfNotSameConcern(action.getRights(), rights);
             }
         }
 
-        getRightsFromDocument(new DocumentReference("WebPreferences", spaceReference), rights);
+        getRightsFromDocument(referencePool.getWebPreferences(spaceReference), rights);
 
         // Now parse the parent
         EntityReference spaceParent = spaceReference.getParent();
         if (spaceParent.getType() == EntityType.SPACE) {
-            getRightsFromHierarchy(new SpaceReference(spaceParent), rights, plan);
+            getRightsFromHierarchy(referencePool.getSpace(spaceParent), rights, plan, referencePool);
         } else if (spaceParent.getType() == EntityType.WIKI) {
             DocumentReference wikiPreferences = new DocumentReference(spaceReference.getWikiReference().getName(),
                     "XWiki", "XWikiPreferences");
@@ -0,0 +1,331 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.zip.GZIPInputStream;
+
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.contrib.nestedpagesmigrator.TargetReference;
+import org.xwiki.contrib.nestedpagesmigrator.TargetState;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.CompactMigrationPlanTree;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+
+/**
+ * Read a migration plan written by {@link MigrationPlanBinarySerializer}. The references are rebuilt from the table
+ * of the references, so the references of the plan share their parents, and no resolver is needed.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public final class MigrationPlanBinaryDeserializer
+{
+    /**
+     * The maximum size of a decompressed plan, so that a small malicious file cannot exhaust the memory.
+     */
+    private static final int MAX_DECOMPRESSED_SIZE = 512 * 1024 * 1024;
+
+    private static final String CORRUPTED = "The binary plan is truncated or corrupted.";
+
+    /**
+     * An action whose children are being read.
+     */
+    private static final class Frame
+    {
+        private final MigrationAction action;
+
+        private int remainingChildren;
+
+        Frame(MigrationAction action, int remainingChildren)
+        {
+            this.action = action;
+            this.remainingChildren = remainingChildren;
+        }
+    }
+
+    private final ByteBuffer buffer;
+
+    private String[] strings;
+
+    private EntityReference[] references;
+
+    private MigrationPlanBinaryDeserializer(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Read a binary plan, from the current position of the buffer.
+     *
+     * @param buffer the buffer containing the plan (it can be a mapped file)
+     * @param compactPlan if the plan must be stored in the compact representation
+     * @return the plan
+     * @throws MigrationException if the buffer does not contain a valid plan
+     */
+    public static MigrationPlanTree deserialize(ByteBuffer buffer, boolean compactPlan) throws MigrationException
+    {
+        MigrationPlanTree plan = compactPlan ? new CompactMigrationPlanTree() : new MigrationPlanTree();
+        try {
+            new MigrationPlanBinaryDeserializer(buffer).read(plan);
+        } catch (BufferUnderflowException | ClassCastException | IndexOutOfBoundsException | IllegalArgumentException
+            | IllegalStateException | NegativeArraySizeException | NullPointerException e) {
+            // The values read are checked, but the plan is rebuilt with the model APIs which have their own checks
+            throw new MigrationException(CORRUPTED, e);
+        }
+        return plan;
+    }
+
+    /**
+     * Read a binary plan, compressed with gzip or not.
+     *
+     * @param data the serialized plan
+     * @param compactPlan if the plan must be stored in the compact representation
+     * @return the plan
+     * @throws MigrationException if the data does not contain a valid plan
+     */
+    public static MigrationPlanTree deserialize(byte[] data, boolean compactPlan) throws MigrationException
+    {
+        byte[] bytes = data;
+        if (isCompressed(data)) {
+            try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(data))) {
+                ByteArrayOutputStream outputStream =
+                        new ByteArrayOutputStream((int) Math.min(data.length * 4L, MAX_DECOMPRESSED_SIZE));
+                byte[] chunk = new byte[8192];
+                int read;
+                while ((read = inputStream.read(chunk)) != -1) {
+                    if (outputStream.size() > MAX_DECOMPRESSED_SIZE - read) {
+                        throw new MigrationException(String.format(
+                                "The decompressed binary plan is bigger than the limit of [%s] bytes.",
+                                MAX_DECOMPRESSED_SIZE));
+                    }
+                    outputStream.write(chunk, 0, read);
+                }
+                bytes = outputStream.toByteArray();
+            } catch (IOException e) {
+                throw new MigrationException("Failed to decompress the binary plan.", e);
+            }
+        }
+        return deserialize(ByteBuffer.wrap(bytes), compactPlan);
+    }
+
+    /**
+     * @param data some data
+     * @return if the data is a binary plan (compressed or not)
+     */
+    public static boolean isBinaryPlan(byte[] data)
+    {
+        return isCompressed(data)
+                || data.length >= 4 && ByteBuffer.wrap(data).getInt() == MigrationPlanBinarySerializer.MAGIC;
+    }
+
+    private static boolean isCompressed(byte[] data)
+    {
+        return data.length >= 2 && (data[0] & 0xFF | (data[1] & 0xFF) << 8) == GZIPInputStream.GZIP_MAGIC;
+    }
+
+    private void read(MigrationPlanTree plan) throws MigrationException
+    {
+        if (buffer.getInt() != MigrationPlanBinarySerializer.MAGIC
+                || buffer.get() != MigrationPlanBinarySerializer.VERSION) {
+            throw new MigrationException("Unexpected binary plan format.");
+        }
+
+        strings = new String[readLength()];
+        for (int i = 0; i < strings.length; ++i) {
+            byte[] bytes = new byte[readLength()];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        references = new EntityReference[readLength()];
+        for (int i = 0; i < references.length; ++i) {
+            byte type = buffer.get();
+            String name = readString();
+            // A reference can only have a parent written before it
+            EntityReference parent = readReference(i);
+            if (type == MigrationPlanBinarySerializer.TYPE_WIKI) {
+                references[i] = new WikiReference(name);
+            } else if (type == MigrationPlanBinarySerializer.TYPE_SPACE && parent != null
+                    && !(parent instanceof DocumentReference)) {
+                references[i] = new SpaceReference(name, parent);
+            } else if (type == MigrationPlanBinarySerializer.TYPE_DOCUMENT && parent instanceof SpaceReference) {
+                references[i] = new DocumentReference(name, (SpaceReference) parent);
+            } else {
+                throw new MigrationException(CORRUPTED);
+            }
+        }
+
+        // The tree is read without recursion, since the parent chains can be very long
+        Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(plan.getTopLevelAction(), readLength()));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.remainingChildren == 0) {
+                stack.pop();
+                continue;
+            }
+            frame.remainingChildren--;
+            MigrationAction action = readAction(frame.action, plan);
+            int childCount = readLength();
+            if (childCount > 0) {
+                stack.push(new Frame(action, childCount));
+            }
+        }
+    }
+
+    private MigrationAction readAction(MigrationAction parentAction, MigrationPlanTree plan)
+        throws MigrationException
+    {
+        DocumentReference sourceDocument = readDocument();
+        DocumentReference targetDocument = readDocument();
+        if (sourceDocument == null || targetDocument == null) {
+            throw new MigrationException(CORRUPTED);
+        }
+        byte flags = buffer.get();
+
+        boolean deletePrevious = (flags & MigrationPlanBinarySerializer.FLAG_DELETE_PREVIOUS) != 0;
+        boolean enabled = (flags & MigrationPlanBinarySerializer.FLAG_ENABLED) != 0;
+        TargetReference targetReference =
+                new TargetReference(targetDocument, deletePrevious ? TargetState.DUPLICATE : TargetState.FREE);
+        MigrationAction action =
+                MigrationAction.createInstance(sourceDocument, targetReference, parentAction, plan, enabled);
+
+        if ((flags & MigrationPlanBinarySerializer.FLAG_PREFERENCES) != 0) {
+            for (int count = readLength(); count > 0; --count) {
+                String name = readString();
+                Object value = readValue();
+                DocumentReference origin = readDocument();
+                action.addPreference(new Preference(name, value, origin, buffer.get() != 0));
+            }
+        }
+        if ((flags & MigrationPlanBinarySerializer.FLAG_RIGHTS) != 0) {
+            for (int count = readLength(); count > 0; --count) {
+                DocumentReference user = readDocument();
+                DocumentReference group = readDocument();
+                int level = readIndex(strings.length + 1);
+                boolean allow = buffer.get() != 0;
+                DocumentReference origin = readDocument();
+                action.addRight(new Right(user, group,
+                        level != MigrationPlanBinarySerializer.NO_STRING ? strings[level - 1] : null, allow, origin,
+                        buffer.get() != 0));
+            }
+        }
+
+        return action;
+    }
+
+    private Object readValue() throws MigrationException
+    {
+        byte type = buffer.get();
+        if (type == MigrationPlanBinarySerializer.VALUE_STRING) {
+            return readString();
+        } else if (type == MigrationPlanBinarySerializer.VALUE_INTEGER) {
+            return (int) unZigZag(readVarLong());
+        } else if (type == MigrationPlanBinarySerializer.VALUE_LONG) {
+            return unZigZag(readVarLong());
+        }
+        return null;
+    }
+
+    private String readString() throws MigrationException
+    {
+        return strings[readIndex(strings.length)];
+    }
+
+    private DocumentReference readDocument() throws MigrationException
+    {
+        EntityReference reference = readReference(references.length);
+        if (reference != null && !(reference instanceof DocumentReference)) {
+            throw new MigrationException(CORRUPTED);
+        }
+        return (DocumentReference) reference;
+    }
+
+    /**
+     * @param count the number of references that can be referred to
+     */
+    private EntityReference readReference(int count) throws MigrationException
+    {
+        int id = readIndex(count + 1);
+        return id != MigrationPlanBinarySerializer.NO_REFERENCE ? references[id - 1] : null;
+    }
+
+    /**
+     * @param size the size of the table the index refers to
+     * @return an index of the table
+     */
+    private int readIndex(int size) throws MigrationException
+    {
+        long index = readVarLong();
+        if (index < 0 || index >= size) {
+            throw new MigrationException(CORRUPTED);
+        }
+        return (int) index;
+    }
+
+    /**
+     * @return the number of elements or of bytes that follow, which cannot be more than the remaining bytes since each
+     * element takes at least one byte
+     */
+    private int readLength() throws MigrationException
+    {
+        long length = readVarLong();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new MigrationException(CORRUPTED);
+        }
+        return (int) length;
+    }
+
+    private long readVarLong() throws MigrationException
+    {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift >= Long.SIZE) {
+                throw new MigrationException(CORRUPTED);
+            }
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
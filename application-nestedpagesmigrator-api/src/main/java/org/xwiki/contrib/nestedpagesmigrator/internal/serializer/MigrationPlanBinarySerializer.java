@@ -0,0 +1,350 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Serialize a migration plan to a compact binary form: a table of the strings, a table of the references (each one
+ * pointing to its parent), then the actions of the tree in depth-first order, all integers being written as varints.
+ * Each string and each reference is written only once, whatever the number of actions using it. See
+ * {@link MigrationPlanBinaryDeserializer} for the reverse operation.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public final class MigrationPlanBinarySerializer
+{
+    /**
+     * First bytes of a binary plan ("NPMP").
+     */
+    static final int MAGIC = 0x4E504D50;
+
+    static final byte VERSION = 1;
+
+    static final byte TYPE_WIKI = 0;
+
+    static final byte TYPE_SPACE = 1;
+
+    static final byte TYPE_DOCUMENT = 2;
+
+    static final byte FLAG_ENABLED = 1;
+
+    static final byte FLAG_DELETE_PREVIOUS = 2;
+
+    static final byte FLAG_PREFERENCES = 4;
+
+    static final byte FLAG_RIGHTS = 8;
+
+    static final byte VALUE_NULL = 0;
+
+    static final byte VALUE_STRING = 1;
+
+    static final byte VALUE_INTEGER = 2;
+
+    static final byte VALUE_LONG = 3;
+
+    /**
+     * Value written for a missing reference (the identifiers of the references are written plus one).
+     */
+    static final int NO_REFERENCE = 0;
+
+    /**
+     * Value written for a missing level of a right (the identifiers of the levels are written plus one).
+     */
+    static final int NO_STRING = 0;
+
+    private final Map<String, Integer> stringIds = new HashMap<>();
+
+    private final List<String> strings = new ArrayList<>();
+
+    private final Map<EntityReference, Integer> referenceIds = new HashMap<>();
+
+    private final List<EntityReference> references = new ArrayList<>();
+
+    private final DataOutputStream output;
+
+    private MigrationPlanBinarySerializer(OutputStream outputStream)
+    {
+        this.output = new DataOutputStream(outputStream);
+    }
+
+    /**
+     * Serialize the migration plan. The stream is flushed but not closed.
+     *
+     * @param planTree plan to serialize
+     * @param outputStream the stream where to write the plan
+     * @throws IOException if the plan cannot be written
+     */
+    public static void serialize(MigrationPlanTree planTree, OutputStream outputStream) throws IOException
+    {
+        new MigrationPlanBinarySerializer(outputStream).write(planTree);
+    }
+
+    /**
+     * Serialize the migration plan, optionally compressed with gzip. The stream is flushed but not closed.
+     *
+     * @param planTree plan to serialize
+     * @param outputStream the stream where to write the plan
+     * @param compress if the plan must be compressed
+     * @throws IOException if the plan cannot be written
+     */
+    public static void serialize(MigrationPlanTree planTree, OutputStream outputStream, boolean compress)
+        throws IOException
+    {
+        if (compress) {
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+            serialize(planTree, gzipOutputStream);
+            gzipOutputStream.finish();
+            outputStream.flush();
+        } else {
+            serialize(planTree, outputStream);
+        }
+    }
+
+    /**
+     * Serialize the migration plan to a string, to be sent in a request or stored in a property.
+     *
+     * @param planTree plan to serialize
+     * @param compress if the plan must be compressed
+     * @return the serialized plan, encoded in Base64
+     */
+    public static String serializeToBase64(MigrationPlanTree planTree, boolean compress)
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            serialize(planTree, outputStream, compress);
+        } catch (IOException e) {
+            // Cannot happen with a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return Base64.getEncoder().encodeToString(outputStream.toByteArray());
+    }
+
+    private void write(MigrationPlanTree planTree) throws IOException
+    {
+        // First pass: collect the strings and the references
+        MigrationAction topLevelAction = planTree.getTopLevelAction();
+        Deque<Iterator<MigrationAction>> stack = new ArrayDeque<>();
+        stack.push(topLevelAction.getChildren().iterator());
+        while (!stack.isEmpty()) {
+            if (!stack.peek().hasNext()) {
+                stack.pop();
+                continue;
+            }
+            MigrationAction action = stack.peek().next();
+            collect(action);
+            stack.push(action.getChildren().iterator());
+        }
+
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        writeVarInt(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            output.write(bytes);
+        }
+        writeVarInt(references.size());
+        for (EntityReference reference : references) {
+            output.writeByte(getType(reference));
+            writeVarInt(stringIds.get(reference.getName()));
+            writeReference(reference.getParent());
+        }
+
+        // Second pass: write the tree, each action being followed by its children
+        List<MigrationAction> topLevelChildren = topLevelAction.getChildren();
+        writeVarInt(topLevelChildren.size());
+        stack.push(topLevelChildren.iterator());
+        while (!stack.isEmpty()) {
+            if (!stack.peek().hasNext()) {
+                stack.pop();
+                continue;
+            }
+            MigrationAction action = stack.peek().next();
+            List<MigrationAction> children = action.getChildren();
+            writeAction(action);
+            writeVarInt(children.size());
+            stack.push(children.iterator());
+        }
+
+        output.flush();
+    }
+
+    private void collect(MigrationAction action)
+    {
+        addReference(action.getSourceDocument());
+        addReference(action.getTargetDocument());
+        for (Preference preference : action.getPreferences()) {
+            addString(preference.getName());
+            if (isStringValue(preference.getValue())) {
+                addString(preference.getValue().toString());
+            }
+            addReference(preference.getOrigin());
+        }
+        for (Right right : action.getRights()) {
+            addReference(right.getUser());
+            addReference(right.getGroup());
+            addString(right.getLevel());
+            addReference(right.getOrigin());
+        }
+    }
+
+    private void addString(String string)
+    {
+        if (string != null && !stringIds.containsKey(string)) {
+            stringIds.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    /**
+     * Record a reference after its parents, so that the parent of a reference is always known when it is read.
+     */
+    private void addReference(EntityReference reference)
+    {
+        if (reference == null || referenceIds.containsKey(reference)) {
+            return;
+        }
+        addReference(reference.getParent());
+        addString(reference.getName());
+        referenceIds.put(reference, references.size());
+        references.add(reference);
+    }
+
+    private void writeAction(MigrationAction action) throws IOException
+    {
+        writeReference(action.getSourceDocument());
+        writeReference(action.getTargetDocument());
+
+        byte flags = 0;
+        if (action.isEnabled()) {
+            flags |= FLAG_ENABLED;
+        }
+        if (action.shouldDeletePrevious()) {
+            flags |= FLAG_DELETE_PREVIOUS;
+        }
+        if (action.hasPreferences()) {
+            flags |= FLAG_PREFERENCES;
+        }
+        if (action.hasRights()) {
+            flags |= FLAG_RIGHTS;
+        }
+        output.writeByte(flags);
+
+        if (action.hasPreferences()) {
+            writeVarInt(action.getPreferences().size());
+            for (Preference preference : action.getPreferences()) {
+                writeVarInt(stringIds.get(preference.getName()));
+                writeValue(preference.getValue());
+                writeReference(preference.getOrigin());
+                output.writeBoolean(preference.isEnabled());
+            }
+        }
+        if (action.hasRights()) {
+            writeVarInt(action.getRights().size());
+            for (Right right : action.getRights()) {
+                writeReference(right.getUser());
+                writeReference(right.getGroup());
+                writeVarInt(right.getLevel() != null ? stringIds.get(right.getLevel()) + 1 : NO_STRING);
+                output.writeBoolean(right.isAllow());
+                writeReference(right.getOrigin());
+                output.writeBoolean(right.isEnabled());
+            }
+        }
+    }
+
+    private void writeValue(Object value) throws IOException
+    {
+        if (value == null) {
+            output.writeByte(VALUE_NULL);
+        } else if (value instanceof Integer) {
+            output.writeByte(VALUE_INTEGER);
+            writeVarLong(zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            output.writeByte(VALUE_LONG);
+            writeVarLong(zigZag((Long) value));
+        } else {
+            // Like in the JSON form, the other values are kept as strings
+            output.writeByte(VALUE_STRING);
+            writeVarInt(stringIds.get(value.toString()));
+        }
+    }
+
+    private boolean isStringValue(Object value)
+    {
+        return value != null && !(value instanceof Integer) && !(value instanceof Long);
+    }
+
+    private void writeReference(EntityReference reference) throws IOException
+    {
+        writeVarInt(reference != null ? referenceIds.get(reference) + 1 : NO_REFERENCE);
+    }
+
+    private byte getType(EntityReference reference)
+    {
+        if (reference.getType() == EntityType.WIKI) {
+            return TYPE_WIKI;
+        } else if (reference.getType() == EntityType.SPACE) {
+            return TYPE_SPACE;
+        }
+        return TYPE_DOCUMENT;
+    }
+
+    private void writeVarInt(int value) throws IOException
+    {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) throws IOException
+    {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            output.writeByte((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        output.writeByte((int) remaining);
+    }
+
+    private static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+}
@@ -19,6 +19,18 @@
  */
 package org.xwiki.contrib.nestedpagesmigrator.internal.serializer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -28,97 +40,333 @@ import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.Preference;
 import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.CompactMigrationPlanTree;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.WikiReference;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
+ * Read a JSON-serialized plan. The JSON is read as a stream and the plan is built while reading, so the JSON tree is
+ * never kept in memory.
+ *
  * @version $Id: $
  */
 @Component(roles = MigrationPlanDeserializer.class)
 @Singleton
 public class MigrationPlanDeserializer
 {
+    private static final String UNEXPECTED_SCHEMA = "Unexpected JSON schema.";
+
+    private static final String ENABLED = "enabled";
+
+    private static final String ORIGIN = "origin";
+
     @Inject
     private DocumentReferenceResolver<String> resolver;
 
-    public MigrationPlanTree deserialize(String json, WikiReference wikiReference) throws MigrationException
+    /**
+     * State of the reading of a plan.
+     */
+    private final class PlanReader
     {
-        MigrationPlanTree plan = new MigrationPlanTree();
+        private final JsonReader reader;
+
+        private final MigrationPlanTree plan;
 
-        JsonParser parser = new JsonParser();
-        JsonElement root = parser.parse(json);
+        private final WikiReference wikiReference;
 
-        if (!root.isJsonArray()) {
-            throw new MigrationException("Unexpected JSON schema.");
+        /**
+         * The same references (origins, users, groups...) are repeated a lot in a plan, so we resolve each of them
+         * only once.
+         */
+        private final Map<String, DocumentReference> resolvedReferences = new HashMap<>();
+
+        PlanReader(JsonReader reader, MigrationPlanTree plan, WikiReference wikiReference)
+        {
+            this.reader = reader;
+            this.plan = plan;
+            this.wikiReference = wikiReference;
         }
 
-        for (JsonElement item : root.getAsJsonArray()) {
-            JsonObject action = item.getAsJsonObject();
-            readMigrationAction(action, plan, plan.getTopLevelAction(), wikiReference);
+        DocumentReference resolve(String serializedReference)
+        {
+            DocumentReference reference = resolvedReferences.get(serializedReference);
+            if (reference == null && !resolvedReferences.containsKey(serializedReference)) {
+                reference = resolver.resolve(serializedReference, wikiReference);
+                resolvedReferences.put(serializedReference, reference);
+            }
+            return reference;
         }
 
-        return plan;
-    }
+        DocumentReference readReference() throws IOException
+        {
+            return resolve(readString());
+        }
 
-    private void readMigrationAction(JsonObject jsonAction, MigrationPlanTree plan, MigrationAction parent,
-            WikiReference wikiReference)
-            throws MigrationException
-    {
-        DocumentReference sourceDocument =
-                resolver.resolve(jsonAction.getAsJsonPrimitive("sourceDocument").getAsString(), wikiReference);
-        DocumentReference targetDocument =
-                resolver.resolve(jsonAction.getAsJsonPrimitive("targetDocument").getAsString(), wikiReference);
-
-        MigrationAction action = MigrationAction.createInstance(sourceDocument, targetDocument, parent, plan);
-        if (jsonAction.has("enabled") && jsonAction.getAsJsonPrimitive("enabled").getAsString().equals("false")) {
-            action.setEnabled(false);
+        String readString() throws IOException
+        {
+            switch (reader.peek()) {
+                case NULL:
+                    reader.nextNull();
+                    return null;
+                case BOOLEAN:
+                    return String.valueOf(reader.nextBoolean());
+                default:
+                    return reader.nextString();
+            }
         }
 
-        if (jsonAction.has("children")) {
-            for (JsonElement item : jsonAction.getAsJsonArray("children")) {
-                readMigrationAction(item.getAsJsonObject(), plan, action, wikiReference);
+        boolean readBoolean() throws IOException
+        {
+            if (reader.peek() == JsonToken.BOOLEAN) {
+                return reader.nextBoolean();
             }
+            return Boolean.parseBoolean(readString());
         }
 
-        if (jsonAction.has("preferences")) {
-            for (JsonElement item : jsonAction.getAsJsonArray("preferences")) {
-                JsonObject jsonPreference = item.getAsJsonObject();
-                action.addPreference(new Preference(
-                        jsonPreference.getAsJsonPrimitive("name").getAsString(),
-                        jsonPreference.getAsJsonPrimitive("value").getAsString(),
-                        resolver.resolve(jsonPreference.getAsJsonPrimitive("origin").getAsString(), wikiReference),
-                        jsonPreference.getAsJsonPrimitive("enabled").getAsBoolean()
-                ));
+        void readActions(MigrationAction parent) throws IOException, MigrationException
+        {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readAction(parent);
             }
+            reader.endArray();
         }
 
-        if (jsonAction.has("rights")) {
-            for (JsonElement item : jsonAction.getAsJsonArray("rights")) {
-                JsonObject jsonRight = item.getAsJsonObject();
+        void readAction(MigrationAction parent) throws IOException, MigrationException
+        {
+            DocumentReference sourceDocument = null;
+            DocumentReference targetDocument = null;
+            boolean enabled = true;
+            List<Preference> preferences = new ArrayList<>();
+            List<Right> rights = new ArrayList<>();
+            MigrationAction action = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "sourceDocument":
+                        sourceDocument = readReference();
+                        break;
+                    case "targetDocument":
+                        targetDocument = readReference();
+                        break;
+                    case ENABLED:
+                        enabled = readBoolean();
+                        break;
+                    case "preferences":
+                        readPreferences(preferences);
+                        break;
+                    case "rights":
+                        readRights(rights);
+                        break;
+                    case "children":
+                        // The action must exist before its children are added
+                        action = createAction(action, sourceDocument, targetDocument, parent);
+                        readActions(action);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+
+            action = createAction(action, sourceDocument, targetDocument, parent);
+            if (!enabled) {
+                action.setEnabled(false);
+            }
+            for (Preference preference : preferences) {
+                action.addPreference(preference);
+            }
+            for (Right right : rights) {
+                action.addRight(right);
+            }
+        }
+
+        MigrationAction createAction(MigrationAction action, DocumentReference sourceDocument,
+                DocumentReference targetDocument, MigrationAction parent) throws MigrationException
+        {
+            if (action != null) {
+                return action;
+            }
+            if (sourceDocument == null || targetDocument == null) {
+                throw new MigrationException(UNEXPECTED_SCHEMA);
+            }
+            return MigrationAction.createInstance(sourceDocument, targetDocument, parent, plan);
+        }
+
+        void readPreferences(List<Preference> preferences) throws IOException
+        {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String name = null;
+                String value = null;
+                DocumentReference origin = null;
+                boolean enabled = true;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "name":
+                            name = readString();
+                            break;
+                        case "value":
+                            value = readString();
+                            break;
+                        case ORIGIN:
+                            origin = readReference();
+                            break;
+                        case ENABLED:
+                            enabled = readBoolean();
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
+                }
+                reader.endObject();
+
+                preferences.add(new Preference(name, value, origin, enabled));
+            }
+            reader.endArray();
+        }
 
+        void readRights(List<Right> rights) throws IOException
+        {
+            reader.beginArray();
+            while (reader.hasNext()) {
                 DocumentReference user = null;
                 DocumentReference group = null;
+                String level = null;
+                boolean allow = false;
+                DocumentReference origin = null;
+                boolean enabled = true;
 
-                if (jsonRight.has("user")) {
-                    user = resolver.resolve(jsonRight.getAsJsonPrimitive("user").getAsString(), wikiReference);
-                } else if (jsonRight.has("group")) {
-                    group = resolver.resolve(jsonRight.getAsJsonPrimitive("group").getAsString(), wikiReference);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "user":
+                            user = readReference();
+                            break;
+                        case "group":
+                            group = readReference();
+                            break;
+                        case "level":
+                            level = readString();
+                            break;
+                        case "allow":
+                            allow = readBoolean();
+                            break;
+                        case ORIGIN:
+                            origin = readReference();
+                            break;
+                        case ENABLED:
+                            enabled = readBoolean();
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
+                    }
                 }
+                reader.endObject();
+
+                // A right concerns either a user or a group
+                rights.add(new Right(user, user != null ? null : group, level, allow, origin, enabled));
+            }
+            reader.endArray();
+        }
+    }
+
+    public MigrationPlanTree deserialize(String json, WikiReference wikiReference) throws MigrationException
+    {
+        return deserialize(json, wikiReference, false);
+    }
+
+    /**
+     * Read a serialized plan. Any {@link MigrationPlanFormat} is accepted: a plan that is not a JSON array is read as a
+     * binary plan encoded in Base64.
+     *
+     * @param json the serialized plan
+     * @param wikiReference the wiki of the plan
+     * @param compactPlan if the plan must be stored in the compact representation
+     * @return the plan
+     * @throws MigrationException if the JSON schema is not the expected one
+     * @since 0.10.3
+     */
+    public MigrationPlanTree deserialize(String json, WikiReference wikiReference, boolean compactPlan)
+        throws MigrationException
+    {
+        byte[] binaryPlan = decodeBinaryPlan(json);
+        if (binaryPlan != null) {
+            return MigrationPlanBinaryDeserializer.deserialize(binaryPlan, compactPlan);
+        }
+        return deserialize(new StringReader(json), wikiReference, compactPlan);
+    }
+
+    private byte[] decodeBinaryPlan(String serializedPlan)
+    {
+        String trimmedPlan = serializedPlan.trim();
+        if (trimmedPlan.isEmpty() || trimmedPlan.charAt(0) == '[') {
+            return null;
+        }
+        try {
+            byte[] data = Base64.getMimeDecoder().decode(trimmedPlan);
+            return MigrationPlanBinaryDeserializer.isBinaryPlan(data) ? data : null;
+        } catch (IllegalArgumentException e) {
+            // Not Base64, so it can only be JSON
+            return null;
+        }
+    }
 
-                action.addRight(new Right(
-                        user,
-                        group,
-                        jsonRight.getAsJsonPrimitive("level").getAsString(),
-                        "true".equalsIgnoreCase(jsonRight.getAsJsonPrimitive("allow").getAsString()),
-                        resolver.resolve(jsonRight.getAsJsonPrimitive("origin").getAsString(), wikiReference),
-                        jsonRight.getAsJsonPrimitive("enabled").getAsBoolean()
-                ));
+    /**
+     * Read a JSON-serialized plan from a stream, encoded in UTF-8.
+     *
+     * @param inputStream the serialized plan (it is not closed)
+     * @param wikiReference the wiki of the plan
+     * @param compactPlan if the plan must be stored in the compact representation
+     * @return the plan
+     * @throws MigrationException if the plan cannot be read or if the JSON schema is not the expected one
+     * @since 0.10.3
+     */
+    public MigrationPlanTree deserialize(InputStream inputStream, WikiReference wikiReference, boolean compactPlan)
+        throws MigrationException
+    {
+        return deserialize(new InputStreamReader(inputStream, StandardCharsets.UTF_8), wikiReference, compactPlan);
+    }
+
+    /**
+     * Read a JSON-serialized plan from a reader.
+     *
+     * @param reader the serialized plan (it is not closed)
+     * @param wikiReference the wiki of the plan
+     * @param compactPlan if the plan must be stored in the compact representation
+     * @return the plan
+     * @throws MigrationException if the plan cannot be read or if the JSON schema is not the expected one
+     * @since 0.10.3
+     */
+    public MigrationPlanTree deserialize(Reader reader, WikiReference wikiReference, boolean compactPlan)
+        throws MigrationException
+    {
+        MigrationPlanTree plan = compactPlan ? new CompactMigrationPlanTree() : new MigrationPlanTree();
+
+        JsonReader jsonReader = new JsonReader(reader);
+        // Same leniency as JsonParser, which was used before
+        jsonReader.setLenient(true);
+        try {
+            if (jsonReader.peek() != JsonToken.BEGIN_ARRAY) {
+                throw new MigrationException(UNEXPECTED_SCHEMA);
             }
+            new PlanReader(jsonReader, plan, wikiReference).readActions(plan.getTopLevelAction());
+        } catch (IOException e) {
+            throw new MigrationException("Failed to read the plan.", e);
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new MigrationException(UNEXPECTED_SCHEMA, e);
         }
+
+        return plan;
     }
 }
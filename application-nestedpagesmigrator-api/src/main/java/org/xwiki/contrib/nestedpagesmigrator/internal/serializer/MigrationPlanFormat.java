@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.serializer;
+
+/**
+ * The different forms in which a migration plan can be serialized.
+ *
+ * @version $Id: $
+ * @since 0.10.3
+ */
+public enum MigrationPlanFormat
+{
+    /**
+     * The JSON tree used by the user interface.
+     */
+    JSON("json"),
+
+    /**
+     * The binary form written by {@link MigrationPlanBinarySerializer}, encoded in Base64.
+     */
+    BINARY("binary"),
+
+    /**
+     * The binary form written by {@link MigrationPlanBinarySerializer}, compressed with gzip and encoded in Base64.
+     */
+    COMPRESSED_BINARY("binary-gzip");
+
+    private final String id;
+
+    MigrationPlanFormat(String id)
+    {
+        this.id = id;
+    }
+
+    /**
+     * @return the identifier of the format, used by the scripts
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * @param id the identifier of a format
+     * @return the corresponding format, or null if there is none
+     */
+    public static MigrationPlanFormat fromId(String id)
+    {
+        for (MigrationPlanFormat format : values()) {
+            if (format.id.equalsIgnoreCase(id)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
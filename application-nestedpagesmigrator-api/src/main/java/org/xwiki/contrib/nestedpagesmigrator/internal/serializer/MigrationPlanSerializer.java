@@ -19,11 +19,24 @@
  */
 package org.xwiki.contrib.nestedpagesmigrator.internal.serializer;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 
 import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.Right;
 import org.xwiki.model.reference.DocumentReference;
 
 import com.google.gson.Gson;
@@ -34,15 +47,25 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Serialize a migration plan to a JSON tree.
+ * <p>
+ * The plan can either be serialized to a string, or streamed to a writer without building the JSON tree in memory
+ * (see {@link #serialize(MigrationPlanTree, Writer, boolean)}). Both produce the same JSON.
  *  
  * @version $Id: $
  * @since 0.3
  */
 public class MigrationPlanSerializer
 {
+    private static final String INDENT = "  ";
+
+    private static final String ENABLED = "enabled";
+
+    private static final String ORIGIN = "origin";
+
     private static class DocumentReferenceSerializer implements JsonSerializer<DocumentReference>
     {
         @Override
@@ -86,7 +109,7 @@ public class MigrationPlanSerializer
                 action.addProperty("deletePrevious", Boolean.TRUE);
             }
             if (!src.isEnabled()) {
-                action.addProperty("enabled", Boolean.FALSE);
+                action.addProperty(ENABLED, Boolean.FALSE);
             }
             action.add("preferences", context.serialize(src.getPreferences()));
             action.add("rights", context.serialize(src.getRights()));
@@ -124,4 +147,209 @@ public class MigrationPlanSerializer
     {
         return createSerializer().toJson(object);
     }
+
+    /**
+     * Stream the migration plan to a writer as compact JSON. The actions are written one after the other, so the
+     * memory needed does not depend on the size of the plan.
+     *
+     * @param planTree plan to serialize
+     * @param writer where to write the JSON (it is flushed but not closed)
+     * @throws IOException if the writer fails
+     * @since 0.10.3
+     */
+    public static void serialize(MigrationPlanTree planTree, Writer writer) throws IOException
+    {
+        serialize(planTree, writer, false);
+    }
+
+    /**
+     * Stream the migration plan to an output stream as compact JSON, encoded in UTF-8.
+     *
+     * @param planTree plan to serialize
+     * @param outputStream where to write the JSON (it is flushed but not closed)
+     * @throws IOException if the output stream fails
+     * @since 0.10.3
+     */
+    public static void serialize(MigrationPlanTree planTree, OutputStream outputStream) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        serialize(planTree, writer, false);
+        writer.flush();
+    }
+
+    /**
+     * Stream the migration plan to a writer. When pretty printing is enabled, the result is the same as
+     * {@link #serialize(MigrationPlanTree)}.
+     *
+     * @param planTree plan to serialize
+     * @param writer where to write the JSON (it is flushed but not closed)
+     * @param prettyPrinting if the JSON must be indented
+     * @throws IOException if the writer fails
+     * @since 0.10.3
+     */
+    public static void serialize(MigrationPlanTree planTree, Writer writer, boolean prettyPrinting)
+        throws IOException
+    {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        if (prettyPrinting) {
+            jsonWriter.setIndent(INDENT);
+        }
+        // Same escaping as Gson#toJson()
+        jsonWriter.setHtmlSafe(true);
+
+        Gson gson = new Gson();
+
+        // The tree is walked without recursion, each iterator being the remaining children of an action that is
+        // being written
+        Deque<Iterator<MigrationAction>> stack = new ArrayDeque<>();
+        jsonWriter.beginArray();
+        stack.push(planTree.getTopLevelAction().getChildren().iterator());
+        while (!stack.isEmpty()) {
+            Iterator<MigrationAction> iterator = stack.peek();
+            if (!iterator.hasNext()) {
+                stack.pop();
+                jsonWriter.endArray();
+                if (!stack.isEmpty()) {
+                    // End of the action owning these children
+                    jsonWriter.endObject();
+                }
+                continue;
+            }
+
+            MigrationAction action = iterator.next();
+            writeActionProperties(action, jsonWriter, gson);
+            List<MigrationAction> children = action.getChildren();
+            if (children.isEmpty()) {
+                jsonWriter.endObject();
+            } else {
+                jsonWriter.name("children");
+                jsonWriter.beginArray();
+                stack.push(children.iterator());
+            }
+        }
+        jsonWriter.flush();
+    }
+
+    /**
+     * Serialize a page of the children of an action, so that the plan can be browsed without sending it entirely.
+     * The result has the form {@code {"offset": 0, "total": 2, "children": [...]}}, where each child has the same
+     * properties than in the whole plan, except that its own children are replaced by their number
+     * ({@code "childCount"}).
+     *
+     * @param parent the action whose children are serialized
+     * @param offset the index of the first child to serialize
+     * @param limit the maximum number of children to serialize
+     * @return the JSON object, as string
+     * @since 0.10.3
+     */
+    public static String serializeChildren(MigrationAction parent, int offset, int limit)
+    {
+        StringWriter writer = new StringWriter();
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        jsonWriter.setHtmlSafe(true);
+        Gson gson = new Gson();
+        try {
+            jsonWriter.beginObject();
+            jsonWriter.name("offset").value(offset);
+            jsonWriter.name("total").value(parent.getChildCount());
+            jsonWriter.name("children");
+            jsonWriter.beginArray();
+            for (MigrationAction child : parent.getChildren(offset, limit)) {
+                writeActionProperties(child, jsonWriter, gson);
+                jsonWriter.name("childCount").value(child.getChildCount());
+                jsonWriter.endObject();
+            }
+            jsonWriter.endArray();
+            jsonWriter.endObject();
+            jsonWriter.flush();
+        } catch (IOException e) {
+            // Cannot happen with a StringWriter
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Begin the object of an action and write all its properties but the children, in the same order than
+     * {@link MigrationActionSerializer}.
+     */
+    private static void writeActionProperties(MigrationAction action, JsonWriter jsonWriter, Gson gson)
+        throws IOException
+    {
+        jsonWriter.beginObject();
+        writeReference("sourceDocument", action.getSourceDocument(), jsonWriter);
+        writeReference("targetDocument", action.getTargetDocument(), jsonWriter);
+        if (action.shouldDeletePrevious()) {
+            jsonWriter.name("deletePrevious").value(true);
+        }
+        if (!action.isEnabled()) {
+            jsonWriter.name(ENABLED).value(false);
+        }
+
+        Collection<Preference> preferences = action.getPreferences();
+        if (preferences != null && !preferences.isEmpty()) {
+            jsonWriter.name("preferences");
+            jsonWriter.beginArray();
+            for (Preference preference : preferences) {
+                writePreference(preference, jsonWriter, gson);
+            }
+            jsonWriter.endArray();
+        }
+
+        Collection<Right> rights = action.getRights();
+        if (rights != null && !rights.isEmpty()) {
+            jsonWriter.name("rights");
+            jsonWriter.beginArray();
+            for (Right right : rights) {
+                writeRight(right, jsonWriter);
+            }
+            jsonWriter.endArray();
+        }
+    }
+
+    private static void writePreference(Preference preference, JsonWriter jsonWriter, Gson gson) throws IOException
+    {
+        jsonWriter.beginObject();
+        if (preference.getName() != null) {
+            jsonWriter.name("name").value(preference.getName());
+        }
+        Object value = preference.getValue();
+        if (value != null) {
+            jsonWriter.name("value");
+            if (value instanceof String) {
+                jsonWriter.value((String) value);
+            } else if (value instanceof Number) {
+                jsonWriter.value((Number) value);
+            } else if (value instanceof Boolean) {
+                jsonWriter.value((Boolean) value);
+            } else {
+                gson.toJson(value, value.getClass(), jsonWriter);
+            }
+        }
+        writeReference(ORIGIN, preference.getOrigin(), jsonWriter);
+        jsonWriter.name(ENABLED).value(preference.isEnabled());
+        jsonWriter.endObject();
+    }
+
+    private static void writeRight(Right right, JsonWriter jsonWriter) throws IOException
+    {
+        jsonWriter.beginObject();
+        writeReference("user", right.getUser(), jsonWriter);
+        writeReference("group", right.getGroup(), jsonWriter);
+        if (right.getLevel() != null) {
+            jsonWriter.name("level").value(right.getLevel());
+        }
+        jsonWriter.name("allow").value(right.isAllow());
+        writeReference(ORIGIN, right.getOrigin(), jsonWriter);
+        jsonWriter.name(ENABLED).value(right.isEnabled());
+        jsonWriter.endObject();
+    }
+
+    private static void writeReference(String name, DocumentReference reference, JsonWriter jsonWriter)
+        throws IOException
+    {
+        if (reference != null) {
+            jsonWriter.name(name).value(reference.toString());
+        }
+    }
 }
@@ -19,20 +19,30 @@
  */
 package org.xwiki.contrib.nestedpagesmigrator.script;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.NestedPagesMigrator;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.MigrationPlanPatcher;
+import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanBinarySerializer;
 import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanDeserializer;
+import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanFormat;
 import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanSerializer;
 import org.xwiki.contrib.nestedpagesmigrator.script.internal.StatusAndLogSerializer;
 import org.xwiki.job.Job;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.security.authorization.AccessDeniedException;
@@ -50,6 +60,13 @@ import org.xwiki.security.authorization.Right;
 @Component
 public class NestedPagesMigratorScriptService implements ScriptService
 {
+    /**
+     * The maximum number of children returned by {@link #getSerializedPlanChildren(String, String, int, int)}.
+     *
+     * @since 0.10.3
+     */
+    public static final int MAX_PLAN_CHILDREN = 1000;
+
     @Inject
     private NestedPagesMigrator nestedPagesMigrator;
 
@@ -61,6 +78,12 @@ public class NestedPagesMigratorScriptService implements ScriptService
 
     @Inject
     private MigrationPlanDeserializer deserializer;
+
+    @Inject
+    private MigrationPlanPatcher patcher;
+
+    @Inject
+    private DocumentReferenceResolver<String> documentReferenceResolver;
     
     private void checkAdminAccess(WikiReference wikiReference) throws AccessDeniedException
     {
@@ -89,7 +112,7 @@ public class NestedPagesMigratorScriptService implements ScriptService
      * Start a job that will convert the preferences of a plan.
      *
      * @param configuration the migration configuration
-     * @param serializedPlan the plan to execute, JSON-serialized
+     * @param serializedPlan the plan, serialized in any format of {@link #getSerializedPlan(String, String)}
      * @return the job handling the computation of the plan
      *
      * @throws MigrationException if error happens
@@ -100,11 +123,42 @@ public class NestedPagesMigratorScriptService implements ScriptService
     {
         checkAdminAccess(configuration.getWikiReference());
 
-        MigrationPlanTree plan = deserializer.deserialize(serializedPlan, configuration.getWikiReference());
+        MigrationPlanTree plan = deserializer.deserialize(serializedPlan, configuration.getWikiReference(),
+                configuration.isCompactPlan());
 
         return nestedPagesMigrator.startPreferencesMigrationPlanCreation(plan, configuration);
     }
 
+    /**
+     * Start a job that will convert the preferences of the plan kept on the server (see
+     * {@link #patchPlan(String, String)}).
+     *
+     * @param configuration the migration configuration
+     * @return the job handling the computation of the plan
+     *
+     * @throws MigrationException if there is no plan kept for the wiki
+     * @throws AccessDeniedException if the user have not the right to execute this method
+     *
+     * @since 0.10.3
+     */
+    public Job startPreferencesMigrationPlanCreation(MigrationConfiguration configuration)
+            throws MigrationException, AccessDeniedException
+    {
+        checkAdminAccess(configuration.getWikiReference());
+
+        return nestedPagesMigrator.startPreferencesMigrationPlanCreation(
+                getKeptPlan(configuration.getWikiReference().getName()), configuration);
+    }
+
+    private MigrationPlanTree getKeptPlan(String wikiId) throws MigrationException
+    {
+        MigrationPlanTree plan = nestedPagesMigrator.getPlan(wikiId);
+        if (plan == null) {
+            throw new MigrationException("There is no computed plan for this wiki.");
+        }
+        return plan;
+    }
+
     /**
      * Create a new migration configuration.
      *
@@ -130,11 +184,111 @@ public class NestedPagesMigratorScriptService implements ScriptService
         return MigrationPlanSerializer.serialize(nestedPagesMigrator.getPlan(wikiId));
     }
 
+    /**
+     * Serialize the computed plan in the given format. The binary formats are much more compact than JSON and
+     * faster to read, so they are better suited to store big plans. Whatever the format, the serialized plan can be
+     * given to {@link #startMigration(MigrationConfiguration, String)}.
+     *
+     * @param wikiId the id of the wiki where the plan have been computed
+     * @param format "json", "binary" or "binary-gzip" (the binary formats are encoded in Base64)
+     * @return the serialized plan, or null if the format is unknown
+     *
+     * @throws AccessDeniedException if the user have not the right to execute this method
+     *
+     * @since 0.10.3
+     */
+    public String getSerializedPlan(String wikiId, String format) throws AccessDeniedException
+    {
+        checkAdminAccess(new WikiReference(wikiId));
+
+        MigrationPlanFormat planFormat = MigrationPlanFormat.fromId(format);
+        if (planFormat == null) {
+            return null;
+        }
+
+        MigrationPlanTree plan = nestedPagesMigrator.getPlan(wikiId);
+        switch (planFormat) {
+            case BINARY:
+                return MigrationPlanBinarySerializer.serializeToBase64(plan, false);
+            case COMPRESSED_BINARY:
+                return MigrationPlanBinarySerializer.serializeToBase64(plan, true);
+            default:
+                return MigrationPlanSerializer.serialize(plan);
+        }
+    }
+
+    /**
+     * Serialize a page of the children of an action of the computed plan, so that the plan can be displayed
+     * progressively. Each child comes with its number of children, to know if it can be expanded.
+     *
+     * @param wikiId the id of the wiki where the plan have been computed
+     * @param parentDocument the source document of the action whose children are returned, or an empty string to
+     *     get the top-level actions
+     * @param offset the index of the first child to return
+     * @param limit the maximum number of children to return, at most {@value #MAX_PLAN_CHILDREN}
+     * @return a JSON object with the children and their total number, or null if there is no such action
+     *
+     * @throws AccessDeniedException if the user have not the right to execute this method
+     *
+     * @since 0.10.3
+     */
+    public String getSerializedPlanChildren(String wikiId, String parentDocument, int offset, int limit)
+            throws AccessDeniedException
+    {
+        WikiReference wikiReference = new WikiReference(wikiId);
+        checkAdminAccess(wikiReference);
+
+        MigrationPlanTree plan = nestedPagesMigrator.getPlan(wikiId);
+        if (plan == null) {
+            return null;
+        }
+
+        MigrationAction parent = plan.getTopLevelAction();
+        if (parentDocument != null && !parentDocument.isEmpty()) {
+            DocumentReference parentReference = documentReferenceResolver.resolve(parentDocument, wikiReference);
+            parent = plan.getActions().get(parentReference);
+            if (parent == null) {
+                return null;
+            }
+        }
+
+        // Bound the size of the response, otherwise the whole plan could be requested at once
+        return MigrationPlanSerializer.serializeChildren(parent, Math.max(offset, 0),
+                Math.max(Math.min(limit, MAX_PLAN_CHILDREN), 0));
+    }
+
+    /**
+     * Stream the computed plan as compact JSON (encoded in UTF-8), without building the whole serialized plan in
+     * memory. Prefer this method to {@link #getSerializedPlan(String)} for big plans, e.g. with the output stream of
+     * the response.
+     *
+     * @param wikiId the id of the wiki where the plan have been computed
+     * @param outputStream where to write the plan
+     *
+     * @throws AccessDeniedException if the user have not the right to execute this method
+     * @throws IOException if the plan cannot be written
+     *
+     * @since 0.10.3
+     */
+    public void writeSerializedPlan(String wikiId, OutputStream outputStream) throws AccessDeniedException,
+            IOException
+    {
+        checkAdminAccess(new WikiReference(wikiId));
+
+        MigrationPlanTree plan = nestedPagesMigrator.getPlan(wikiId);
+        if (plan != null) {
+            MigrationPlanSerializer.serialize(plan, outputStream);
+        } else {
+            outputStream.write("null".getBytes(StandardCharsets.UTF_8));
+            outputStream.flush();
+        }
+    }
+
     /**
      * Start the execution of a previously computed plan.
      *
      * @param configuration the configuration of the migration
-     * @param serializedPlan the plan to execute, JSON-serialized
+     * @param serializedPlan the plan, serialized in any format of {@link #getSerializedPlan(String, String)}
      * @return the job which executes the migration
      *
      * @throws AccessDeniedException if the current user has not ADMIN right on the wiki
@@ -147,11 +301,55 @@ public class NestedPagesMigratorScriptService implements ScriptService
     {
         checkAdminAccess(configuration.getWikiReference());
 
-        MigrationPlanTree plan = deserializer.deserialize(serializedPlan, configuration.getWikiReference());
+        MigrationPlanTree plan = deserializer.deserialize(serializedPlan, configuration.getWikiReference(),
+                configuration.isCompactPlan());
 
         return nestedPagesMigrator.startMigration(plan, configuration);
     }
 
+    /**
+     * Apply the changes made by the user to the plan kept on the server, instead of sending the whole modified plan
+     * back. See {@link MigrationPlanPatcher} for the format of the patch.
+     *
+     * @param wikiId the id of the wiki where the plan have been computed
+     * @param patch the JSON-serialized changes
+     * @return the number of changes applied
+     *
+     * @throws MigrationException if there is no plan kept for the wiki or if the patch cannot be applied
+     * @throws AccessDeniedException if the user have not the right to execute this method
+     *
+     * @since 0.10.3
+     */
+    public int patchPlan(String wikiId, String patch) throws MigrationException, AccessDeniedException
+    {
+        WikiReference wikiReference = new WikiReference(wikiId);
+        checkAdminAccess(wikiReference);
+
+        MigrationPlanTree plan = getKeptPlan(wikiId);
+        int changes = patcher.apply(patch, plan, wikiReference);
+        nestedPagesMigrator.updatePlan(wikiId, plan);
+        return changes;
+    }
+
+    /**
+     * Start the execution of the plan kept on the server (see {@link #patchPlan(String, String)}).
+     *
+     * @param configuration the configuration of the migration
+     * @return the job which executes the migration
+     *
+     * @throws MigrationException if there is no plan kept for the wiki
+     * @throws AccessDeniedException if the user have not the right to execute this method
+     *
+     * @since 0.10.3
+     */
+    public Job startMigration(MigrationConfiguration configuration) throws AccessDeniedException, MigrationException
+    {
+        checkAdminAccess(configuration.getWikiReference());
+
+        return nestedPagesMigrator.startMigration(getKeptPlan(configuration.getWikiReference().getName()),
+                configuration);
+    }
+
     /**
      * Display the status and the logs of the migration action as JSON.
      *
@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.AdaptiveThrottle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @version $Id: $
+ */
+public class AdaptiveThrottleTest
+{
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void increaseAdditivelyAndDecreaseMultiplicatively() throws Exception
+    {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(1000, 0);
+        assertEquals(AdaptiveThrottle.INITIAL_RATE, throttle.getRate(), DELTA);
+
+        throttle.onRename(500);
+        throttle.onRename(1000);
+        assertEquals(AdaptiveThrottle.INITIAL_RATE + 1, throttle.getRate(), DELTA);
+
+        throttle.onRename(1001);
+        assertEquals((AdaptiveThrottle.INITIAL_RATE + 1) / 2, throttle.getRate(), DELTA);
+    }
+
+    @Test
+    public void keepRateInBounds() throws Exception
+    {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(1000, 0);
+        for (int i = 0; i < 1000; i++) {
+            throttle.onRename(0);
+        }
+        assertEquals(AdaptiveThrottle.MAX_RATE, throttle.getRate(), DELTA);
+
+        for (int i = 0; i < 100; i++) {
+            throttle.onRename(5000);
+        }
+        assertEquals(AdaptiveThrottle.MIN_RATE, throttle.getRate(), DELTA);
+    }
+
+    @Test
+    public void slowDownWhenHeapIsOverloaded() throws Exception
+    {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(1000, 80)
+        {
+            @Override
+            protected boolean isHeapOverloaded()
+            {
+                return true;
+            }
+        };
+
+        throttle.onRename(10);
+        assertEquals(AdaptiveThrottle.INITIAL_RATE / 2, throttle.getRate(), DELTA);
+    }
+
+    @Test
+    public void paceRenames() throws Exception
+    {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(1000, 0);
+
+        long start = System.nanoTime();
+        throttle.acquire();
+        throttle.acquire();
+        long elapsed = (System.nanoTime() - start) / 1000000;
+
+        // The second rename waits for its slot
+        assertTrue(elapsed >= (long) (1000 / AdaptiveThrottle.INITIAL_RATE) - 10);
+    }
+}
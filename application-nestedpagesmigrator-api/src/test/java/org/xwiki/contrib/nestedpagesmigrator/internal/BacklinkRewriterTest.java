@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.AdaptiveThrottle;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.BacklinkRewriter;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.LinkBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.BlockMatcher;
+import org.xwiki.rendering.listener.reference.ResourceReference;
+import org.xwiki.rendering.listener.reference.ResourceType;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id: $
+ */
+public class BacklinkRewriterTest
+{
+    @Rule
+    public MockitoComponentMockingRule<BacklinkRewriter> mocker =
+            new MockitoComponentMockingRule<>(BacklinkRewriter.class);
+
+    private WikiReference wikiReference = new WikiReference("xwiki");
+
+    private XWikiContext context;
+
+    private XWiki xwiki;
+
+    private Query query;
+
+    private DocumentReferenceResolver<String> currentResolver;
+
+    private EntityReferenceSerializer<String> compactSerializer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Provider<XWikiContext> contextProvider = mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        context = mock(XWikiContext.class);
+        when(contextProvider.get()).thenReturn(context);
+        xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+
+        QueryManager queryManager = mocker.getInstance(QueryManager.class);
+        query = mock(Query.class);
+        when(queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(query);
+
+        EntityReferenceSerializer<String> localSerializer =
+                mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localSerializer.serialize(new DocumentReference("xwiki", "Dramas", "Titanic"))).thenReturn(
+                "Dramas.Titanic");
+
+        currentResolver = mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        compactSerializer = mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "compactwiki");
+    }
+
+    private XWikiDocument mockDocument(DocumentReference documentReference, LinkBlock... links) throws Exception
+    {
+        XWikiDocument document = mockContent(links);
+        when(xwiki.getDocument(documentReference, context)).thenReturn(document);
+        return document;
+    }
+
+    private XWikiDocument mockTranslation(XWikiDocument document, Locale locale, LinkBlock... links)
+        throws Exception
+    {
+        XWikiDocument translatedDocument = mockContent(links);
+        when(document.getTranslationLocales(context)).thenReturn(Arrays.asList(locale));
+        when(document.getTranslatedDocument(locale, context)).thenReturn(translatedDocument);
+        return translatedDocument;
+    }
+
+    private XWikiDocument mockContent(LinkBlock... links)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.clone()).thenReturn(document);
+        XDOM xdom = mock(XDOM.class);
+        when(document.getXDOM()).thenReturn(xdom);
+        List<Block> blocks = Arrays.<Block>asList(links);
+        when(xdom.getBlocks(any(BlockMatcher.class), eq(Block.Axes.DESCENDANT))).thenReturn(blocks);
+        return document;
+    }
+
+    @Test
+    public void rewriteBacklinksOnce() throws Exception
+    {
+        DocumentReference titanic = new DocumentReference("xwiki", "Dramas", "Titanic");
+        DocumentReference newTitanic =
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Titanic"), "WebHome");
+        DocumentReference rebbecca = new DocumentReference("xwiki", "Dramas", "Rebbecca");
+        DocumentReference hub = new DocumentReference("xwiki", "Main", "Hub");
+        Map<DocumentReference, DocumentReference> renames = new HashMap<>();
+        renames.put(titanic, newTitanic);
+
+        // The hub links to the renamed document and to a document that has not been renamed
+        when(query.execute()).thenReturn(Collections.<Object>singletonList("Main.Hub"));
+        DocumentReferenceResolver<String> resolver = mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        when(resolver.resolve("Main.Hub", wikiReference)).thenReturn(hub);
+
+        ResourceReference titanicLink = new ResourceReference("Dramas.Titanic", ResourceType.DOCUMENT);
+        ResourceReference rebbeccaLink = new ResourceReference("Dramas.Rebbecca", ResourceType.DOCUMENT);
+        XWikiDocument hubDocument = mockDocument(hub, new LinkBlock(Collections.<Block>emptyList(), titanicLink,
+                false), new LinkBlock(Collections.<Block>emptyList(), rebbeccaLink, false));
+        when(currentResolver.resolve("Dramas.Titanic", hub)).thenReturn(titanic);
+        when(currentResolver.resolve("Dramas.Rebbecca", hub)).thenReturn(rebbecca);
+        when(compactSerializer.serialize(newTitanic, hub)).thenReturn("Main.Dramas.Titanic.WebHome");
+
+        // The moved document has no link
+        XWikiDocument titanicDocument = mockDocument(newTitanic);
+
+        assertEquals(1, mocker.getComponentUnderTest().rewrite(renames, wikiReference, null));
+
+        verify(query).setWiki("xwiki");
+        verify(query).bindValue("links", Arrays.asList("Dramas.Titanic"));
+        assertEquals("Main.Dramas.Titanic.WebHome", titanicLink.getReference());
+        assertEquals("Dramas.Rebbecca", rebbeccaLink.getReference());
+        verify(hubDocument).setContent(any(XDOM.class));
+        verify(xwiki).saveDocument(eq(hubDocument), anyString(), eq(true), eq(context));
+        verify(xwiki, never()).saveDocument(eq(titanicDocument), anyString(), anyBoolean(), eq(context));
+    }
+
+    @Test
+    public void rewriteRelativeLinksOfMovedDocument() throws Exception
+    {
+        DocumentReference titanic = new DocumentReference("xwiki", "Dramas", "Titanic");
+        DocumentReference newTitanic =
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Titanic"), "WebHome");
+        DocumentReference rebbecca = new DocumentReference("xwiki", "Dramas", "Rebbecca");
+        Map<DocumentReference, DocumentReference> renames = new HashMap<>();
+        renames.put(titanic, newTitanic);
+        when(query.execute()).thenReturn(Collections.emptyList());
+
+        // A relative link, written from the old location
+        ResourceReference rebbeccaLink = new ResourceReference("Rebbecca", ResourceType.DOCUMENT);
+        XWikiDocument titanicDocument = mockDocument(newTitanic,
+                new LinkBlock(Collections.<Block>emptyList(), rebbeccaLink, false));
+        when(currentResolver.resolve("Rebbecca", titanic)).thenReturn(rebbecca);
+        when(currentResolver.resolve("Rebbecca", newTitanic)).thenReturn(
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Titanic"), "Rebbecca"));
+        when(compactSerializer.serialize(rebbecca, newTitanic)).thenReturn("Dramas.Rebbecca");
+        AdaptiveThrottle throttle = mock(AdaptiveThrottle.class);
+
+        assertEquals(1, mocker.getComponentUnderTest().rewrite(renames, wikiReference, throttle));
+
+        assertEquals("Dramas.Rebbecca", rebbeccaLink.getReference());
+        verify(xwiki).saveDocument(eq(titanicDocument), anyString(), eq(true), eq(context));
+        // The save is paced like the renames
+        verify(throttle).acquire();
+        verify(throttle).onRename(anyLong());
+    }
+
+    @Test
+    public void rewriteTranslatedBacklinks() throws Exception
+    {
+        DocumentReference titanic = new DocumentReference("xwiki", "Dramas", "Titanic");
+        DocumentReference newTitanic =
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Titanic"), "WebHome");
+        DocumentReference hub = new DocumentReference("xwiki", "Main", "Hub");
+        Map<DocumentReference, DocumentReference> renames = new HashMap<>();
+        renames.put(titanic, newTitanic);
+
+        when(query.execute()).thenReturn(Collections.<Object>singletonList("Main.Hub"));
+        DocumentReferenceResolver<String> resolver = mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        when(resolver.resolve("Main.Hub", wikiReference)).thenReturn(hub);
+
+        // Only the French translation of the hub links to the renamed document
+        XWikiDocument hubDocument = mockDocument(hub);
+        ResourceReference titanicLink = new ResourceReference("Dramas.Titanic", ResourceType.DOCUMENT);
+        XWikiDocument frenchHubDocument = mockTranslation(hubDocument, Locale.FRENCH,
+                new LinkBlock(Collections.<Block>emptyList(), titanicLink, false));
+        when(currentResolver.resolve("Dramas.Titanic", hub)).thenReturn(titanic);
+        when(compactSerializer.serialize(newTitanic, hub)).thenReturn("Main.Dramas.Titanic.WebHome");
+        mockDocument(newTitanic);
+
+        assertEquals(1, mocker.getComponentUnderTest().rewrite(renames, wikiReference, null));
+
+        assertEquals("Main.Dramas.Titanic.WebHome", titanicLink.getReference());
+        verify(frenchHubDocument).setContent(any(XDOM.class));
+        verify(xwiki).saveDocument(eq(frenchHubDocument), anyString(), eq(true), eq(context));
+        verify(xwiki, never()).saveDocument(eq(hubDocument), anyString(), anyBoolean(), eq(context));
+    }
+}
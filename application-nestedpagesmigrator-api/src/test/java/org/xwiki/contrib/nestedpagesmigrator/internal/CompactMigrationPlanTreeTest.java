@@ -0,0 +1,218 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.TargetReference;
+import org.xwiki.contrib.nestedpagesmigrator.TargetState;
+import org.xwiki.contrib.nestedpagesmigrator.internal.pages.IdentityMigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.CompactMigrationPlanTree;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @version $Id: $
+ */
+public class CompactMigrationPlanTreeTest
+{
+    private DocumentReference ref(String space, String page)
+    {
+        return new DocumentReference("xwiki", Arrays.asList(space.split("\\.")), page);
+    }
+
+    @Test
+    public void createActions() throws Exception
+    {
+        CompactMigrationPlanTree plan = new CompactMigrationPlanTree();
+
+        MigrationAction parent = IdentityMigrationAction.createInstance(ref("A", "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationAction child = MigrationAction.createInstance(ref("B", "WebHome"), ref("A.B", "WebHome"), parent,
+                plan);
+        MigrationAction page = MigrationAction.createInstance(ref("A", "Page"),
+                new TargetReference(ref("A.Page", "WebHome"), TargetState.DUPLICATE), parent, plan, false);
+
+        assertEquals(3, plan.getActions().size());
+        // The same reference is recorded only once
+        assertEquals(5, plan.getReferenceCount());
+
+        assertTrue(parent.isIdentity());
+        assertFalse(child.isIdentity());
+        assertEquals(ref("B", "WebHome"), child.getSourceDocument());
+        assertEquals(ref("A.B", "WebHome"), child.getTargetDocument());
+        assertTrue(child.isEnabled());
+        assertFalse(child.shouldDeletePrevious());
+        assertFalse(page.isEnabled());
+        assertTrue(page.shouldDeletePrevious());
+
+        assertEquals(child, plan.getActionAbout(ref("B", "WebHome")));
+        assertEquals(child, plan.getActionAbout(ref("A.B", "WebHome")));
+        assertEquals(child, plan.getActions().get(ref("B", "WebHome")));
+        assertNull(plan.getActions().get(ref("A.B", "WebHome")));
+        assertNull(plan.getActionAbout(ref("C", "WebHome")));
+
+        assertEquals(Arrays.asList(parent), plan.getTopLevelAction().getChildren());
+        assertEquals(Arrays.asList(child, page), plan.getActionAbout(ref("A", "WebHome")).getChildren());
+        assertTrue(child.getChildren().isEmpty());
+
+        assertEquals(1, plan.getTopLevelAction().getChildCount());
+        assertEquals(2, parent.getChildCount());
+        assertEquals(0, child.getChildCount());
+        assertEquals(Arrays.asList(page), parent.getChildren(1, 10));
+        assertEquals(Arrays.asList(child), parent.getChildren(0, 1));
+        assertTrue(parent.getChildren(2, 10).isEmpty());
+
+        // The views are backed by the plan
+        plan.getActionAbout(ref("B", "WebHome")).setEnabled(false);
+        assertFalse(child.isEnabled());
+        child.setDeletePrevious(true);
+        assertTrue(plan.getActionAbout(ref("B", "WebHome")).shouldDeletePrevious());
+    }
+
+    @Test(expected = MigrationException.class)
+    public void createActionWithSameSource() throws Exception
+    {
+        CompactMigrationPlanTree plan = new CompactMigrationPlanTree();
+        MigrationAction.createInstance(ref("A", "Page"), ref("A.Page", "WebHome"), plan.getTopLevelAction(), plan);
+        MigrationAction.createInstance(ref("A", "Page"), ref("B.Page", "WebHome"), plan.getTopLevelAction(), plan);
+    }
+
+    @Test(expected = MigrationException.class)
+    public void createActionWithSameTarget() throws Exception
+    {
+        CompactMigrationPlanTree plan = new CompactMigrationPlanTree();
+        MigrationAction.createInstance(ref("A", "Page"), ref("A.Page", "WebHome"), plan.getTopLevelAction(), plan);
+        MigrationAction.createInstance(ref("B", "Page"), ref("A.Page", "WebHome"), plan.getTopLevelAction(), plan);
+    }
+
+    @Test
+    public void addChildAfterCreation() throws Exception
+    {
+        CompactMigrationPlanTree plan = new CompactMigrationPlanTree();
+        MigrationAction page = MigrationAction.createInstance(ref("A", "Page"), ref("A.Page", "WebHome"), plan);
+        MigrationAction parent = IdentityMigrationAction.createInstance(ref("A", "WebHome"),
+                plan.getTopLevelAction(), plan);
+
+        assertTrue(parent.getChildren().isEmpty());
+        parent.addChild(page);
+        assertEquals(Arrays.asList(page), parent.getChildren());
+    }
+
+    @Test
+    public void sort() throws Exception
+    {
+        CompactMigrationPlanTree plan = new CompactMigrationPlanTree();
+        MigrationAction parent = IdentityMigrationAction.createInstance(ref("Main", "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationAction c = MigrationAction.createInstance(ref("C", "WebHome"), ref("Main.C", "WebHome"), parent,
+                plan);
+        MigrationAction a = MigrationAction.createInstance(ref("A", "WebHome"), ref("Main.A", "WebHome"), parent,
+                plan);
+        MigrationAction b = MigrationAction.createInstance(ref("B", "WebHome"), ref("Main.B", "WebHome"), parent,
+                plan);
+
+        plan.sort();
+
+        List<MigrationAction> children = parent.getChildren();
+        assertEquals(Arrays.asList(a, b, c), children);
+        // The links are kept consistent
+        MigrationAction d = MigrationAction.createInstance(ref("D", "WebHome"), ref("Main.D", "WebHome"), parent,
+                plan);
+        assertEquals(Arrays.asList(a, b, c, d), parent.getChildren());
+    }
+
+    @Test
+    public void preferences() throws Exception
+    {
+        CompactMigrationPlanTree plan = new CompactMigrationPlanTree();
+        MigrationAction action = MigrationAction.createInstance(ref("A", "WebHome"), ref("B.A", "WebHome"),
+                plan.getTopLevelAction(), plan);
+
+        assertFalse(action.hasPreferences());
+        action.addPreference(new Preference("skin", "old", ref("A", "WebPreferences")));
+        action.addPreference(new Preference("skin", "new", ref("A", "WebPreferences")));
+        assertTrue(action.hasPreferences());
+        assertEquals(1, plan.getActionAbout(ref("A", "WebHome")).getPreferences().size());
+        assertEquals("new", plan.getActionAbout(ref("A", "WebHome")).getPreferences().iterator().next().getValue());
+
+        plan.clearPreferences();
+        assertFalse(action.hasPreferences());
+    }
+
+    @Test
+    public void manyActions() throws Exception
+    {
+        CompactMigrationPlanTree plan = new CompactMigrationPlanTree();
+        MigrationAction parent = IdentityMigrationAction.createInstance(ref("Main", "WebHome"),
+                plan.getTopLevelAction(), plan);
+        for (int i = 0; i < 5000; ++i) {
+            MigrationAction.createInstance(ref("Space" + i, "WebHome"), ref("Main.Space" + i, "WebHome"), parent,
+                    plan);
+        }
+
+        assertEquals(5001, plan.getActions().size());
+        assertEquals(5000, parent.getChildren().size());
+        assertEquals(ref("Main.Space4321", "WebHome"),
+                plan.getActionAbout(ref("Space4321", "WebHome")).getTargetDocument());
+        int count = 0;
+        for (MigrationAction action : plan.getActions().values()) {
+            assertEquals(action, plan.getActionAbout(action.getSourceDocument()));
+            count++;
+        }
+        assertEquals(5001, count);
+    }
+
+    @Test
+    public void pagesOfManyChildren() throws Exception
+    {
+        CompactMigrationPlanTree plan = new CompactMigrationPlanTree();
+        MigrationAction parent = IdentityMigrationAction.createInstance(ref("Main", "WebHome"),
+                plan.getTopLevelAction(), plan);
+        for (int i = 0; i < 200; ++i) {
+            MigrationAction.createInstance(ref("Space" + i, "WebHome"), ref("Main.Space" + i, "WebHome"), parent,
+                    plan);
+        }
+
+        List<MigrationAction> page = parent.getChildren(150, 20);
+        assertEquals(20, page.size());
+        assertEquals(ref("Space150", "WebHome"), page.get(0).getSourceDocument());
+        assertEquals(ref("Space169", "WebHome"), page.get(19).getSourceDocument());
+        assertEquals(10, parent.getChildren(190, 20).size());
+        assertTrue(parent.getChildren(200, 20).isEmpty());
+
+        // The index of the children is kept consistent when the children change
+        MigrationAction.createInstance(ref("Space200", "WebHome"), ref("Main.Space200", "WebHome"), parent, plan);
+        assertEquals(ref("Space200", "WebHome"), parent.getChildren(200, 20).get(0).getSourceDocument());
+        plan.sort();
+        assertEquals(ref("Space0", "WebHome"), parent.getChildren(0, 1).get(0).getSourceDocument());
+        assertEquals(ref("Space1", "WebHome"), parent.getChildren(1, 1).get(0).getSourceDocument());
+        assertEquals(ref("Space10", "WebHome"), parent.getChildren(2, 1).get(0).getSourceDocument());
+    }
+}
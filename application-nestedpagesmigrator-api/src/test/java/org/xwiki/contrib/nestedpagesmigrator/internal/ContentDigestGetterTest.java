@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.ContentDigestGetter;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id: $
+ */
+public class ContentDigestGetterTest
+{
+    @Rule
+    public MockitoComponentMockingRule<ContentDigestGetter> mocker =
+            new MockitoComponentMockingRule<>(ContentDigestGetter.class);
+
+    private Query query;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        QueryManager queryManager = mocker.getInstance(QueryManager.class);
+        query = mock(Query.class);
+        when(queryManager.createQuery("select doc.content from XWikiDocument doc "
+                + "where doc.fullName = :fullName and doc.translation = 0", Query.HQL)).thenReturn(query);
+
+        EntityReferenceSerializer<String> localSerializer =
+                mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localSerializer.serialize(new DocumentReference("wiki", "Space", "Page"))).thenReturn("Space.Page");
+    }
+
+    @Test
+    public void getContentDigest() throws Exception
+    {
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+
+        when(query.<String>execute()).thenReturn(Arrays.asList("Some content"), Arrays.asList("Some content"),
+                Arrays.asList("Other content"));
+        String digest = mocker.getComponentUnderTest().getContentDigest(documentReference);
+        assertNotNull(digest);
+        assertEquals(digest, mocker.getComponentUnderTest().getContentDigest(documentReference));
+        assertNotEquals(digest, mocker.getComponentUnderTest().getContentDigest(documentReference));
+
+        verify(query, times(3)).setWiki("wiki");
+        verify(query, times(3)).bindValue("fullName", "Space.Page");
+    }
+
+    @Test
+    public void getContentDigestWhenEmpty() throws Exception
+    {
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+
+        // Empty content stored as null
+        when(query.<String>execute()).thenReturn(Arrays.asList((String) null), Arrays.asList(""),
+                Collections.<String>emptyList());
+        String digest = mocker.getComponentUnderTest().getContentDigest(documentReference);
+        assertEquals(digest, mocker.getComponentUnderTest().getContentDigest(documentReference));
+
+        // The document does not exist
+        assertNull(mocker.getComponentUnderTest().getContentDigest(documentReference));
+    }
+}
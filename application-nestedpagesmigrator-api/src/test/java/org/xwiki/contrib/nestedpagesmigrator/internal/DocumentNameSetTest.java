@@ -0,0 +1,52 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.DocumentNameSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @version $Id: $
+ */
+public class DocumentNameSetTest
+{
+    @Test
+    public void addAndLookUp() throws Exception
+    {
+        DocumentNameSet names = new DocumentNameSet();
+        for (int i = 0; i < 10000; ++i) {
+            names.add("Space" + (i % 100) + ".Page" + i);
+        }
+        // Adding a name twice does not change the set
+        names.add("Space0.Page0");
+
+        assertEquals(10000, names.size());
+        for (int i = 0; i < 10000; ++i) {
+            assertTrue(names.mightContain("Space" + (i % 100) + ".Page" + i));
+        }
+        assertFalse(names.mightContain("Space1.Page0"));
+        assertFalse(names.mightContain("Space0.WebHome"));
+        assertFalse(names.mightContain(""));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.bridge.event.DocumentCreatingEvent;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.MigratedDocumentParentSetter;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id: $
+ */
+public class MigratedDocumentParentSetterTest
+{
+    @Rule
+    public MockitoComponentMockingRule<MigratedDocumentParentSetter> mocker =
+            new MockitoComponentMockingRule<>(MigratedDocumentParentSetter.class);
+
+    @Test
+    public void setParentOfExpectedDocument() throws Exception
+    {
+        DocumentReference target = new DocumentReference("xwiki", "Dramas", "Titanic");
+        DocumentReference parent = new DocumentReference("xwiki", "Dramas", "WebHome");
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(target);
+
+        mocker.getComponentUnderTest().expect(target, parent);
+        mocker.getComponentUnderTest().onEvent(new DocumentCreatingEvent(target), document, null);
+
+        verify(document).setParentReference(parent);
+        assertTrue(mocker.getComponentUnderTest().stopExpecting(target));
+        assertFalse(mocker.getComponentUnderTest().stopExpecting(target));
+    }
+
+    @Test
+    public void ignoreOtherDocuments() throws Exception
+    {
+        DocumentReference target = new DocumentReference("xwiki", "Dramas", "Titanic");
+        DocumentReference other = new DocumentReference("xwiki", "Dramas", "Rebbecca");
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(other);
+
+        mocker.getComponentUnderTest().onEvent(new DocumentCreatingEvent(other), document, null);
+        mocker.getComponentUnderTest().expect(target, new DocumentReference("xwiki", "Dramas", "WebHome"));
+        mocker.getComponentUnderTest().onEvent(new DocumentCreatingEvent(other), document, null);
+
+        verify(document, never()).setParentReference(any(DocumentReference.class));
+        assertFalse(mocker.getComponentUnderTest().stopExpecting(target));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.MigrationJournal;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.MigrationJournalStore;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id: $
+ */
+public class MigrationJournalStoreTest
+{
+    @Rule
+    public MockitoComponentMockingRule<MigrationJournalStore> mocker =
+            new MockitoComponentMockingRule<>(MigrationJournalStore.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+
+    private MigrationPlanTree plan;
+
+    private MigrationAction dramas;
+
+    private MigrationAction titanic;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(folder.getRoot());
+        EntityReferenceSerializer<String> serializer = mocker.getInstance(EntityReferenceSerializer.TYPE_STRING);
+        when(serializer.serialize(any(DocumentReference.class))).thenAnswer(new Answer<String>()
+        {
+            public String answer(InvocationOnMock invocation) throws Throwable
+            {
+                return invocation.getArguments()[0].toString();
+            }
+        });
+
+        plan = new MigrationPlanTree();
+        dramas = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        titanic = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Titanic"), "WebHome"),
+                dramas, plan);
+    }
+
+    @Test
+    public void resumeSamePlan() throws Exception
+    {
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            assertFalse(journal.isDone(dramas));
+            journal.markDone(dramas);
+            assertTrue(journal.isDone(dramas));
+        }
+
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            assertTrue(journal.isDone(dramas));
+            assertFalse(journal.isDone(titanic));
+            journal.markDone(titanic);
+        }
+
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            assertTrue(journal.isDone(dramas));
+            assertTrue(journal.isDone(titanic));
+        }
+    }
+
+    @Test
+    public void discardJournalOfAnotherPlan() throws Exception
+    {
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            journal.markDone(dramas);
+        }
+
+        MigrationPlanTree otherPlan = new MigrationPlanTree();
+        MigrationAction otherDramas = MigrationAction.createInstance(dramas.getSourceDocument(),
+                new DocumentReference("xwiki", Arrays.asList("Movies", "Dramas"), "WebHome"),
+                otherPlan.getTopLevelAction(), otherPlan);
+
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(otherPlan, configuration)) {
+            assertFalse(journal.isDone(otherDramas));
+        }
+    }
+
+    @Test
+    public void discardJournalWhenActionIsDisabled() throws Exception
+    {
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            journal.markDone(dramas);
+        }
+
+        titanic.setEnabled(false);
+
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            assertFalse(journal.isDone(dramas));
+        }
+    }
+
+    @Test
+    public void ignoreTruncatedLine() throws Exception
+    {
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            journal.markDone(dramas);
+        }
+
+        // Simulate a crash while writing the next action
+        File file = new File(folder.getRoot(), "nestedpagesmigrator/journals/xwiki.journal");
+        try (FileOutputStream outputStream = new FileOutputStream(file, true)) {
+            outputStream.write(titanic.getSourceDocument().toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            assertTrue(journal.isDone(dramas));
+            assertFalse(journal.isDone(titanic));
+            journal.markDone(titanic);
+        }
+
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            assertTrue(journal.isDone(titanic));
+        }
+    }
+
+    @Test
+    public void deleteJournal() throws Exception
+    {
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            journal.markDone(dramas);
+        }
+
+        mocker.getComponentUnderTest().delete("xwiki");
+        assertFalse(new File(folder.getRoot(), "nestedpagesmigrator/journals/xwiki.journal").exists());
+
+        // The same plan is executed again from the beginning
+        try (MigrationJournal journal = mocker.getComponentUnderTest().open(plan, configuration)) {
+            assertFalse(journal.isDone(dramas));
+        }
+
+        // Deleting a journal that does not exist is not an error
+        mocker.getComponentUnderTest().delete("other");
+    }
+}
@@ -19,7 +19,12 @@
  */
 package org.xwiki.contrib.nestedpagesmigrator.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 
 import javax.inject.Provider;
 
@@ -32,16 +37,29 @@ import org.xwiki.bridge.DocumentAccessBridge;
 import org.xwiki.bridge.DocumentModelBridge;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.Preference;
 import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.AdaptiveThrottle;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.BacklinkRewriter;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.MigratedDocumentParentSetter;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.MigrationJournalStore;
 import org.xwiki.contrib.nestedpagesmigrator.internal.executor.MigrationPlanExecutor;
 import org.xwiki.contrib.nestedpagesmigrator.internal.executor.RenameJobExecutor;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.SpaceMove;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.SpaceMoveDetector;
+import org.xwiki.contrib.nestedpagesmigrator.internal.job.MigrationPlanExecutorJobStatus;
 import org.xwiki.contrib.nestedpagesmigrator.internal.pages.IdentityMigrationAction;
 import org.xwiki.job.Job;
+import org.xwiki.job.JobContext;
 import org.xwiki.job.event.status.JobProgressManager;
+import org.xwiki.logging.LogQueue;
+import org.xwiki.logging.LoggerManager;
+import org.xwiki.logging.event.LogQueueListener;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
@@ -51,8 +69,14 @@ import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -291,4 +315,264 @@ public class MigrationPlanExecutorTest
 
     }
 
+
+    @Test
+    public void performMigrationInParallel() throws Exception
+    {
+        when(context.clone()).thenReturn(context);
+
+        // Record the order of the renames
+        final List<DocumentReference> renamedDocuments = Collections.synchronizedList(
+                new ArrayList<DocumentReference>());
+        doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                renamedDocuments.add((DocumentReference) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(renameJobExecutor).rename(any(DocumentReference.class), any(DocumentReference.class),
+                any(DocumentReference.class), any(MigrationConfiguration.class));
+
+        // Create plan
+        MigrationPlanTree plan = new MigrationPlanTree();
+        MigrationAction dramas = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationAction titanic = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Titanic"), "WebHome"),
+                dramas, plan);
+        MigrationAction titanic3D = MigrationAction.createInstance(
+                new DocumentReference("xwiki", "Dramas", "Titanic3D"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Titanic", "Titanic3D"), "WebHome"),
+                titanic, plan);
+        MigrationAction rebbecca = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Rebbecca"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Rebbecca"), "WebHome"),
+                dramas, plan);
+        MigrationAction movies = MigrationAction.createInstance(new DocumentReference("xwiki", "Movies", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Movies"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationAction starWars = MigrationAction.createInstance(new DocumentReference("xwiki", "Movies", "StarWars"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Movies", "StarWars"), "WebHome"),
+                movies, plan);
+        starWars.setEnabled(false);
+
+        // Configuration
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setMigrationThreads(3);
+        // Test
+        mocker.getComponentUnderTest().performMigration(plan, configuration);
+
+        // Verify the enabled actions have been executed, the parents before their children
+        assertEquals(5, renamedDocuments.size());
+        assertTrue(renamedDocuments.indexOf(dramas.getSourceDocument())
+                < renamedDocuments.indexOf(titanic.getSourceDocument()));
+        assertTrue(renamedDocuments.indexOf(dramas.getSourceDocument())
+                < renamedDocuments.indexOf(rebbecca.getSourceDocument()));
+        assertTrue(renamedDocuments.indexOf(titanic.getSourceDocument())
+                < renamedDocuments.indexOf(titanic3D.getSourceDocument()));
+        assertTrue(renamedDocuments.contains(movies.getSourceDocument()));
+        assertFalse(renamedDocuments.contains(starWars.getSourceDocument()));
+
+        // Verify the links are updated after all the moves, since concurrent updates would be lost
+        assertTrue(configuration.isDeferLinkUpdates());
+        BacklinkRewriter backlinkRewriter = mocker.getInstance(BacklinkRewriter.class);
+        verify(backlinkRewriter).rewrite(any(Map.class), eq(new WikiReference("xwiki")),
+                any(AdaptiveThrottle.class));
+
+        // Verify steps have been triggered
+        verify(progressManager).pushLevelProgress(eq(6), any(MigrationPlanExecutor.class));
+        verify(progressManager, times(6)).startStep(any(MigrationPlanExecutor.class));
+        verify(progressManager).popLevelProgress(any(MigrationPlanExecutor.class));
+    }
+
+    @Test
+    public void performMigrationInParallelWithJobLog() throws Exception
+    {
+        when(context.clone()).thenReturn(context);
+        MigrationPlanTree plan = new MigrationPlanTree();
+        MigrationAction movies = MigrationAction.createInstance(new DocumentReference("xwiki", "Movies", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Movies"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        movies.setDeletePrevious(true);
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setMigrationThreads(2);
+        MigrationPlanExecutorJobStatus status = mock(MigrationPlanExecutorJobStatus.class);
+        LogQueue logQueue = new LogQueue();
+        when(status.getLog()).thenReturn(logQueue);
+        Job job = mock(Job.class);
+        JobContext jobContext = mocker.getInstance(JobContext.class);
+        when(jobContext.getCurrentJob()).thenReturn(job);
+        LoggerManager loggerManager = mocker.getInstance(LoggerManager.class);
+
+        mocker.getComponentUnderTest().performMigration(plan, configuration, status);
+
+        // The logs of the worker (such as the deletion of the duplicate) go to the job log, and the rename jobs are
+        // sub-jobs of the current job
+        verify(xwiki).deleteDocument(any(XWikiDocument.class), eq(true), eq(context));
+        verify(loggerManager).pushLogListener(any(LogQueueListener.class));
+        verify(loggerManager).popLogListener();
+        verify(jobContext).pushCurrentJob(job);
+        verify(jobContext).popCurrentJob();
+    }
+
+    @Test
+    public void deleteJournalOfExecutedPlan() throws Exception
+    {
+        MigrationJournalStore journalStore = mocker.getInstance(MigrationJournalStore.class);
+        MigrationPlanTree plan = new MigrationPlanTree();
+        MigrationAction.createInstance(new DocumentReference("xwiki", "Movies", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Movies"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setExecutionJournal(true);
+
+        mocker.getComponentUnderTest().performMigration(plan, configuration);
+
+        // Executing the same plan again must not skip the actions
+        verify(journalStore).open(plan, configuration);
+        verify(journalStore).delete("xwiki");
+    }
+
+    @Test
+    public void keepJournalAfterError() throws Exception
+    {
+        MigrationJournalStore journalStore = mocker.getInstance(MigrationJournalStore.class);
+        MigrationPlanTree plan = new MigrationPlanTree();
+        MigrationAction action = MigrationAction.createInstance(new DocumentReference("xwiki", "Movies", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Movies"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        action.addPreference(new Preference("somePref", "someValue", null));
+        when(xwiki.getDocument(eq(new DocumentReference("xwiki", Arrays.asList("Main", "Movies"), "WebPreferences")),
+                eq(context))).thenThrow(new XWikiException(0, 0, "test exception"));
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setExecutionJournal(true);
+
+        mocker.getComponentUnderTest().performMigration(plan, configuration);
+
+        // The journal is kept so that the next execution only retries the failed action
+        verify(journalStore).open(plan, configuration);
+        verify(journalStore, never()).delete(any(String.class));
+    }
+
+    @Test
+    public void performMigrationWithCoalescedSaves() throws Exception
+    {
+        MigratedDocumentParentSetter parentSetter = mocker.getInstance(MigratedDocumentParentSetter.class);
+
+        // Create plan
+        MigrationPlanTree plan = new MigrationPlanTree();
+        MigrationAction dramas = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        dramas.addPreference(new Preference("skin", "xwiki:XWiki.DramasSkin", null, false));
+        MigrationAction titanic = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Titanic"), "WebHome"),
+                dramas, plan);
+
+        // The parent of Dramas is set by the listener, but not the one of Titanic
+        when(parentSetter.stopExpecting(dramas.getTargetDocument())).thenReturn(true);
+
+        // Configuration
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setCoalesceSaves(true);
+        // Test
+        mocker.getComponentUnderTest().performMigration(plan, configuration);
+
+        // Verify the parents have been expected
+        verify(parentSetter).expect(dramas.getTargetDocument(), new DocumentReference("xwiki", "Main", "WebHome"));
+        verify(parentSetter).expect(titanic.getTargetDocument(),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "WebHome"));
+
+        // Verify the parent field is saved again only when the listener has not set it
+        verify(documentAccessBridge, never()).setDocumentParentReference(eq(dramas.getTargetDocument()),
+                any(DocumentReference.class));
+        verify(documentAccessBridge).setDocumentParentReference(eq(titanic.getTargetDocument()),
+                eq(new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "WebHome")));
+
+        // Verify the preferences page is not saved since its only preference is disabled
+        verify(xwiki, never()).saveDocument(any(XWikiDocument.class), any(String.class), any(XWikiContext.class));
+    }
+
+    @Test
+    public void performMigrationWithSpaceMove() throws Exception
+    {
+        SpaceMoveDetector spaceMoveDetector = mocker.getInstance(SpaceMoveDetector.class);
+
+        // Create plan
+        MigrationPlanTree plan = new MigrationPlanTree();
+        MigrationAction dramas = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationAction titanic = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "Titanic"), dramas, plan);
+        MigrationAction rebbecca = MigrationAction.createInstance(
+                new DocumentReference("xwiki", "Movies", "Rebbecca"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Rebbecca"), "WebHome"), dramas, plan);
+
+        // The space Dramas can be moved at once, but not the page coming from Movies
+        SpaceReference source = new SpaceReference("Dramas", new WikiReference("xwiki"));
+        SpaceReference target = new SpaceReference("xwiki", "Main", "Dramas");
+        DocumentReference author = new DocumentReference("xwiki", "XWiki", "Admin");
+        when(spaceMoveDetector.detect(eq(dramas), anySetOf(SpaceReference.class))).thenReturn(new SpaceMove(source,
+                target, author, new HashSet<>(Arrays.asList(dramas.getSourceDocument(), titanic.getSourceDocument()))));
+
+        // Configuration
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setBulkSpaceMoves(true);
+        // Test
+        mocker.getComponentUnderTest().performMigration(plan, configuration);
+
+        // Verify the space has been moved at once, and the other page alone
+        verify(renameJobExecutor).renameSpace(source, target, author, configuration);
+        verify(renameJobExecutor, never()).rename(eq(dramas.getSourceDocument()), any(DocumentReference.class),
+                any(DocumentReference.class), any(MigrationConfiguration.class));
+        verify(renameJobExecutor, never()).rename(eq(titanic.getSourceDocument()), any(DocumentReference.class),
+                any(DocumentReference.class), any(MigrationConfiguration.class));
+        verify(renameJobExecutor).rename(eq(rebbecca.getSourceDocument()), eq(rebbecca.getTargetDocument()),
+                any(DocumentReference.class), eq(configuration));
+
+        // Verify the parent fields of the moved documents have been updated
+        verify(documentAccessBridge).setDocumentParentReference(dramas.getTargetDocument(),
+                new DocumentReference("xwiki", "Main", "WebHome"));
+        verify(documentAccessBridge).setDocumentParentReference(titanic.getTargetDocument(),
+                new DocumentReference("xwiki", "Main", "WebHome"));
+        verify(documentAccessBridge).setDocumentParentReference(rebbecca.getTargetDocument(),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "WebHome"));
+    }
+
+    @Test
+    public void performMigrationWithFailedSpaceMove() throws Exception
+    {
+        SpaceMoveDetector spaceMoveDetector = mocker.getInstance(SpaceMoveDetector.class);
+
+        // Create plan
+        MigrationPlanTree plan = new MigrationPlanTree();
+        MigrationAction dramas = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationAction titanic = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "Titanic"), dramas, plan);
+
+        SpaceReference source = new SpaceReference("Dramas", new WikiReference("xwiki"));
+        SpaceReference target = new SpaceReference("xwiki", "Main", "Dramas");
+        DocumentReference author = new DocumentReference("xwiki", "XWiki", "Admin");
+        when(spaceMoveDetector.detect(eq(dramas), anySetOf(SpaceReference.class))).thenReturn(new SpaceMove(source,
+                target, author, new HashSet<>(Arrays.asList(dramas.getSourceDocument(), titanic.getSourceDocument()))));
+
+        // Configuration
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setBulkSpaceMoves(true);
+        // The rename job of the space logs an error
+        doThrow(new MigrationException("Failed to rename.")).when(renameJobExecutor).renameSpace(source, target,
+                author, configuration);
+        // Test
+        mocker.getComponentUnderTest().performMigration(plan, configuration);
+
+        // Verify the documents are moved one by one, since the space move is not considered done
+        verify(renameJobExecutor).rename(eq(dramas.getSourceDocument()), eq(dramas.getTargetDocument()),
+                any(DocumentReference.class), eq(configuration));
+        verify(renameJobExecutor).rename(eq(titanic.getSourceDocument()), eq(titanic.getTargetDocument()),
+                any(DocumentReference.class), eq(configuration));
+    }
 }
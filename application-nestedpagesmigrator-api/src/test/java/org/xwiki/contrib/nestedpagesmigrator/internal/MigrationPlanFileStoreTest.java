@@ -0,0 +1,95 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.pages.IdentityMigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.MigrationPlanFileStore;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.SpilledMigrationPlan;
+import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanSerializer;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id: $
+ */
+public class MigrationPlanFileStoreTest
+{
+    @Rule
+    public MockitoComponentMockingRule<MigrationPlanFileStore> mocker =
+            new MockitoComponentMockingRule<>(MigrationPlanFileStore.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Environment environment = mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(folder.getRoot());
+    }
+
+    private DocumentReference ref(String space, String page)
+    {
+        return new DocumentReference("xwiki", Arrays.asList(space.split("\\.")), page);
+    }
+
+    @Test
+    public void spillAndLoad() throws Exception
+    {
+        MigrationPlanTree plan = new MigrationPlanTree();
+        MigrationAction parent = IdentityMigrationAction.createInstance(ref("A", "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationAction.createInstance(ref("B", "WebHome"), ref("A.B", "WebHome"), parent, plan);
+        MigrationAction.createInstance(ref("A", "Page"), ref("A.Page", "WebHome"), parent, plan);
+
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        SpilledMigrationPlan spilledPlan = mocker.getComponentUnderTest().spill(plan, configuration);
+
+        assertTrue(spilledPlan.getFile().exists());
+        assertTrue(spilledPlan.getFile().toPath().startsWith(folder.getRoot().toPath()));
+        assertEquals(3, spilledPlan.getActionCount());
+
+        MigrationPlanTree result = spilledPlan.load();
+        assertEquals(MigrationPlanSerializer.serialize(plan), MigrationPlanSerializer.serialize(result));
+
+        // The plan can be loaded several times, without being decoded again while it is in memory
+        assertSame(result, spilledPlan.load());
+
+        assertTrue(spilledPlan.delete());
+        assertFalse(spilledPlan.getFile().exists());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.MigrationPlanPatcher;
+import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanSerializer;
+import org.xwiki.contrib.nestedpagesmigrator.testframework.BasicDocumentReferenceResolver;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @version $Id: $
+ */
+public class MigrationPlanPatcherTest
+{
+    @Rule
+    public MockitoComponentMockingRule<MigrationPlanPatcher> mocker =
+            new MockitoComponentMockingRule<>(MigrationPlanPatcher.class);
+
+    private WikiReference wikiReference = new WikiReference("xwiki");
+
+    private MigrationPlanTree plan;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mocker.registerComponent(DocumentReferenceResolver.TYPE_STRING, new BasicDocumentReferenceResolver());
+
+        plan = new MigrationPlanTree();
+        MigrationAction movies = MigrationAction.createInstance(ref("Movies", "WebHome"),
+                ref("Main.Movies", "WebHome"), plan.getTopLevelAction(), plan);
+        MigrationAction dancesWithWolves = MigrationAction.createInstance(ref("Movies", "DancesWithWolves"),
+                ref("Main.Movies.DancesWithWolves", "WebHome"), movies, plan);
+        dancesWithWolves.setEnabled(false);
+        MigrationAction starTrek = MigrationAction.createInstance(ref("Movies", "StarTrek"),
+                ref("Main.Movies.StarTrek", "WebHome"), movies, plan);
+        starTrek.addPreference(new Preference("skin", "XWiki.MoviesSkin", ref("Movies", "WebPreferences")));
+        starTrek.addPreference(new Preference("showLeftPanels", "true", ref("Movies", "WebPreferences")));
+        starTrek.addRight(new Right(null, ref("XWiki", "AllGroup"), "create", false, ref("Dramas", "WebPreferences")));
+        starTrek.addRight(new Right(ref("XWiki", "Dostoievski"), null, "comment", true,
+                ref("Dramas", "WebPreferences")));
+    }
+
+    private DocumentReference ref(String space, String page)
+    {
+        return new DocumentReference("xwiki", Arrays.asList(space.split("\\.")), page);
+    }
+
+    private MigrationAction getAction(String space, String page)
+    {
+        return plan.getActions().get(ref(space, page));
+    }
+
+    @Test
+    public void apply() throws Exception
+    {
+        String patch = "[{\"sourceDocument\": \"xwiki:Movies.DancesWithWolves\", \"enabled\": true},"
+                + "{\"sourceDocument\": \"xwiki:Movies.StarTrek\", \"enabled\": false, "
+                + "\"preferences\": [{\"name\": \"skin\", \"enabled\": false}], "
+                + "\"rights\": [{\"user\": \"xwiki:XWiki.Dostoievski\", \"level\": \"comment\", \"enabled\": false}]}]";
+
+        assertEquals(4, mocker.getComponentUnderTest().apply(patch, plan, wikiReference));
+
+        assertTrue(getAction("Movies", "DancesWithWolves").isEnabled());
+        MigrationAction action = getAction("Movies", "StarTrek");
+        assertFalse(action.isEnabled());
+        for (Preference preference : action.getPreferences()) {
+            assertEquals(!"skin".equals(preference.getName()), preference.isEnabled());
+        }
+        for (Right right : action.getRights()) {
+            assertEquals(right.getUser() == null, right.isEnabled());
+        }
+    }
+
+    @Test
+    public void applyInvalidPatch() throws Exception
+    {
+        String serializedPlan = MigrationPlanSerializer.serialize(plan);
+        String patch = "[{\"sourceDocument\": \"xwiki:Movies.StarTrek\", \"enabled\": false}, "
+                + "{\"sourceDocument\": \"xwiki:Movies.Unknown\", \"enabled\": false}]";
+
+        try {
+            mocker.getComponentUnderTest().apply(patch, plan, wikiReference);
+            fail("The patch should have been rejected.");
+        } catch (MigrationException e) {
+            assertEquals("There is no action about [xwiki:Movies.Unknown] in the plan.", e.getMessage());
+        }
+
+        // Nothing has been changed
+        assertEquals(serializedPlan, MigrationPlanSerializer.serialize(plan));
+    }
+}
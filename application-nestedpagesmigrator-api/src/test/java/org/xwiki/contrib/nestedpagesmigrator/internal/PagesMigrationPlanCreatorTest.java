@@ -20,6 +20,13 @@
 package org.xwiki.contrib.nestedpagesmigrator.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Provider;
 
@@ -27,15 +34,30 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanSerializer;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.ContentDigestGetter;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.DocumentNameSet;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadata;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadataIndex;
+import org.xwiki.contrib.nestedpagesmigrator.internal.metadata.PageMetadataIndexLoader;
 import org.xwiki.contrib.nestedpagesmigrator.internal.pages.PagesMigrationPlanCreator;
 import org.xwiki.contrib.nestedpagesmigrator.internal.pages.PagesToTransformGetter;
+import org.xwiki.contrib.nestedpagesmigrator.internal.pages.ParentPrefetcher;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.CompactMigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePool;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePoolManager;
+import org.xwiki.contrib.nestedpagesmigrator.testframework.BasicDocumentReferenceResolver;
 import org.xwiki.contrib.nestedpagesmigrator.testframework.Example;
 import org.xwiki.contrib.nestedpagesmigrator.testframework.Page;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
@@ -46,9 +68,11 @@ import com.xpn.xwiki.doc.XWikiDocument;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -95,6 +119,8 @@ public class PagesMigrationPlanCreatorTest
         xwiki = mock(XWiki.class);
         when(context.getWiki()).thenReturn(xwiki);
         pagesToTransformGetter = mocker.getInstance(PagesToTransformGetter.class);
+        when(mocker.<ReferencePoolManager>getInstance(ReferencePoolManager.class).getPool())
+                .thenReturn(new ReferencePool());
         
         XWikiDocument document = mock(XWikiDocument.class);
         when(xwiki.getDocument(any(DocumentReference.class), eq(context))).thenReturn(document);
@@ -157,6 +183,83 @@ public class PagesMigrationPlanCreatorTest
                 MigrationPlanSerializer.serialize(plan));
     }
     
+    /**
+     * Serialize a document reference the way it is stored in the database (relative to the "xwiki" wiki).
+     */
+    private static String serialize(DocumentReference documentReference)
+    {
+        StringBuilder builder = new StringBuilder();
+        if (!"xwiki".equals(documentReference.getWikiReference().getName())) {
+            builder.append(documentReference.getWikiReference().getName()).append(':');
+        }
+        for (SpaceReference space : documentReference.getSpaceReferences()) {
+            builder.append(space.getName()).append('.');
+        }
+        return builder.append(documentReference.getName()).toString();
+    }
+
+    private PageMetadataIndex newMetadataIndex()
+    {
+        EntityReferenceSerializer<String> localSerializer = new EntityReferenceSerializer<String>()
+        {
+            @Override
+            public String serialize(EntityReference reference, Object... parameters)
+            {
+                return PagesMigrationPlanCreatorTest.serialize((DocumentReference) reference);
+            }
+        };
+
+        return new PageMetadataIndex(new WikiReference("xwiki"), new BasicDocumentReferenceResolver(),
+                localSerializer);
+    }
+
+    private PageMetadataIndex createMetadataIndex(Example example)
+    {
+        PageMetadataIndex index = newMetadataIndex();
+        for (Page page : example.getAllPages()) {
+            DocumentReference author =
+                    page.getDuplicateOf() != null ? page.getDuplicateOf() : page.getDocumentReference();
+            index.put(serialize(page.getDocumentReference()), new PageMetadata(
+                    page.getParent() != null ? serialize(page.getParent()) : null,
+                    serialize(author), serialize(author), serialize(author)));
+        }
+        return index;
+    }
+
+    private void testExampleWithMetadataIndex(String exampleName) throws Exception
+    {
+        testExampleWithMetadataIndex(exampleName, false);
+    }
+
+    private void testExampleWithMetadataIndex(String exampleName, boolean useParentGraph) throws Exception
+    {
+        Example example = new Example(exampleName);
+        setUpExample(example);
+
+        MigrationConfiguration migrationConfiguration = new MigrationConfiguration(new WikiReference("xwiki"));
+        migrationConfiguration.setDontMoveChildren(example.isDontMoveChildrenEnabled());
+        migrationConfiguration.setUseMetadataIndex(!useParentGraph);
+        migrationConfiguration.setUseParentGraph(useParentGraph);
+
+        PageMetadataIndex index = createMetadataIndex(example);
+        when(mocker.<PageMetadataIndexLoader>getInstance(PageMetadataIndexLoader.class).load(
+                new WikiReference("xwiki"))).thenReturn(index);
+        ContentDigestGetter contentDigestGetter = mocker.getInstance(ContentDigestGetter.class);
+        for (Page page : example.getAllPages()) {
+            // Same content as in setUpExample()
+            DocumentReference ref =
+                    page.getDuplicateOf() != null ? page.getDuplicateOf() : page.getDocumentReference();
+            when(contentDigestGetter.getContentDigest(page.getDocumentReference())).thenReturn(ref.toString());
+        }
+        when(pagesToTransformGetter.getPagesToConvert(any(MigrationConfiguration.class), eq(index)))
+                .thenReturn(example.getConcernedPages(migrationConfiguration));
+
+        MigrationPlanTree plan = mocker.getComponentUnderTest().computeMigrationPlan(migrationConfiguration);
+
+        verifyMigrationsActionsAreUnique(plan);
+        verifyPlan(plan, example);
+    }
+
     private void testExample(String exampleName) throws Exception
     {
         Example example = new Example(exampleName);
@@ -246,4 +349,380 @@ public class PagesMigrationPlanCreatorTest
     {
         testExample("/example11.xml");
     }
+
+    @Test
+    public void testBasicExampleWithMetadataIndex() throws Exception
+    {
+        testExampleWithMetadataIndex("/example1.xml");
+
+        // The parents have been read from the index
+        verify(xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+    }
+
+    @Test
+    public void testWithConflictsAndMetadataIndex() throws Exception
+    {
+        testExampleWithMetadataIndex("/example3.xml");
+    }
+
+    @Test
+    public void testWithDuplicateAndMetadataIndex() throws Exception
+    {
+        testExampleWithMetadataIndex("/example9.xml");
+
+        // The duplicate has been detected without loading the documents
+        verify(xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+    }
+
+    @Test
+    public void testWithIntentionalDuplicatesAndMetadataIndex() throws Exception
+    {
+        testExampleWithMetadataIndex("/example10.xml");
+    }
+
+    @Test
+    public void testWithManyPages() throws Exception
+    {
+        // Warm up, so that the measures do not include the compilation of the code
+        computePlanOfManyPages(20);
+        long smallPlanTime = 0;
+        for (int i = 0; i < 3; ++i) {
+            smallPlanTime += computePlanOfManyPages(20);
+        }
+        smallPlanTime /= 3;
+        long bigPlanTime = computePlanOfManyPages(200);
+
+        // 10 times more pages: about 10 times longer if the computation is linear, 100 times if it is quadratic
+        assertTrue(String.format("10,000 pages took [%d] ns, 100,000 pages took [%d] ns.", smallPlanTime,
+                bigPlanTime), bigPlanTime < 30 * smallPlanTime);
+    }
+
+    /**
+     * Compute the plan of a synthetic wiki made of spaces of 500 orphan pages each, the space home pages not existing.
+     *
+     * @return the duration of the computation, in nanoseconds
+     */
+    private long computePlanOfManyPages(int spaceCount) throws Exception
+    {
+        List<DocumentReference> pages = new ArrayList<>();
+        for (int i = 0; i < spaceCount; ++i) {
+            for (int j = 0; j < 500; ++j) {
+                pages.add(new DocumentReference("xwiki", "Space" + i, "Page" + j));
+            }
+        }
+        when(pagesToTransformGetter.getPagesToConvert(any(MigrationConfiguration.class))).thenReturn(pages);
+
+        long start = System.nanoTime();
+        MigrationPlanTree plan = mocker.getComponentUnderTest().computeMigrationPlan(
+                new MigrationConfiguration(new WikiReference("xwiki")));
+        long time = System.nanoTime() - start;
+
+        // One action per page, plus one identity action per space home page
+        assertEquals(spaceCount * 501, plan.getActions().size());
+        assertEquals(new DocumentReference("xwiki", Arrays.asList("Space7", "Page42"), "WebHome"),
+                plan.getActionAbout(new DocumentReference("xwiki", "Space7", "Page42")).getTargetDocument());
+        return time;
+    }
+
+    @Test
+    public void testWithLongParentChain() throws Exception
+    {
+        // Chain.Page0 <- Chain.Page1 <- ... <- Chain.Page1999 <- Chain.Page0 (cycle)
+        int length = 2000;
+        PageMetadataIndex index = newMetadataIndex();
+        List<DocumentReference> pages = new ArrayList<>();
+        for (int i = 0; i < length; ++i) {
+            pages.add(new DocumentReference("xwiki", "Chain", "Page" + i));
+            index.put("Chain.Page" + i, new PageMetadata("Chain.Page" + ((i + length - 1) % length), null, null, null));
+        }
+
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setUseMetadataIndex(true);
+        when(mocker.<PageMetadataIndexLoader>getInstance(PageMetadataIndexLoader.class).load(
+                new WikiReference("xwiki"))).thenReturn(index);
+        // Start from the end of the chain
+        List<DocumentReference> reversedPages = new ArrayList<>(pages);
+        Collections.reverse(reversedPages);
+        when(pagesToTransformGetter.getPagesToConvert(any(MigrationConfiguration.class), eq(index)))
+                .thenReturn(reversedPages);
+
+        // The existence of the target of each page is checked while walking the chain: record how deep the stack is
+        // at that point. A recursive walk would need at least one frame per page of the chain.
+        final int[] maxStackDepth = new int[1];
+        when(xwiki.exists(any(DocumentReference.class), eq(context))).thenAnswer(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable
+            {
+                maxStackDepth[0] = Math.max(maxStackDepth[0], Thread.currentThread().getStackTrace().length);
+                return false;
+            }
+        });
+
+        MigrationPlanTree plan = mocker.getComponentUnderTest().computeMigrationPlan(configuration);
+
+        assertTrue(maxStackDepth[0] > 0);
+        assertTrue(String.format("The stack grew to [%d] frames.", maxStackDepth[0]), maxStackDepth[0] < length / 4);
+
+        // The cycle is broken at the farthest ancestor met while walking up the chain: Chain.Page0
+        assertEquals(length, plan.getActions().size());
+        assertEquals(new DocumentReference("xwiki", Arrays.asList("Chain", "Page0"), "WebHome"),
+                plan.getActionAbout(pages.get(0)).getTargetDocument());
+        List<String> spaces = new ArrayList<>();
+        spaces.add("Chain");
+        for (int i = 0; i < length; ++i) {
+            spaces.add("Page" + i);
+        }
+        assertEquals(new DocumentReference("xwiki", spaces, "WebHome"),
+                plan.getActionAbout(pages.get(length - 1)).getTargetDocument());
+    }
+
+    @Test
+    public void testBasicExampleWithParentGraph() throws Exception
+    {
+        testExampleWithMetadataIndex("/example1.xml", true);
+    }
+
+    @Test
+    public void testWithConflictsAndParentGraph() throws Exception
+    {
+        testExampleWithMetadataIndex("/example3.xml", true);
+    }
+
+    @Test
+    public void testWithOrphanAndParentGraph() throws Exception
+    {
+        testExampleWithMetadataIndex("/example5.xml", true);
+    }
+
+    @Test
+    public void testWithParentInOtherWikiAndParentGraph() throws Exception
+    {
+        testExampleWithMetadataIndex("/example7.xml", true);
+    }
+
+    @Test
+    public void testWithCycleAndParentGraph() throws Exception
+    {
+        testExampleWithMetadataIndex("/example8.xml", true);
+    }
+
+    @Test
+    public void testWithDuplicateAndParentGraph() throws Exception
+    {
+        testExampleWithMetadataIndex("/example9.xml", true);
+    }
+
+    @Test
+    public void testWithIntentionalDuplicatesAndParentGraph() throws Exception
+    {
+        testExampleWithMetadataIndex("/example10.xml", true);
+    }
+
+    @Test
+    public void testWithConflictsAndThreeLevelsAndParentGraph() throws Exception
+    {
+        testExampleWithMetadataIndex("/example11.xml", true);
+    }
+
+    private void testExampleWithDocumentNames(String exampleName) throws Exception
+    {
+        Example example = new Example(exampleName);
+        setUpExample(example);
+
+        MigrationConfiguration migrationConfiguration = new MigrationConfiguration(new WikiReference("xwiki"));
+        migrationConfiguration.setDontMoveChildren(example.isDontMoveChildrenEnabled());
+        migrationConfiguration.setPreloadDocumentNames(true);
+
+        DocumentNameSet documentNames = new DocumentNameSet();
+        Set<DocumentReference> existingDocuments = new HashSet<>();
+        for (Page page : example.getAllPages()) {
+            documentNames.add(serialize(page.getDocumentReference()));
+            existingDocuments.add(page.getDocumentReference());
+        }
+        when(mocker.<PageMetadataIndexLoader>getInstance(PageMetadataIndexLoader.class).loadDocumentNames(
+                new WikiReference("xwiki"))).thenReturn(documentNames);
+        EntityReferenceSerializer<String> localSerializer =
+                mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localSerializer.serialize(any(DocumentReference.class))).thenAnswer(new Answer<String>()
+        {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable
+            {
+                return serialize((DocumentReference) invocation.getArguments()[0]);
+            }
+        });
+        when(pagesToTransformGetter.getPagesToConvert(any(MigrationConfiguration.class)))
+                .thenReturn(example.getConcernedPages(migrationConfiguration));
+
+        MigrationPlanTree plan = mocker.getComponentUnderTest().computeMigrationPlan(migrationConfiguration);
+
+        verifyMigrationsActionsAreUnique(plan);
+        verifyPlan(plan, example);
+
+        // The new targets have been found free without querying the wiki
+        for (Page page : example.getAllPagesAfter()) {
+            if (!existingDocuments.contains(page.getDocumentReference())) {
+                verify(xwiki, never()).exists(eq(page.getDocumentReference()), any(XWikiContext.class));
+            }
+        }
+    }
+
+    @Test
+    public void testWithConflictsAndDocumentNames() throws Exception
+    {
+        testExampleWithDocumentNames("/example3.xml");
+    }
+
+    @Test
+    public void testWithDuplicateAndDocumentNames() throws Exception
+    {
+        testExampleWithDocumentNames("/example9.xml");
+    }
+
+    @Test
+    public void testWithManyPagesHavingTheSameName() throws Exception
+    {
+        // FOS.Sub0.Notes, ..., FOS.Sub299.Notes are all children of FOS.FOSDEM.WebHome
+        PageMetadataIndex index = newMetadataIndex();
+        List<DocumentReference> pages = new ArrayList<>();
+        for (int i = 0; i < 300; ++i) {
+            pages.add(new DocumentReference("xwiki", Arrays.asList("FOS", "Sub" + i), "Notes"));
+            index.put("FOS.Sub" + i + ".Notes", new PageMetadata("FOS.FOSDEM.WebHome", null, null, null));
+        }
+
+        MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setUseMetadataIndex(true);
+        when(mocker.<PageMetadataIndexLoader>getInstance(PageMetadataIndexLoader.class).load(
+                new WikiReference("xwiki"))).thenReturn(index);
+        when(pagesToTransformGetter.getPagesToConvert(any(MigrationConfiguration.class), eq(index)))
+                .thenReturn(pages);
+
+        MigrationPlanTree plan = mocker.getComponentUnderTest().computeMigrationPlan(configuration);
+
+        // Same names as when all the suffixes are tried one after the other
+        assertEquals(new DocumentReference("xwiki", Arrays.asList("FOS", "FOSDEM", "Notes"), "WebHome"),
+                plan.getActionAbout(pages.get(0)).getTargetDocument());
+        for (int i = 1; i < 300; ++i) {
+            assertEquals(new DocumentReference("xwiki", Arrays.asList("FOS", "FOSDEM", "Notes_" + (i + 1)), "WebHome"),
+                    plan.getActionAbout(pages.get(i)).getTargetDocument());
+        }
+    }
+
+    private void testExampleWithPrefetchedParents(String exampleName) throws Exception
+    {
+        Example example = new Example(exampleName);
+        setUpExample(example);
+
+        MigrationConfiguration migrationConfiguration = new MigrationConfiguration(new WikiReference("xwiki"));
+        migrationConfiguration.setDontMoveChildren(example.isDontMoveChildrenEnabled());
+        migrationConfiguration.setPlanComputationThreads(4);
+
+        // What ParentPrefetcher would have read: the documents that fail to load are missing
+        Map<DocumentReference, DocumentReference> parents = new HashMap<>();
+        for (Page page : example.getAllPages()) {
+            if (!page.isFailedToLoad()) {
+                parents.put(page.getDocumentReference(), page.getParent());
+            }
+        }
+        List<DocumentReference> concernedPages = example.getConcernedPages(migrationConfiguration);
+        when(mocker.<ParentPrefetcher>getInstance(ParentPrefetcher.class).prefetchParents(concernedPages,
+                new WikiReference("xwiki"), 4)).thenReturn(parents);
+        when(pagesToTransformGetter.getPagesToConvert(any(MigrationConfiguration.class))).thenReturn(concernedPages);
+
+        MigrationPlanTree plan = mocker.getComponentUnderTest().computeMigrationPlan(migrationConfiguration);
+
+        verifyMigrationsActionsAreUnique(plan);
+        verifyPlan(plan, example);
+
+        // Only the documents that could not be prefetched have been loaded again
+        for (Page page : example.getAllPages()) {
+            if (page.isFailedToLoad()) {
+                verify(mocker.getMockedLogger()).warn(eq("Failed to open the document [{}]."),
+                        eq(page.getDocumentReference()), any(XWikiException.class));
+            } else if (page.getDuplicateOf() == null) {
+                verify(xwiki, never()).getDocument(page.getDocumentReference(), context);
+            }
+        }
+    }
+
+    @Test
+    public void testBasicExampleWithPrefetchedParents() throws Exception
+    {
+        testExampleWithPrefetchedParents("/example1.xml");
+    }
+
+    @Test
+    public void testWithDocumentImpossibleToLoadAndPrefetchedParents() throws Exception
+    {
+        testExampleWithPrefetchedParents("/example6.xml");
+    }
+
+    @Test
+    public void testWithCycleAndPrefetchedParents() throws Exception
+    {
+        testExampleWithPrefetchedParents("/example8.xml");
+    }
+
+    private void testExampleWithCompactPlan(String exampleName) throws Exception
+    {
+        Example example = new Example(exampleName);
+        setUpExample(example);
+
+        MigrationConfiguration migrationConfiguration = new MigrationConfiguration(new WikiReference("xwiki"));
+        migrationConfiguration.setDontMoveChildren(example.isDontMoveChildrenEnabled());
+        migrationConfiguration.setCompactPlan(true);
+
+        when(pagesToTransformGetter.getPagesToConvert(any(MigrationConfiguration.class)))
+                .thenReturn(example.getConcernedPages(migrationConfiguration));
+
+        MigrationPlanTree plan = mocker.getComponentUnderTest().computeMigrationPlan(migrationConfiguration);
+
+        assertTrue(plan instanceof CompactMigrationPlanTree);
+        verifyMigrationsActionsAreUnique(plan);
+        verifyPlan(plan, example);
+
+        // The plan must be the same than the one stored in the default representation
+        migrationConfiguration.setCompactPlan(false);
+        MigrationPlanTree defaultPlan =
+                mocker.getComponentUnderTest().computeMigrationPlan(migrationConfiguration);
+        assertEquals(MigrationPlanSerializer.serialize(defaultPlan), MigrationPlanSerializer.serialize(plan));
+        assertEquals(defaultPlan.getActions().size(), plan.getActions().size());
+    }
+
+    @Test
+    public void testBasicExampleWithCompactPlan() throws Exception
+    {
+        testExampleWithCompactPlan("/example1.xml");
+    }
+
+    @Test
+    public void testBasicExampleWithoutChildrenMoveAndCompactPlan() throws Exception
+    {
+        testExampleWithCompactPlan("/example2.xml");
+    }
+
+    @Test
+    public void testWithConflictsAndCompactPlan() throws Exception
+    {
+        testExampleWithCompactPlan("/example3.xml");
+    }
+
+    @Test
+    public void testWithOrphanAndCompactPlan() throws Exception
+    {
+        testExampleWithCompactPlan("/example5.xml");
+    }
+
+    @Test
+    public void testWithCycleAndCompactPlan() throws Exception
+    {
+        testExampleWithCompactPlan("/example8.xml");
+    }
+
+    @Test
+    public void testWithIntentionalDuplicatesAndCompactPlan() throws Exception
+    {
+        testExampleWithCompactPlan("/example10.xml");
+    }
 }
@@ -0,0 +1,207 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.contrib.nestedpagesmigrator.internal.pages.ParentPrefetcher;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id: $
+ */
+public class ParentPrefetcherTest
+{
+    @Rule
+    public MockitoComponentMockingRule<ParentPrefetcher> mocker =
+            new MockitoComponentMockingRule<>(ParentPrefetcher.class);
+
+    private WikiReference wikiReference = new WikiReference("xwiki");
+
+    private XWikiContext context;
+
+    private XWiki xwiki;
+
+    private DocumentReferenceResolver<String> resolver;
+
+    private EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * The rows returned for each space, the spaces without rows make the query fail.
+     */
+    private Map<String, List<Object[]>> rows = new HashMap<>();
+
+    private List<String> queriedSpaces = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Provider<XWikiContext> contextProvider = mocker.registerMockComponent(XWikiContext.TYPE_PROVIDER);
+        context = mock(XWikiContext.class);
+        when(contextProvider.get()).thenReturn(context);
+        XWikiContext workerContext = mock(XWikiContext.class);
+        when(context.clone()).thenReturn(workerContext);
+        xwiki = mock(XWiki.class);
+        when(context.getWiki()).thenReturn(xwiki);
+        when(workerContext.getWiki()).thenReturn(xwiki);
+
+        resolver = mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        localSerializer = mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+
+        QueryManager queryManager = mocker.getInstance(QueryManager.class);
+        when(queryManager.createQuery(anyString(), eq(Query.HQL))).thenAnswer(new Answer<Query>()
+        {
+            @Override
+            public Query answer(InvocationOnMock invocation) throws Throwable
+            {
+                return mockQuery();
+            }
+        });
+    }
+
+    private Query mockQuery() throws QueryException
+    {
+        final Query query = mock(Query.class);
+        final String[] space = new String[1];
+        when(query.bindValue(eq("space"), anyString())).thenAnswer(new Answer<Query>()
+        {
+            @Override
+            public Query answer(InvocationOnMock invocation) throws Throwable
+            {
+                space[0] = (String) invocation.getArguments()[1];
+                return query;
+            }
+        });
+        when(query.<Object[]>execute()).thenAnswer(new Answer<List<Object[]>>()
+        {
+            @Override
+            public List<Object[]> answer(InvocationOnMock invocation) throws Throwable
+            {
+                synchronized (queriedSpaces) {
+                    queriedSpaces.add(space[0]);
+                }
+                if (!rows.containsKey(space[0])) {
+                    throw new QueryException("Failed", query, null);
+                }
+                return rows.get(space[0]);
+            }
+        });
+        return query;
+    }
+
+    private void mockSpace(String space)
+    {
+        when(localSerializer.serialize(new SpaceReference(space, wikiReference))).thenReturn(space);
+        rows.put(space, new ArrayList<Object[]>());
+    }
+
+    private DocumentReference mockDocument(String space, String page, String parent, DocumentReference parentReference)
+    {
+        DocumentReference documentReference = new DocumentReference("xwiki", space, page);
+        String fullName = space + '.' + page;
+        when(resolver.resolve(fullName, wikiReference)).thenReturn(documentReference);
+        if (parentReference != null) {
+            when(resolver.resolve(parent, documentReference)).thenReturn(parentReference);
+        }
+        rows.get(space).add(new Object[] {fullName, parent});
+        return documentReference;
+    }
+
+    @Test
+    public void prefetchParents() throws Exception
+    {
+        mockSpace("Main");
+        mockSpace("A");
+        mockSpace("B");
+        when(localSerializer.serialize(new SpaceReference("C", wikiReference))).thenReturn("C");
+
+        DocumentReference main = mockDocument("Main", "WebHome", "", null);
+        DocumentReference spaceA = mockDocument("A", "WebHome", "Main.WebHome", main);
+        DocumentReference pageA1 = mockDocument("A", "Page1", "WebHome", spaceA);
+        DocumentReference pageA2 = mockDocument("A", "Page2", "Page1", pageA1);
+        DocumentReference otherWiki = new DocumentReference("otherWiki", "X", "WebHome");
+        DocumentReference pageB = mockDocument("B", "Page", "otherWiki:X.WebHome", otherWiki);
+        DocumentReference pageC = new DocumentReference("xwiki", "C", "Page");
+
+        Map<DocumentReference, DocumentReference> parents = mocker.getComponentUnderTest().prefetchParents(
+                Arrays.asList(pageA1, pageA2, pageB, pageC), wikiReference, 2);
+
+        // The whole chains have been read
+        assertEquals(spaceA, parents.get(pageA1));
+        assertEquals(pageA1, parents.get(pageA2));
+        assertEquals(main, parents.get(spaceA));
+        assertTrue(parents.containsKey(main));
+        assertNull(parents.get(main));
+        // But not the documents of other wikis
+        assertEquals(otherWiki, parents.get(pageB));
+        assertEquals(5, parents.size());
+        // The documents that cannot be read are left to the plan creator
+        assertFalse(parents.containsKey(pageC));
+
+        // Each space has been queried once, the space of the ancestors in a second round
+        assertEquals(4, queriedSpaces.size());
+        assertEquals("Main", queriedSpaces.get(3));
+
+        // No document has been loaded
+        verify(xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+
+        // Each task has its own execution context
+        Execution execution = mocker.getInstance(Execution.class);
+        verify(execution, atLeastOnce()).setContext(any(ExecutionContext.class));
+        verify(execution, atLeastOnce()).removeContext();
+    }
+}
@@ -30,6 +30,8 @@ import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanSerializer;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.Preference;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePool;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePoolManager;
 import org.xwiki.contrib.nestedpagesmigrator.internal.preferences.PreferencesMigrationPlanCreator;
 import org.xwiki.contrib.nestedpagesmigrator.internal.preferences.PreferencesPropertiesGetter;
 import org.xwiki.contrib.nestedpagesmigrator.testframework.Example;
@@ -68,6 +70,8 @@ public class PreferencesMigrationPlanCreatorTest
 
         when(preferencesPropertiesGetter.getPreferencesProperties()).thenReturn(
                 Arrays.asList("skin", "iconTheme", "showLeftPanels"));
+        when(mocker.<ReferencePoolManager>getInstance(ReferencePoolManager.class).getPool())
+                .thenReturn(new ReferencePool());
     }
 
     protected MigrationPlanTree setUpExample(Example example) throws Exception
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePool;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @version $Id: $
+ */
+public class ReferencePoolTest
+{
+    @Test
+    public void getDocument()
+    {
+        ReferencePool pool = new ReferencePool();
+
+        DocumentReference page1 = pool.getDocument(new DocumentReference("xwiki", Arrays.asList("A", "B"), "Page"));
+        DocumentReference page2 = pool.getDocument(new DocumentReference("xwiki", Arrays.asList("A", "B"), "Page"));
+
+        assertEquals(new DocumentReference("xwiki", Arrays.asList("A", "B"), "Page"), page1);
+        assertSame(page1, page2);
+        // The wiki, the 2 spaces and the document
+        assertEquals(4, pool.getCreatedCount());
+        assertEquals(2, pool.getRequestCount());
+    }
+
+    @Test
+    public void sharedParents()
+    {
+        ReferencePool pool = new ReferencePool();
+
+        DocumentReference webHome = pool.getWebHome(new SpaceReference("xwiki", "A", "B"));
+        DocumentReference webPreferences = pool.getWebPreferences(new SpaceReference("xwiki", "A", "B"));
+        SpaceReference space = pool.getSpace("B", new SpaceReference("xwiki", "A"));
+        DocumentReference page = pool.getDocument(new DocumentReference("xwiki", Arrays.asList("A", "B"), "Page"));
+
+        assertEquals(new DocumentReference("xwiki", Arrays.asList("A", "B"), "WebHome"), webHome);
+        assertEquals(new DocumentReference("xwiki", Arrays.asList("A", "B"), "WebPreferences"), webPreferences);
+        assertSame(space, webHome.getLastSpaceReference());
+        assertSame(space, webPreferences.getLastSpaceReference());
+        assertSame(space, page.getLastSpaceReference());
+        assertSame(pool.getSpace(new SpaceReference("xwiki", "A")), space.getParent());
+        assertSame(pool.getWebHome(space), webHome);
+        assertEquals(new WikiReference("xwiki"), space.getParent().getParent());
+    }
+
+    @Test
+    public void getDocumentWithLocale()
+    {
+        ReferencePool pool = new ReferencePool();
+        DocumentReference page = new DocumentReference("xwiki", "A", "Page", Locale.FRENCH);
+
+        assertSame(page, pool.getDocument(page));
+    }
+}
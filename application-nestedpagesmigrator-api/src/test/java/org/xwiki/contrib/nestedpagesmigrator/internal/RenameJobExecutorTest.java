@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.RenameJobExecutor;
+import org.xwiki.job.Job;
+import org.xwiki.job.event.status.JobStatus;
+import org.xwiki.logging.LogLevel;
+import org.xwiki.logging.LogQueue;
+import org.xwiki.logging.event.LogEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.refactoring.job.RefactoringJobs;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id: $
+ */
+public class RenameJobExecutorTest
+{
+    @Rule
+    public MockitoComponentMockingRule<RenameJobExecutor> mocker =
+            new MockitoComponentMockingRule<>(RenameJobExecutor.class);
+
+    private Job job;
+
+    private LogQueue logQueue;
+
+    private DocumentReference origin = new DocumentReference("xwiki", "Movies", "Titanic");
+
+    private DocumentReference target = new DocumentReference("xwiki", Arrays.asList("Movies", "Titanic"), "WebHome");
+
+    private MigrationConfiguration configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+
+    @Before
+    public void setUp() throws Exception
+    {
+        job = mocker.registerMockComponent(Job.class, RefactoringJobs.RENAME);
+        JobStatus status = mock(JobStatus.class);
+        when(job.getStatus()).thenReturn(status);
+        logQueue = mock(LogQueue.class);
+        when(status.getLog()).thenReturn(logQueue);
+    }
+
+    @Test
+    public void rename() throws Exception
+    {
+        when(logQueue.getLogsFrom(LogLevel.ERROR)).thenReturn(Collections.<LogEvent>emptyList());
+
+        mocker.getComponentUnderTest().rename(origin, target, null, configuration);
+
+        verify(job).run();
+    }
+
+    @Test
+    public void renameWithErrors() throws Exception
+    {
+        LogEvent error = mock(LogEvent.class);
+        when(error.getFormattedMessage()).thenReturn("Failed to save the document.");
+        Exception cause = new Exception();
+        when(error.getThrowable()).thenReturn(cause);
+        when(logQueue.getLogsFrom(LogLevel.ERROR)).thenReturn(Arrays.asList(error));
+
+        try {
+            mocker.getComponentUnderTest().rename(origin, target, null, configuration);
+            fail("The errors of the rename job should be thrown.");
+        } catch (MigrationException e) {
+            assertTrue(e.getMessage().endsWith("Failed to save the document."));
+            assertSame(cause, e.getCause());
+        }
+    }
+}
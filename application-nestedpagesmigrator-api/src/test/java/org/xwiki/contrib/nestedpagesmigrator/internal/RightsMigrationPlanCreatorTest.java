@@ -26,6 +26,8 @@ import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
 import org.xwiki.contrib.nestedpagesmigrator.internal.serializer.MigrationPlanSerializer;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.Right;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePool;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.ReferencePoolManager;
 import org.xwiki.contrib.nestedpagesmigrator.internal.rights.DocumentRightsBridge;
 import org.xwiki.contrib.nestedpagesmigrator.internal.rights.RightsMigrationPlanCreator;
 import org.xwiki.contrib.nestedpagesmigrator.testframework.Example;
@@ -58,6 +60,8 @@ public class RightsMigrationPlanCreatorTest
     {
         documentRightsBridge = mocker.getInstance(DocumentRightsBridge.class);
         progressManager = mocker.getInstance(JobProgressManager.class);
+        when(mocker.<ReferencePoolManager>getInstance(ReferencePoolManager.class).getPool())
+                .thenReturn(new ReferencePool());
     }
 
 
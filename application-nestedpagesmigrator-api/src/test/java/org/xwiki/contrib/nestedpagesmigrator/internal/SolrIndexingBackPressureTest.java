@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.SolrIndexingBackPressure;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.search.solr.internal.api.SolrIndexer;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id: $
+ */
+public class SolrIndexingBackPressureTest
+{
+    @Rule
+    public MockitoComponentMockingRule<SolrIndexingBackPressure> mocker =
+            new MockitoComponentMockingRule<>(SolrIndexingBackPressure.class);
+
+    private SolrIndexer solrIndexer;
+
+    private MigrationConfiguration configuration;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        solrIndexer = mocker.getInstance(SolrIndexer.class);
+        configuration = new MigrationConfiguration(new WikiReference("xwiki"));
+        configuration.setSolrQueueHighWatermark(20);
+        configuration.setSolrQueueLowWatermark(10);
+    }
+
+    @Test
+    public void continueBelowHighWatermark() throws Exception
+    {
+        when(solrIndexer.getQueueSize()).thenReturn(20);
+
+        mocker.getComponentUnderTest().await(configuration);
+
+        verify(solrIndexer, times(1)).getQueueSize();
+        assertEquals(0, mocker.getComponentUnderTest().getPauseCount());
+    }
+
+    @Test
+    public void pauseUntilLowWatermark() throws Exception
+    {
+        when(solrIndexer.getQueueSize()).thenReturn(50, 30, 15, 10, 5);
+
+        mocker.getComponentUnderTest().await(configuration);
+
+        verify(solrIndexer, times(4)).getQueueSize();
+        assertEquals(1, mocker.getComponentUnderTest().getPauseCount());
+    }
+
+    @Test
+    public void waitForEmptyQueueByDefault() throws Exception
+    {
+        when(solrIndexer.getQueueSize()).thenReturn(1, 1, 0);
+
+        mocker.getComponentUnderTest().await(new MigrationConfiguration(new WikiReference("xwiki")));
+
+        verify(solrIndexer, times(3)).getQueueSize();
+    }
+
+    @Test
+    public void interrupted() throws Exception
+    {
+        when(solrIndexer.getQueueSize()).thenReturn(50);
+
+        Thread.currentThread().interrupt();
+        try {
+            mocker.getComponentUnderTest().await(configuration);
+            fail("The wait should have been interrupted.");
+        } catch (InterruptedException expected) {
+            // The interruption is propagated
+        }
+
+        assertEquals(1, mocker.getComponentUnderTest().getPauseCount());
+        assertTrue(mocker.getComponentUnderTest().getPauseTime() >= 0);
+    }
+}
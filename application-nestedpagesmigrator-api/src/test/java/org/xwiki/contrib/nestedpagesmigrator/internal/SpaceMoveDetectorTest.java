@@ -0,0 +1,255 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.SpaceMove;
+import org.xwiki.contrib.nestedpagesmigrator.internal.executor.SpaceMoveDetector;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @version $Id: $
+ */
+public class SpaceMoveDetectorTest
+{
+    @Rule
+    public MockitoComponentMockingRule<SpaceMoveDetector> mocker =
+            new MockitoComponentMockingRule<>(SpaceMoveDetector.class);
+
+    private WikiReference wikiReference = new WikiReference("xwiki");
+
+    private Query query;
+
+    private MigrationPlanTree plan;
+
+    private MigrationAction dramas;
+
+    private Set<SpaceReference> notMovableSpaces = new HashSet<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        QueryManager queryManager = mocker.getInstance(QueryManager.class);
+        query = mock(Query.class);
+        when(queryManager.createQuery(anyString(), eq(Query.HQL))).thenReturn(query);
+
+        EntityReferenceSerializer<String> localSerializer =
+                mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localSerializer.serialize(new SpaceReference("Dramas", wikiReference))).thenReturn("Dramas");
+
+        DocumentReferenceResolver<String> resolver = mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        when(resolver.resolve("Dramas.WebHome", wikiReference)).thenReturn(
+                new DocumentReference("xwiki", "Dramas", "WebHome"));
+        when(resolver.resolve("Dramas.Titanic", wikiReference)).thenReturn(
+                new DocumentReference("xwiki", "Dramas", "Titanic"));
+        when(resolver.resolve("XWiki.Admin", wikiReference)).thenReturn(
+                new DocumentReference("xwiki", "XWiki", "Admin"));
+
+        plan = new MigrationPlanTree();
+        dramas = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "WebHome"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+    }
+
+    @Test
+    public void detectSpaceMove() throws Exception
+    {
+        MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "Titanic"), dramas, plan);
+        when(query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"Dramas.WebHome", "XWiki.Admin", 0L},
+                new Object[] {"Dramas.Titanic", "XWiki.Admin", 0L}));
+
+        SpaceMove spaceMove = mocker.getComponentUnderTest().detect(dramas, notMovableSpaces);
+
+        verify(query).setWiki("xwiki");
+        verify(query).bindValue("space", "Dramas");
+        verify(query).bindValue("spacePrefix", "Dramas.%");
+        verify(query).bindValue("redirectClass", "XWiki.RedirectClass");
+        assertEquals(new SpaceReference("Dramas", wikiReference), spaceMove.getSource());
+        assertEquals(new SpaceReference("xwiki", "Main", "Dramas"), spaceMove.getTarget());
+        assertEquals(new DocumentReference("xwiki", "XWiki", "Admin"), spaceMove.getAuthor());
+        assertEquals(new HashSet<>(Arrays.asList(new DocumentReference("xwiki", "Dramas", "WebHome"),
+                new DocumentReference("xwiki", "Dramas", "Titanic"))), spaceMove.getDocuments());
+    }
+
+    @Test
+    public void documentMovedElsewhere() throws Exception
+    {
+        // The terminal page becomes a nested page, which a deep rename of the space would not do
+        MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Titanic"), "WebHome"), dramas, plan);
+        when(query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"Dramas.WebHome", "XWiki.Admin", 0L},
+                new Object[] {"Dramas.Titanic", "XWiki.Admin", 0L}));
+
+        assertNull(mocker.getComponentUnderTest().detect(dramas, notMovableSpaces));
+    }
+
+    @Test
+    public void documentNotInPlan() throws Exception
+    {
+        MigrationAction titanic = MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "Titanic"), dramas, plan);
+        titanic.setEnabled(false);
+
+        // The disabled action is not counted, so the space is too small to be moved at once
+        assertNull(mocker.getComponentUnderTest().detect(dramas, notMovableSpaces));
+        verify(query, never()).execute();
+    }
+
+    @Test
+    public void documentsWithDifferentAuthors() throws Exception
+    {
+        MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "Titanic"), dramas, plan);
+        when(query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"Dramas.WebHome", "XWiki.Admin", 0L},
+                new Object[] {"Dramas.Titanic", "XWiki.Editor", 0L}));
+
+        assertNull(mocker.getComponentUnderTest().detect(dramas, notMovableSpaces));
+    }
+
+    @Test
+    public void redirectLeftByPreviousExecution() throws Exception
+    {
+        MigrationAction.createInstance(new DocumentReference("xwiki", "Dramas", "Titanic"),
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "Titanic"), dramas, plan);
+        // Titanic has already been moved, only its redirection is left
+        when(query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"Dramas.WebHome", "XWiki.Admin", 0L},
+                new Object[] {"Dramas.Titanic", "XWiki.Admin", 1L}));
+
+        assertNull(mocker.getComponentUnderTest().detect(dramas, notMovableSpaces));
+        assertTrue(notMovableSpaces.contains(new SpaceReference("Dramas", wikiReference)));
+    }
+
+    @Test
+    public void rememberNotMovableSubSpaces() throws Exception
+    {
+        DocumentReference comedies = new DocumentReference("xwiki", Arrays.asList("Dramas", "Comedies"), "WebHome");
+        DocumentReference amelie = new DocumentReference("xwiki", Arrays.asList("Dramas", "Comedies"), "Amelie");
+        DocumentReference titanic = new DocumentReference("xwiki", "Dramas", "Titanic");
+        MigrationAction comediesAction = MigrationAction.createInstance(comedies,
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Comedies"), "WebHome"), dramas, plan);
+        MigrationAction.createInstance(amelie,
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas", "Comedies"), "Amelie"),
+                comediesAction, plan);
+        MigrationAction.createInstance(titanic,
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dramas"), "Titanic"), dramas, plan);
+        DocumentReferenceResolver<String> resolver = mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        when(resolver.resolve("Dramas.Comedies.WebHome", wikiReference)).thenReturn(comedies);
+        when(resolver.resolve("Dramas.Comedies.Amelie", wikiReference)).thenReturn(amelie);
+
+        // The comedies have different authors, so neither Dramas nor Dramas.Comedies can be moved at once
+        when(query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"Dramas.WebHome", "XWiki.Admin", 0L},
+                new Object[] {"Dramas.Titanic", "XWiki.Admin", 0L},
+                new Object[] {"Dramas.Comedies.WebHome", "XWiki.Admin", 0L},
+                new Object[] {"Dramas.Comedies.Amelie", "XWiki.Editor", 0L}));
+
+        assertNull(mocker.getComponentUnderTest().detect(dramas, notMovableSpaces));
+        assertTrue(notMovableSpaces.contains(new SpaceReference("xwiki", "Dramas", "Comedies")));
+
+        // The sub-space is not checked again
+        assertNull(mocker.getComponentUnderTest().detect(comediesAction, notMovableSpaces));
+        verify(query).execute();
+    }
+
+    @Test
+    public void spaceNameWithWildcard() throws Exception
+    {
+        DocumentReference home = new DocumentReference("xwiki", "Dev_Docs", "WebHome");
+        DocumentReference guide = new DocumentReference("xwiki", "Dev_Docs", "Guide");
+        DocumentReference other = new DocumentReference("xwiki", "DevXDocs", "Guide");
+        MigrationAction devDocs = MigrationAction.createInstance(home,
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dev_Docs"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationAction.createInstance(guide,
+                new DocumentReference("xwiki", Arrays.asList("Main", "Dev_Docs"), "Guide"), devDocs, plan);
+        EntityReferenceSerializer<String> localSerializer =
+                mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localSerializer.serialize(new SpaceReference("Dev_Docs", wikiReference))).thenReturn("Dev_Docs");
+        DocumentReferenceResolver<String> resolver = mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        when(resolver.resolve("Dev_Docs.WebHome", wikiReference)).thenReturn(home);
+        when(resolver.resolve("Dev_Docs.Guide", wikiReference)).thenReturn(guide);
+        when(resolver.resolve("DevXDocs.Guide", wikiReference)).thenReturn(other);
+        // A document of another space, as it would be returned if the wildcard was not escaped
+        when(query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"Dev_Docs.WebHome", "XWiki.Admin", 0L},
+                new Object[] {"Dev_Docs.Guide", "XWiki.Admin", 0L},
+                new Object[] {"DevXDocs.Guide", "XWiki.Admin", 0L}));
+
+        SpaceMove spaceMove = mocker.getComponentUnderTest().detect(devDocs, notMovableSpaces);
+
+        verify(query).bindValue("space", "Dev_Docs");
+        verify(query).bindValue("spacePrefix", "Dev!_Docs.%");
+        assertEquals(new HashSet<>(Arrays.asList(home, guide)), spaceMove.getDocuments());
+    }
+
+    @Test
+    public void spaceNameWithDot() throws Exception
+    {
+        DocumentReference home = new DocumentReference("xwiki", "A.B", "WebHome");
+        DocumentReference subHome = new DocumentReference("xwiki", Arrays.asList("A.B", "C"), "WebHome");
+        MigrationAction space = MigrationAction.createInstance(home,
+                new DocumentReference("xwiki", Arrays.asList("Main", "A.B"), "WebHome"),
+                plan.getTopLevelAction(), plan);
+        MigrationAction.createInstance(subHome,
+                new DocumentReference("xwiki", Arrays.asList("Main", "A.B", "C"), "WebHome"), space, plan);
+        EntityReferenceSerializer<String> localSerializer =
+                mocker.getInstance(EntityReferenceSerializer.TYPE_STRING, "local");
+        when(localSerializer.serialize(new SpaceReference("A.B", wikiReference))).thenReturn("A\\.B");
+        DocumentReferenceResolver<String> resolver = mocker.getInstance(DocumentReferenceResolver.TYPE_STRING);
+        when(resolver.resolve("A\\.B.WebHome", wikiReference)).thenReturn(home);
+        when(resolver.resolve("A\\.B.C.WebHome", wikiReference)).thenReturn(subHome);
+        when(query.execute()).thenReturn(Arrays.<Object>asList(new Object[] {"A\\.B.WebHome", "XWiki.Admin", 0L},
+                new Object[] {"A\\.B.C.WebHome", "XWiki.Admin", 0L}));
+
+        SpaceMove spaceMove = mocker.getComponentUnderTest().detect(space, notMovableSpaces);
+
+        // The backslash is not an escape character in the pattern, since another one is declared in the query
+        verify(mocker.<QueryManager>getInstance(QueryManager.class)).createQuery(contains("escape '!'"),
+                eq(Query.HQL));
+        verify(query).bindValue("space", "A\\.B");
+        verify(query).bindValue("spacePrefix", "A\\.B.%");
+        assertEquals(new HashSet<>(Arrays.asList(home, subHome)), spaceMove.getDocuments());
+    }
+}
@@ -19,6 +19,7 @@
  */
 package org.xwiki.contrib.nestedpagesmigrator.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -29,9 +30,12 @@ import javax.inject.Provider;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationConfiguration;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.internal.pages.PagesToTransformGetter;
+import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
@@ -51,6 +55,7 @@ import com.xpn.xwiki.objects.classes.BaseClass;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
@@ -241,4 +246,121 @@ public class TerminalPagesGetterTest
         assertEquals(1, results.size());
         assertTrue(results.contains(r1));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getPagesToConvertPageByPage() throws Exception
+    {
+        WikiReference wikiReference = new WikiReference("someWiki");
+
+        // Mocks
+        String whereClause = "where doc.name not in ('WebHome', 'WebPreferences') ";
+        whereClause += "and doc.fullName <> 'XWiki.XWikiPreferences'";
+
+        Query countQuery = mock(Query.class);
+        when(queryManager.createQuery(eq("select count(distinct doc.fullName) from Document doc " + whereClause),
+                eq(Query.XWQL))).thenReturn(countQuery);
+        when(countQuery.<Long>execute()).thenReturn(Arrays.asList(1001L));
+
+        Query firstPageQuery = mock(Query.class);
+        when(queryManager.createQuery(eq(whereClause + " order by doc.fullName"), eq(Query.XWQL)))
+                .thenReturn(firstPageQuery);
+        List<String> firstPage = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            firstPage.add(String.format("s1.p%04d", i));
+        }
+        when(firstPageQuery.<String>execute()).thenReturn(firstPage);
+
+        Query nextPagesQuery = mock(Query.class);
+        when(queryManager.createQuery(eq(whereClause + " and doc.fullName > :lastFullName order by doc.fullName"),
+                eq(Query.XWQL))).thenReturn(nextPagesQuery);
+        when(nextPagesQuery.<String>execute()).thenReturn(Arrays.asList("s2.p1"));
+
+        when(documentReferenceResolver.resolve(anyString(), eq(wikiReference))).thenAnswer(
+                new Answer<DocumentReference>()
+                {
+                    @Override
+                    public DocumentReference answer(InvocationOnMock invocation) throws Throwable
+                    {
+                        String[] parts = ((String) invocation.getArguments()[0]).split("\\.");
+                        return new DocumentReference("someWiki", parts[0], parts[1]);
+                    }
+                });
+        when(xwiki.getDocument(any(DocumentReference.class), eq(context))).thenReturn(mock(XWikiDocument.class));
+
+        // Test
+        MigrationConfiguration configuration = new MigrationConfiguration(wikiReference);
+        configuration.setExcludeHiddenPages(false);
+        configuration.setDontMoveChildren(true);
+        configuration.setExcludeClassPages(false);
+
+        List<DocumentReference> results = mocker.getComponentUnderTest().getPagesToConvert(configuration);
+
+        // Verify
+        verify(firstPageQuery).setLimit(1000);
+        verify(nextPagesQuery).setLimit(1000);
+        verify(nextPagesQuery).bindValue("lastFullName", "s1.p0999");
+        verify(mocker.<JobProgressManager>getInstance(JobProgressManager.class)).pushLevelProgress(eq(1001),
+                any(PagesToTransformGetter.class));
+
+        assertEquals(1001, results.size());
+        assertEquals(new DocumentReference("someWiki", "s1", "p0000"), results.get(0));
+        assertEquals(new DocumentReference("someWiki", "s2", "p1"), results.get(1000));
+    }
+
+    @Test
+    public void getPagesToConvertFilteredInQuery() throws Exception
+    {
+        WikiReference wikiReference = new WikiReference("someWiki");
+
+        // Mocks
+        String whereClause = "where doc.name <> 'WebPreferences'";
+        whereClause += " and doc.fullName <> 'XWiki.XWikiPreferences'";
+        whereClause += " and doc.translation = 0";
+        whereClause += " and (doc.hidden <> true or doc.hidden is null)";
+        whereClause += " and (doc.xWikiClassXML is null or doc.xWikiClassXML not like '<%')";
+        whereClause += " and not exists (select obj.id from BaseObject obj where obj.name = doc.fullName";
+        whereClause += " and obj.className in (:excludedClassList))";
+
+        Query countQuery = mock(Query.class);
+        when(queryManager.createQuery(eq("select count(doc.fullName) from XWikiDocument doc " + whereClause),
+                eq(Query.HQL))).thenReturn(countQuery);
+        when(countQuery.<Long>execute()).thenReturn(Arrays.asList(3L));
+
+        Query query = mock(Query.class);
+        when(queryManager.createQuery(eq("select doc.fullName, doc.parent from XWikiDocument doc " + whereClause
+                + " order by doc.fullName"), eq(Query.HQL))).thenReturn(query);
+        when(query.<Object[]>execute()).thenReturn(Arrays.asList(
+                new Object[] { "s1.WebHome", "Main.WebHome" },
+                new Object[] { "s2.WebHome", "" },
+                new Object[] { "s2.p1", "s2.WebHome" }));
+
+        DocumentReference r1 = new DocumentReference("someWiki", "s1", "WebHome");
+        DocumentReference r2 = new DocumentReference("someWiki", "s2", "WebHome");
+        DocumentReference r3 = new DocumentReference("someWiki", "s2", "p1");
+        when(documentReferenceResolver.resolve("s1.WebHome", wikiReference)).thenReturn(r1);
+        when(documentReferenceResolver.resolve("s2.WebHome", wikiReference)).thenReturn(r2);
+        when(documentReferenceResolver.resolve("s2.p1", wikiReference)).thenReturn(r3);
+        when(documentReferenceResolver.resolve("Main.WebHome", r1)).thenReturn(
+                new DocumentReference("someWiki", "Main", "WebHome"));
+        when(documentReferenceResolver.resolve("s2.WebHome", r3)).thenReturn(r2);
+
+        DocumentReference class1 = new DocumentReference("someWiki", "someSpace", "excludeClass");
+        when(referenceSerializer.serialize(class1)).thenReturn("someSpace.excludeClass");
+
+        // Test
+        MigrationConfiguration configuration = new MigrationConfiguration(wikiReference);
+        configuration.setFilterInQuery(true);
+        configuration.addExcludedObjectClass(class1);
+
+        List<DocumentReference> results = mocker.getComponentUnderTest().getPagesToConvert(configuration);
+
+        // Verify
+        assertEquals(2, results.size());
+        assertEquals(r1, results.get(0));
+        assertEquals(r3, results.get(1));
+
+        verify(query).bindValue("excludedClassList", Arrays.asList("someSpace.excludeClass"));
+        verify(query, never()).addFilter(any(QueryFilter.class));
+        verify(xwiki, never()).getDocument(any(DocumentReference.class), any(XWikiContext.class));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.CompactMigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.testframework.BasicDocumentReferenceResolver;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @version $Id: $
+ */
+public class MigrationPlanBinarySerializerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<MigrationPlanDeserializer> mocker =
+            new MockitoComponentMockingRule<>(MigrationPlanDeserializer.class);
+
+    private String example;
+
+    private MigrationPlanTree plan;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mocker.registerComponent(DocumentReferenceResolver.TYPE_STRING, new BasicDocumentReferenceResolver());
+
+        example = IOUtils.toString(getClass().getResourceAsStream("/plan.json"));
+        plan = mocker.getComponentUnderTest().deserialize(example, new WikiReference("xwiki"));
+    }
+
+    private ByteBuffer serialize(MigrationPlanTree plan) throws Exception
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        MigrationPlanBinarySerializer.serialize(plan, outputStream);
+        return ByteBuffer.wrap(outputStream.toByteArray());
+    }
+
+    @Test
+    public void test() throws Exception
+    {
+        MigrationPlanTree result = MigrationPlanBinaryDeserializer.deserialize(serialize(plan), false);
+
+        assertEquals(example, MigrationPlanSerializer.serialize(result));
+    }
+
+    @Test
+    public void testWithCompactPlan() throws Exception
+    {
+        MigrationPlanTree result = MigrationPlanBinaryDeserializer.deserialize(serialize(plan), true);
+
+        assertTrue(result instanceof CompactMigrationPlanTree);
+        assertEquals(example, MigrationPlanSerializer.serialize(result));
+    }
+
+    @Test
+    public void testWithCompression() throws Exception
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        MigrationPlanBinarySerializer.serialize(plan, outputStream, true);
+        byte[] data = outputStream.toByteArray();
+
+        assertTrue(MigrationPlanBinaryDeserializer.isBinaryPlan(data));
+        assertEquals(example, MigrationPlanSerializer.serialize(MigrationPlanBinaryDeserializer.deserialize(data,
+                false)));
+    }
+
+    @Test
+    public void testWithBase64() throws Exception
+    {
+        for (boolean compress : new boolean[] {false, true}) {
+            String serializedPlan = MigrationPlanBinarySerializer.serializeToBase64(plan, compress);
+
+            assertTrue(serializedPlan.length() < example.length());
+            // The deserializer of the scripts detects the binary plans
+            MigrationPlanTree result =
+                    mocker.getComponentUnderTest().deserialize(serializedPlan, new WikiReference("xwiki"));
+            assertEquals(example, MigrationPlanSerializer.serialize(result));
+        }
+    }
+
+    @Test(expected = MigrationException.class)
+    public void testWithInvalidData() throws Exception
+    {
+        MigrationPlanBinaryDeserializer.deserialize(ByteBuffer.wrap("{\"actions\":[]}".getBytes("UTF-8")), false);
+    }
+
+    @Test(expected = MigrationException.class)
+    public void testWithTruncatedData() throws Exception
+    {
+        ByteBuffer buffer = serialize(plan);
+        buffer.limit(buffer.limit() / 2);
+        MigrationPlanBinaryDeserializer.deserialize(buffer, false);
+    }
+
+    @Test(expected = MigrationException.class)
+    public void testWithTooLongTable() throws Exception
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putInt(MigrationPlanBinarySerializer.MAGIC).put(MigrationPlanBinarySerializer.VERSION);
+        // A table of 2^28 strings
+        buffer.put((byte) 0x80).put((byte) 0x80).put((byte) 0x80).put((byte) 0x80).put((byte) 0x01);
+        buffer.flip();
+        MigrationPlanBinaryDeserializer.deserialize(buffer, false);
+    }
+
+    @Test
+    public void testWithCorruptedData() throws Exception
+    {
+        ByteBuffer original = serialize(plan);
+        byte[] data = new byte[original.remaining()];
+        original.get(data);
+
+        // Whatever the corrupted byte, the plan is either read or rejected with a MigrationException
+        for (int i = 0; i < data.length; ++i) {
+            byte[] corrupted = data.clone();
+            corrupted[i] = (byte) ~corrupted[i];
+            try {
+                MigrationPlanBinaryDeserializer.deserialize(ByteBuffer.wrap(corrupted), false);
+            } catch (MigrationException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -19,17 +19,29 @@
  */
 package org.xwiki.contrib.nestedpagesmigrator.internal.serializer;
 
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
 import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationException;
 import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.internal.plan.CompactMigrationPlanTree;
 import org.xwiki.contrib.nestedpagesmigrator.testframework.BasicDocumentReferenceResolver;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 /**
  * @version $Id: $
@@ -45,7 +57,7 @@ public class MigrationPlanDeserializerTest
     @Before
     public void setUp() throws Exception
     {
-        resolver = new BasicDocumentReferenceResolver();
+        resolver = spy(new BasicDocumentReferenceResolver());
         mocker.registerComponent(DocumentReferenceResolver.TYPE_STRING, resolver);
     }
 
@@ -60,4 +72,79 @@ public class MigrationPlanDeserializerTest
 
         assertEquals(example, result);
     }
+
+    @Test
+    public void testWithCompactPlan() throws Exception
+    {
+        String example = IOUtils.toString(getClass().getResourceAsStream("/plan.json"));
+
+        MigrationPlanTree plan =
+                mocker.getComponentUnderTest().deserialize(example, new WikiReference("xwiki"), true);
+
+        assertTrue(plan instanceof CompactMigrationPlanTree);
+        assertEquals(example, MigrationPlanSerializer.serialize(plan));
+    }
+
+    @Test
+    public void testWithInputStream() throws Exception
+    {
+        String example = IOUtils.toString(getClass().getResourceAsStream("/plan.json"));
+
+        MigrationPlanTree plan = mocker.getComponentUnderTest().deserialize(
+                new ByteArrayInputStream(example.getBytes("UTF-8")), new WikiReference("xwiki"), false);
+
+        assertEquals(example, MigrationPlanSerializer.serialize(plan));
+    }
+
+    @Test
+    public void testReferencesAreResolvedOnce() throws Exception
+    {
+        String example = IOUtils.toString(getClass().getResourceAsStream("/plan.json"));
+        WikiReference wikiReference = new WikiReference("xwiki");
+
+        mocker.getComponentUnderTest().deserialize(example, wikiReference);
+
+        verify(resolver, times(1)).resolve("xwiki:Dramas.WebPreferences", wikiReference);
+        verify(resolver, times(1)).resolve("xwiki:Movies.WebPreferences", wikiReference);
+    }
+
+    @Test
+    public void testWithPropertiesInAnyOrder() throws Exception
+    {
+        String json = "[{\"children\": [], \"enabled\": false, \"sourceDocument\": \"xwiki:A.WebHome\", "
+                + "\"targetDocument\": \"xwiki:B.A.WebHome\", \"unknown\": {\"a\": [1, 2]}}]";
+
+        MigrationException exception = null;
+        try {
+            mocker.getComponentUnderTest().deserialize(json, new WikiReference("xwiki"));
+        } catch (MigrationException e) {
+            exception = e;
+        }
+        // The action must be known before reading its children
+        assertEquals("Unexpected JSON schema.", exception.getMessage());
+
+        json = "[{\"enabled\": false, \"sourceDocument\": \"xwiki:A.WebHome\", \"unknown\": {\"a\": [1, 2]}, "
+                + "\"targetDocument\": \"xwiki:B.A.WebHome\", \"children\": []}]";
+        MigrationPlanTree plan = mocker.getComponentUnderTest().deserialize(json, new WikiReference("xwiki"));
+
+        MigrationAction action = plan.getActionAbout(new DocumentReference("xwiki", "A", "WebHome"));
+        assertEquals(new DocumentReference("xwiki", Arrays.asList("B", "A"), "WebHome"),
+                action.getTargetDocument());
+        assertFalse(action.isEnabled());
+    }
+
+    @Test(expected = MigrationException.class)
+    public void testWithUnexpectedSchema() throws Exception
+    {
+        mocker.getComponentUnderTest().deserialize("{\"actions\": []}", new WikiReference("xwiki"));
+    }
+
+    @Test(expected = MigrationException.class)
+    public void testWithTruncatedJson() throws Exception
+    {
+        String example = IOUtils.toString(getClass().getResourceAsStream("/plan.json"));
+
+        mocker.getComponentUnderTest().deserialize(example.substring(0, example.length() / 2),
+                new WikiReference("xwiki"));
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.nestedpagesmigrator.internal.serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationAction;
+import org.xwiki.contrib.nestedpagesmigrator.MigrationPlanTree;
+import org.xwiki.contrib.nestedpagesmigrator.testframework.BasicDocumentReferenceResolver;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.google.gson.JsonParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @version $Id: $
+ */
+public class MigrationPlanSerializerTest
+{
+    @Rule
+    public MockitoComponentMockingRule<MigrationPlanDeserializer> mocker =
+            new MockitoComponentMockingRule<>(MigrationPlanDeserializer.class);
+
+    private String example;
+
+    private MigrationPlanTree plan;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        mocker.registerComponent(DocumentReferenceResolver.TYPE_STRING, new BasicDocumentReferenceResolver());
+
+        example = IOUtils.toString(getClass().getResourceAsStream("/plan.json"));
+        plan = mocker.getComponentUnderTest().deserialize(example, new WikiReference("xwiki"));
+    }
+
+    @Test
+    public void streamWithPrettyPrinting() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        MigrationPlanSerializer.serialize(plan, writer, true);
+
+        assertEquals(example, writer.toString());
+        assertEquals(MigrationPlanSerializer.serialize(plan), writer.toString());
+    }
+
+    @Test
+    public void streamCompact() throws Exception
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        MigrationPlanSerializer.serialize(plan, outputStream);
+        String result = outputStream.toString("UTF-8");
+
+        assertFalse(result.contains("\n"));
+        JsonParser parser = new JsonParser();
+        assertEquals(parser.parse(example), parser.parse(result));
+
+        // The compact JSON is a valid plan
+        MigrationPlanTree otherPlan = mocker.getComponentUnderTest().deserialize(result, new WikiReference("xwiki"));
+        assertEquals(example, MigrationPlanSerializer.serialize(otherPlan));
+    }
+
+    @Test
+    public void serializeChildren() throws Exception
+    {
+        MigrationAction main = plan.getActions().get(new DocumentReference("xwiki", "Main", "WebHome"));
+        MigrationAction movies = plan.getActions().get(new DocumentReference("xwiki", "Movies", "WebHome"));
+
+        assertEquals("{\"offset\":0,\"total\":1,\"children\":[{\"sourceDocument\":\"xwiki:Main.WebHome\","
+                + "\"targetDocument\":\"xwiki:Main.WebHome\",\"childCount\":1}]}",
+                MigrationPlanSerializer.serializeChildren(plan.getTopLevelAction(), 0, 10));
+        assertEquals("{\"offset\":0,\"total\":1,\"children\":[{\"sourceDocument\":\"xwiki:Movies.WebHome\","
+                + "\"targetDocument\":\"xwiki:Main.Movies.WebHome\",\"childCount\":2}]}",
+                MigrationPlanSerializer.serializeChildren(main, 0, 10));
+        String starTrek = MigrationPlanSerializer.serializeChildren(movies, 1, 1);
+        assertTrue(starTrek.startsWith("{\"offset\":1,\"total\":2,\"children\":[{"
+                + "\"sourceDocument\":\"xwiki:Movies.StarTrek\","
+                + "\"targetDocument\":\"xwiki:Main.Movies.StarTrek.WebHome\","
+                + "\"preferences\":[{\"name\":\"skin\""));
+        assertTrue(starTrek.endsWith("\"childCount\":0}]}"));
+        assertEquals("{\"offset\":2,\"total\":2,\"children\":[]}",
+                MigrationPlanSerializer.serializeChildren(movies, 2, 1));
+    }
+
+    @Test
+    public void streamEmptyPlan() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        MigrationPlanSerializer.serialize(new MigrationPlanTree(), writer);
+
+        assertEquals("[]", writer.toString());
+    }
+}